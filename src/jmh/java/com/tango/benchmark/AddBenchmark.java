@@ -0,0 +1,91 @@
+package com.tango.benchmark;
+
+import com.tango.domain.Stat;
+import com.tango.services.AddOutcome;
+import com.tango.services.CalculatorConfig;
+import com.tango.services.StatCalculatorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//Throughput of add from 1 to 64 threads, every thread writes the last 3 seconds like a live feed does.
+//Contention on the current bucket is the interesting part, stat.stripes can be changed with -p stripes=N.
+//Fixed-point cells of the ring engine are compared with the double ones by -p engine=ring -p amountScale=-1,2.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Engine {
+        @Param({Engines.ALL})
+        public String engine;
+        @Param({"1"})
+        public int stripes;
+        //stat.amount-scale, -1 leaves it unset, only the ring engine takes it
+        @Param({"-1"})
+        public int amountScale;
+
+        StatCalculatorService statCalculatorService;
+
+        @Setup
+        public void setUp() throws Exception {
+            CalculatorConfig calculatorConfig = new CalculatorConfig(60, 10);
+            calculatorConfig.setStripes(stripes);
+            calculatorConfig.setAmountScale(amountScale < 0 ? null : amountScale);
+            statCalculatorService = Engines.create(engine, calculatorConfig);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            Engines.close(statCalculatorService);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Records {
+        private int next;
+
+        Stat next() {
+            return new Stat(next & 1023, System.currentTimeMillis() - (next++ % 3) * 1000);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public AddOutcome add1(Engine engine, Records records) {
+        return engine.statCalculatorService.add(records.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public AddOutcome add4(Engine engine, Records records) {
+        return engine.statCalculatorService.add(records.next());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public AddOutcome add16(Engine engine, Records records) {
+        return engine.statCalculatorService.add(records.next());
+    }
+
+    @Benchmark
+    @Threads(64)
+    public AddOutcome add64(Engine engine, Records records) {
+        return engine.statCalculatorService.add(records.next());
+    }
+}
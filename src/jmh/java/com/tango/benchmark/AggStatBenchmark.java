@@ -0,0 +1,64 @@
+package com.tango.benchmark;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.Stat;
+import com.tango.services.CalculatorConfig;
+import com.tango.services.StatCalculatorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//Latency of getCurrentAggStat over a window where every bucket is filled, i.e. the cost of
+//maxDuration * granularity buckets. The window is refilled every iteration, so it doesn't expire while measured.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AggStatBenchmark {
+    @Param({Engines.ALL})
+    public String engine;
+    @Param({"10", "60", "300"})
+    public int maxDuration;
+    @Param({"1", "10"})
+    public int granularity;
+
+    private StatCalculatorService statCalculatorService;
+
+    @Setup
+    public void setUp() throws Exception {
+        statCalculatorService = Engines.create(engine, new CalculatorConfig(maxDuration, granularity));
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        long now = System.currentTimeMillis();
+        long bucketMillis = 1000 / granularity;
+        for (long timestamp = now; timestamp > now - maxDuration * 1000L; timestamp -= bucketMillis) {
+            statCalculatorService.add(new Stat(timestamp % 1000, timestamp));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Engines.close(statCalculatorService);
+    }
+
+    @Benchmark
+    public AggregatedStat getCurrentAggStat() {
+        return statCalculatorService.getCurrentAggStat();
+    }
+}
@@ -0,0 +1,44 @@
+package com.tango.benchmark;
+
+import com.tango.services.CalculatorConfig;
+import com.tango.services.InMemoryStatCalculatorService;
+import com.tango.services.RingBufferStatCalculatorService;
+import com.tango.services.SlidingWindowStatCalculatorService;
+import com.tango.services.StatCalculatorService;
+import com.tango.services.TieredStatCalculatorService;
+
+import javax.annotation.Nonnull;
+
+//Creates an engine by its stat.engine name or by the class name of any StatCalculatorService
+//with a CalculatorConfig constructor, so a new engine can be benchmarked with -p engine=com.tango.services.Xxx
+final class Engines {
+    static final String ALL = "map,ring,window,tiered";
+
+    private Engines() {
+    }
+
+    @Nonnull
+    static StatCalculatorService create(@Nonnull String engine, @Nonnull CalculatorConfig calculatorConfig) throws Exception {
+        switch (engine) {
+            case "map":
+                return new InMemoryStatCalculatorService(calculatorConfig);
+            case "ring":
+                return new RingBufferStatCalculatorService(calculatorConfig);
+            case "window":
+                return new SlidingWindowStatCalculatorService(calculatorConfig);
+            case "tiered":
+                return new TieredStatCalculatorService(calculatorConfig);
+            default:
+                return Class.forName(engine)
+                        .asSubclass(StatCalculatorService.class)
+                        .getConstructor(CalculatorConfig.class)
+                        .newInstance(calculatorConfig);
+        }
+    }
+
+    static void close(@Nonnull StatCalculatorService statCalculatorService) throws Exception {
+        if (statCalculatorService instanceof AutoCloseable) {
+            ((AutoCloseable) statCalculatorService).close();
+        }
+    }
+}
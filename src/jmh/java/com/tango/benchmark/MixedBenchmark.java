@@ -0,0 +1,99 @@
+package com.tango.benchmark;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.Stat;
+import com.tango.services.AddOutcome;
+import com.tango.services.CalculatorConfig;
+import com.tango.services.StatCalculatorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//Writers and readers of one engine at the same time, 8 threads split 7:1, 4:4 and 1:7.
+//JMH reports every group as a whole and its add / getCurrentAggStat parts separately.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class MixedBenchmark {
+    @Param({Engines.ALL})
+    public String engine;
+
+    private StatCalculatorService statCalculatorService;
+
+    @Setup
+    public void setUp() throws Exception {
+        statCalculatorService = Engines.create(engine, new CalculatorConfig(60, 10));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Engines.close(statCalculatorService);
+    }
+
+    @State(Scope.Thread)
+    public static class Records {
+        private int next;
+
+        Stat next() {
+            return new Stat(next & 1023, System.currentTimeMillis() - (next++ % 3) * 1000);
+        }
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(7)
+    public AddOutcome writeHeavyAdd(Records records) {
+        return statCalculatorService.add(records.next());
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(1)
+    public AggregatedStat writeHeavyRead() {
+        return statCalculatorService.getCurrentAggStat();
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(4)
+    public AddOutcome balancedAdd(Records records) {
+        return statCalculatorService.add(records.next());
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(4)
+    public AggregatedStat balancedRead() {
+        return statCalculatorService.getCurrentAggStat();
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public AddOutcome readHeavyAdd(Records records) {
+        return statCalculatorService.add(records.next());
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(7)
+    public AggregatedStat readHeavyRead() {
+        return statCalculatorService.getCurrentAggStat();
+    }
+}
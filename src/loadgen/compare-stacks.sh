@@ -0,0 +1,58 @@
+#!/usr/bin/env bash
+#Runs the same open loop schedule against the Jetty servlet stack and the Netty reactive stack over CONNECTIONS
+#(10000 by default) concurrent keep-alive connections and keeps the reports in
+#src/loadgen/results/<date>/<stack>-<rate>.txt. Usage from the project root:
+#  src/loadgen/compare-stacks.sh [rates...]    rates default to 5000 10000 20000 requests/s
+#Every stack is started in a JVM of its own and driven with --target --io=nio, so neither process holds both ends
+#of all the connections against its file descriptor limit.
+#APP_ARGS adds arguments to the instance, like APP_ARGS='--stat.engine=ring', LOADGEN_ARGS to the generator,
+#like LOADGEN_ARGS='--read-ratio=0.5', JAVA_OPTS to both JVMs. LOADGEN_CLASSPATH skips the Gradle build,
+#it has to hold the main and the loadgen classes with their dependencies.
+set -euo pipefail
+
+cd "$(dirname "$0")/../.."
+rates=("$@")
+if [ ${#rates[@]} -eq 0 ]; then
+    rates=(5000 10000 20000)
+fi
+connections=${CONNECTIONS:-10000}
+port=${PORT:-18080}
+ulimit -n $((connections + 4096)) 2>/dev/null || ulimit -n "$(ulimit -Hn)"
+classpath=${LOADGEN_CLASSPATH:-$(./gradlew -q loadgenClasspath)}
+out="src/loadgen/results/$(date +%Y-%m-%d)"
+mkdir -p "$out"
+{
+    echo "commit $(git rev-parse --short HEAD)"
+    echo "java $(java -version 2>&1 | head -1)"
+    echo "cpus $(getconf _NPROCESSORS_ONLN)"
+    echo "memory $(awk '/MemTotal/ {print $2 " " $3}' /proc/meminfo 2>/dev/null || echo unknown)"
+    echo "open files $(ulimit -n)"
+    echo "connections $connections"
+    echo "app args ${APP_ARGS:-}"
+    echo "loadgen args ${LOADGEN_ARGS:-}"
+    echo "java opts ${JAVA_OPTS:-}"
+} > "$out/environment.txt"
+
+for rate in "${rates[@]}"; do
+    for stack in servlet reactive; do
+        echo "== $stack at $rate requests/s"
+        # shellcheck disable=SC2086
+        java ${JAVA_OPTS:-} -cp "$classpath" com.tango.Application --server.port="$port" \
+            --spring.main.web-application-type="$stack" ${APP_ARGS:-} > "$out/$stack-$rate.log" 2>&1 &
+        app=$!
+        until curl -s -o /dev/null "http://localhost:$port/statistics"; do
+            if ! kill -0 "$app" 2>/dev/null; then
+                echo "$stack instance hasn't started, see $out/$stack-$rate.log" >&2
+                exit 1
+            fi
+            sleep 1
+        done
+        # shellcheck disable=SC2086
+        java ${JAVA_OPTS:-} -cp "$classpath" com.tango.loadgen.LoadGenerator --target="http://localhost:$port" \
+            --io=nio --connections="$connections" --rate="$rate" --warmup=15s --duration=60s ${LOADGEN_ARGS:-} \
+            | tee "$out/$stack-$rate.txt"
+        kill "$app"
+        wait "$app" || true
+        rm "$out/$stack-$rate.log"
+    done
+done
@@ -0,0 +1,219 @@
+package com.tango.loadgen;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+//Keep-alive HTTP/1.1 connection of the nio mode, one request at a time. Just enough of the protocol for the
+//responses of this service: a status line, headers, and a body of Content-Length bytes or chunks.
+//An idle connection is read too, so one the server has closed is noticed and opened again before it is used.
+//Not thread safe, it belongs to the selector thread which registered it.
+final class HttpChannel {
+    private static final int NO_LENGTH = -1;
+    private static final int CHUNKED = -2;
+
+    @Nonnull
+    private final InetSocketAddress address;
+    @Nonnull
+    private final Selector selector;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer request;
+    private ByteBuffer response = ByteBuffer.allocate(4096);
+    //of the request in flight
+    private long dueNanos;
+    private long sentNanos;
+    private boolean read;
+    private boolean inFlight;
+    private boolean connected;
+    //the server has asked to close the connection after the response
+    private boolean closing;
+
+    HttpChannel(@Nonnull InetSocketAddress address, @Nonnull Selector selector) throws IOException {
+        this.address = address;
+        this.selector = selector;
+        connect();
+    }
+
+    //a non-blocking connect, finished by finishConnect once the key is connectable
+    void connect() throws IOException {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        connected = channel.connect(address);
+        key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+    }
+
+    void finishConnect() throws IOException {
+        channel.finishConnect();
+        connected = true;
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    boolean isIdle() {
+        return connected && !inFlight;
+    }
+
+    boolean isInFlight() {
+        return inFlight;
+    }
+
+    boolean isRead() {
+        return read;
+    }
+
+    long getDueNanos() {
+        return dueNanos;
+    }
+
+    long getSentNanos() {
+        return sentNanos;
+    }
+
+    //writes what the socket takes at once, the rest once it is writable
+    void send(@Nonnull ByteBuffer request, boolean read, long dueNanos) throws IOException {
+        this.request = request;
+        this.read = read;
+        this.dueNanos = dueNanos;
+        this.sentNanos = System.nanoTime();
+        this.inFlight = true;
+        response.clear();
+        write();
+    }
+
+    void write() throws IOException {
+        channel.write(request);
+        key.interestOps(request.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    //status code once the whole response has arrived, 0 while it hasn't
+    int read() throws IOException {
+        if (!inFlight) {
+            response.clear();
+            if (channel.read(response) < 0) {
+                throw new IOException("idle connection closed by the server");
+            }
+            response.clear();
+            return 0;
+        }
+        if (!response.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(response.capacity() * 2);
+            response.flip();
+            larger.put(response);
+            response = larger;
+        }
+        if (channel.read(response) < 0) {
+            throw new IOException("connection closed by the server");
+        }
+        int status = parse();
+        if (status != 0) {
+            inFlight = false;
+            if (closing) {
+                reconnect();
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+        return status;
+    }
+
+    //closes the connection and opens another one, the request in flight is lost
+    void reconnect() throws IOException {
+        close();
+        inFlight = false;
+        closing = false;
+        connect();
+    }
+
+    void close() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            //nothing is left to release
+        }
+    }
+
+    private int parse() throws IOException {
+        byte[] bytes = response.array();
+        int length = response.position();
+        int headersEnd = indexOf(bytes, 0, length, "\r\n\r\n");
+        if (headersEnd < 0) {
+            return 0;
+        }
+        String[] lines = new String(bytes, 0, headersEnd, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] statusLine = lines[0].split(" ", 3);
+        if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/1.")) {
+            throw new IOException("not an HTTP response: " + lines[0]);
+        }
+        int status = Integer.parseInt(statusLine[1]);
+        long contentLength = NO_LENGTH;
+        closing = false;
+        for (int i = 1; i < lines.length; ++i) {
+            int colon = lines[i].indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim();
+            String value = lines[i].substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                contentLength = Long.parseLong(value);
+            } else if (name.equalsIgnoreCase("Transfer-Encoding") && value.equalsIgnoreCase("chunked")) {
+                contentLength = CHUNKED;
+            } else if (name.equalsIgnoreCase("Connection") && value.equalsIgnoreCase("close")) {
+                closing = true;
+            }
+        }
+        int bodyStart = headersEnd + 4;
+        boolean complete;
+        if (contentLength == CHUNKED) {
+            complete = chunksEnd(bytes, bodyStart, length) >= 0;
+        } else if (contentLength == NO_LENGTH) {
+            //only the responses without a body (204, 304) come without either header here
+            complete = true;
+        } else {
+            complete = length - bodyStart >= contentLength;
+        }
+        return complete ? status : 0;
+    }
+
+    //index right after the last chunk, -1 if it hasn't arrived yet; trailers aren't expected
+    private static int chunksEnd(byte[] bytes, int from, int length) {
+        int position = from;
+        while (true) {
+            int lineEnd = indexOf(bytes, position, length, "\r\n");
+            if (lineEnd < 0) {
+                return -1;
+            }
+            String size = new String(bytes, position, lineEnd - position, StandardCharsets.ISO_8859_1);
+            int extension = size.indexOf(';');
+            int chunkLength = Integer.parseInt((extension < 0 ? size : size.substring(0, extension)).trim(), 16);
+            position = lineEnd + 2 + chunkLength + 2;
+            if (position > length) {
+                return -1;
+            }
+            if (chunkLength == 0) {
+                return position;
+            }
+        }
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, String pattern) {
+        outer:
+        for (int i = from; i <= to - pattern.length(); ++i) {
+            for (int j = 0; j < pattern.length(); ++j) {
+                if (bytes[i + j] != pattern.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
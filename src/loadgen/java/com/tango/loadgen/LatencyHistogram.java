@@ -0,0 +1,90 @@
+package com.tango.loadgen;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//HDR style histogram of latencies in nanoseconds: values below 2^SUB_BITS are counted exactly, every power of two
+//above is split into 2^SUB_BITS linear bins, so a reported percentile is at most 1/128 above the recorded value.
+//Recording is one atomic increment, reports are taken from snapshots and an interval is the difference of two.
+final class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BIN_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BIN_COUNT);
+
+    void record(long nanos) {
+        counts.incrementAndGet(binOf(Math.max(0, nanos)));
+    }
+
+    @Nonnull
+    Snapshot snapshot() {
+        long[] copy = new long[BIN_COUNT];
+        for (int bin = 0; bin < BIN_COUNT; ++bin) {
+            copy[bin] = counts.get(bin);
+        }
+        return new Snapshot(copy);
+    }
+
+    static int binOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) (value >>> shift) - SUB_COUNT;
+    }
+
+    //the largest value which falls into bin, like HdrHistogram's highest equivalent value
+    static long highestOf(int bin) {
+        if (bin < SUB_COUNT) {
+            return bin;
+        }
+        int shift = (bin >>> SUB_BITS) - 1;
+        long mantissa = SUB_COUNT + (bin & (SUB_COUNT - 1));
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    static final class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.totalCount = total;
+        }
+
+        //what has been recorded after previous
+        @Nonnull
+        Snapshot minus(@Nonnull Snapshot previous) {
+            long[] difference = new long[BIN_COUNT];
+            for (int bin = 0; bin < BIN_COUNT; ++bin) {
+                difference[bin] = counts[bin] - previous.counts[bin];
+            }
+            return new Snapshot(difference);
+        }
+
+        long getTotalCount() {
+            return totalCount;
+        }
+
+        //nanoseconds, 0 without records, 100 is the maximum
+        long getValueAtPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+            long seen = 0;
+            for (int bin = 0; bin < BIN_COUNT; ++bin) {
+                seen += counts[bin];
+                if (seen >= rank) {
+                    return highestOf(bin);
+                }
+            }
+            return highestOf(BIN_COUNT - 1);
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package com.tango.loadgen;
+
+import com.tango.Application;
+import com.tango.services.CalculatorConfig;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+//Drives POST /transactions and GET /statistics of an embedded Application (or of --target) at a constant rate:
+//./gradlew loadgen [-PloadgenArgs='--rate=20000 --duration=60s --stat.engine=ring']
+//The schedule is open loop, request i is due at start + i / rate whether or not the earlier ones have been
+//answered, and its response time is measured from when it was due, not from when a free connection sent it.
+//So a stall of the server shows up in the percentiles of every request it has delayed instead of only in the one
+//which was in flight (coordinated omission). Service time, measured from the actual send, is reported next to it,
+//their gap is how far the generator fell behind. The embedded instance shares the CPUs with the generator,
+//--target measures one running on its own.
+//--io=nio multiplexes the connections over --io-threads selector threads instead of a thread per connection,
+//so tens of thousands of concurrent connections can be held; --target then keeps the server sockets out of
+//this process's file descriptor limit.
+public final class LoadGenerator {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99, 100};
+    private static final int TIMEOUT_MILLIS = 10000;
+    //requests which didn't get a response at all
+    private static final int IO_ERROR = 0;
+
+    @Nonnull
+    private final LoadOptions options;
+    @Nonnull
+    private final URL transactions;
+    @Nonnull
+    private final URL statistics;
+    private final long windowMillis;
+    private final long latenessMillis;
+    private final long futureSkewMillis;
+    private final Operation writes = new Operation("write");
+    private final Operation reads = new Operation("read");
+    private final AtomicLong next = new AtomicLong();
+    private final double periodNanos;
+    private long startNanos;
+    private long endNanos;
+
+    private LoadGenerator(@Nonnull LoadOptions options, @Nonnull String baseUrl, int maxDuration,
+                          @Nonnull Duration allowedLateness, @Nonnull Duration futureSkew) throws IOException {
+        this.options = options;
+        this.transactions = new URL(baseUrl + "/transactions");
+        this.statistics = new URL(baseUrl + options.readPath);
+        this.windowMillis = maxDuration * 1000L;
+        this.latenessMillis = allowedLateness.toMillis();
+        this.futureSkewMillis = futureSkew.toMillis();
+        this.periodNanos = 1e9 / options.rate;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options = LoadOptions.parse(args);
+        //HttpURLConnection keeps only 5 idle connections per host by default, the others would reconnect
+        System.setProperty("http.maxConnections", String.valueOf(options.connections));
+        if (options.target != null) {
+            new LoadGenerator(options, options.target, options.maxDuration, Duration.ZERO, Duration.ZERO).run();
+            return;
+        }
+        List<String> applicationArgs = new ArrayList<>(options.applicationArgs);
+        if (applicationArgs.stream().noneMatch(arg -> arg.startsWith("--server.port="))) {
+            applicationArgs.add("--server.port=0");
+        }
+        try (ConfigurableApplicationContext context =
+                     SpringApplication.run(Application.class, applicationArgs.toArray(new String[0]))) {
+            CalculatorConfig calculatorConfig = context.getBean(CalculatorConfig.class);
+            String port = context.getEnvironment().getProperty("local.server.port");
+            new LoadGenerator(options, "http://localhost:" + port, calculatorConfig.getMaxDuration(),
+                    calculatorConfig.getAllowedLateness(), calculatorConfig.getFutureSkew()).run();
+        }
+    }
+
+    private void run() throws InterruptedException, IOException {
+        long reportNanos = options.reportInterval.toNanos();
+        List<Runnable> senders = new ArrayList<>();
+        if (options.io.equals("nio")) {
+            //the connects are started here and finished by the selector threads
+            for (int i = 0; i < options.ioThreads; ++i) {
+                senders.add(new Multiplexer(i, options.connections / options.ioThreads +
+                        (i < options.connections % options.ioThreads ? 1 : 0)));
+            }
+        } else {
+            for (int i = 0; i < options.connections; ++i) {
+                senders.add(this::send);
+            }
+        }
+        //a moment for the threads to start before the first request is due
+        startNanos = System.nanoTime() + 100_000_000;
+        long measureNanos = startNanos + options.warmup.toNanos();
+        endNanos = measureNanos + options.duration.toNanos();
+
+        List<Thread> threads = new ArrayList<>(senders.size());
+        for (int i = 0; i < senders.size(); ++i) {
+            Thread thread = new Thread(senders.get(i), "loadgen-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        System.out.printf("%.1f requests/s, %.0f%% reads of %s, %.0f%% late and %.0f%% future writes, %d connections (%s)%n",
+                options.rate, options.readRatio * 100, options.readPath,
+                options.lateRatio * 100, options.futureRatio * 100, options.connections,
+                options.io.equals("nio") ? options.ioThreads + " nio threads" : "a thread each");
+        System.out.printf("%-8s %10s %11s %11s %11s %11s %11s %11s%n",
+                "phase", "requests/s", "write p50", "write p99", "write max", "read p50", "read p99", "read max");
+        LatencyHistogram.Snapshot previousWrites = writes.responseTime.snapshot();
+        LatencyHistogram.Snapshot previousReads = reads.responseTime.snapshot();
+        Baseline baseline = measureNanos == startNanos ? new Baseline() : null;
+        long reportedAt = startNanos;
+        long reportAt = startNanos + reportNanos;
+        while (true) {
+            long wakeAt = Math.min(reportAt, baseline == null ? measureNanos : endNanos);
+            sleepUntil(wakeAt);
+            //the end of the warm-up cuts the interval short, so no interval is reported across both phases
+            LatencyHistogram.Snapshot currentWrites = writes.responseTime.snapshot();
+            LatencyHistogram.Snapshot currentReads = reads.responseTime.snapshot();
+            printInterval(baseline == null ? "warm-up" : "measure", wakeAt - reportedAt,
+                    currentWrites.minus(previousWrites), currentReads.minus(previousReads));
+            previousWrites = currentWrites;
+            previousReads = currentReads;
+            reportedAt = wakeAt;
+            if (wakeAt == reportAt) {
+                reportAt += reportNanos;
+            }
+            if (baseline == null && wakeAt == measureNanos) {
+                baseline = new Baseline();
+            } else if (wakeAt == endNanos) {
+                break;
+            }
+        }
+
+        //the requests which were due before the end are still answered
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - measureNanos) / 1e9;
+        System.out.println();
+        System.out.printf("target %.1f requests/s for %ds, achieved %.1f requests/s%n", options.rate,
+                options.duration.getSeconds(), (baseline.requests(writes) + baseline.requests(reads)) / seconds);
+        baseline.print(writes, seconds);
+        baseline.print(reads, seconds);
+    }
+
+    private void send() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            long dueNanos = startNanos + (long) (next.getAndIncrement() * periodNanos);
+            if (dueNanos - endNanos >= 0) {
+                return;
+            }
+            long sentNanos;
+            while (dueNanos - (sentNanos = System.nanoTime()) > 0) {
+                LockSupport.parkNanos(dueNanos - sentNanos);
+            }
+            Operation operation;
+            int status;
+            if (random.nextDouble() < options.readRatio) {
+                operation = reads;
+                status = request(statistics, null);
+            } else {
+                operation = writes;
+                status = request(transactions, body(random));
+            }
+            long receivedNanos = System.nanoTime();
+            operation.record(status, receivedNanos - dueNanos, receivedNanos - sentNanos);
+        }
+    }
+
+    @Nonnull
+    private byte[] body(@Nonnull ThreadLocalRandom random) {
+        long currentTimeMillis = System.currentTimeMillis();
+        double skew = random.nextDouble();
+        long timestamp;
+        if (skew < options.lateRatio) {
+            //at least a second older than the window and its lateness
+            timestamp = currentTimeMillis - latenessMillis - windowMillis - 1000 - random.nextLong(windowMillis);
+        } else if (skew < options.lateRatio + options.futureRatio) {
+            //at least a second newer than the future skew
+            timestamp = currentTimeMillis + futureSkewMillis + 1000 + random.nextLong(windowMillis);
+        } else {
+            timestamp = currentTimeMillis - random.nextLong(Math.max(1, windowMillis - 1000));
+        }
+        return ("{\"amount\":" + random.nextInt(100000) / 100.0 + ",\"timestamp\":" + timestamp + "}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    //status code of the response, which is read to its end so that the connection is kept alive
+    private static int request(@Nonnull URL url, @Nullable byte[] body) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            if (body != null) {
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty("Content-Type", "application/json");
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream output = connection.getOutputStream()) {
+                    output.write(body);
+                }
+            }
+            int status = connection.getResponseCode();
+            try (InputStream input = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+                if (input != null) {
+                    byte[] buffer = new byte[4096];
+                    while (input.read(buffer) >= 0) {
+                        //drained
+                    }
+                }
+            }
+            return status;
+        } catch (IOException e) {
+            return IO_ERROR;
+        }
+    }
+
+    //the nio mode: one selector thread with its share of the connections sends requests index, index + ioThreads,
+    //index + 2 * ioThreads... of the schedule, in order, each on the next idle connection once it is due
+    private final class Multiplexer implements Runnable {
+        private static final long TIMEOUT_CHECK_NANOS = 100_000_000;
+
+        private final int index;
+        private final Selector selector;
+        private final List<HttpChannel> channels = new ArrayList<>();
+        private final ArrayDeque<HttpChannel> idle = new ArrayDeque<>();
+        private final String host;
+        private int inFlight;
+
+        Multiplexer(int index, int connections) throws IOException {
+            this.index = index;
+            this.selector = Selector.open();
+            this.host = transactions.getAuthority();
+            InetSocketAddress address = new InetSocketAddress(transactions.getHost(),
+                    transactions.getPort() < 0 ? transactions.getDefaultPort() : transactions.getPort());
+            for (int i = 0; i < connections; ++i) {
+                HttpChannel channel = new HttpChannel(address, selector);
+                channels.add(channel);
+                if (channel.isIdle()) {
+                    idle.add(channel);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long next = 0;
+            long timeoutCheckNanos = System.nanoTime() + TIMEOUT_CHECK_NANOS;
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    long dueNanos = startNanos + (long) ((next * options.ioThreads + index) * periodNanos);
+                    while (dueNanos - endNanos < 0 && dueNanos - now <= 0 && !idle.isEmpty()) {
+                        HttpChannel channel = idle.poll();
+                        boolean read = random.nextDouble() < options.readRatio;
+                        ++inFlight;
+                        try {
+                            channel.send(read ? get() : post(body(random)), read, dueNanos);
+                        } catch (IOException e) {
+                            fail(channel);
+                        }
+                        dueNanos = startNanos + (long) ((++next * options.ioThreads + index) * periodNanos);
+                    }
+                    boolean scheduled = dueNanos - endNanos >= 0;
+                    if (scheduled && inFlight == 0) {
+                        break;
+                    }
+                    //a due request waits for a connection to become idle, any selected key may do it
+                    long waitNanos = scheduled || idle.isEmpty() ? TIMEOUT_CHECK_NANOS : dueNanos - now;
+                    if (waitNanos <= 0) {
+                        selector.selectNow();
+                    } else {
+                        selector.select(Math.max(1, waitNanos / 1_000_000));
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                    if (System.nanoTime() - timeoutCheckNanos >= 0) {
+                        expire();
+                        timeoutCheckNanos = System.nanoTime() + TIMEOUT_CHECK_NANOS;
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("selector has failed", e);
+            } finally {
+                for (HttpChannel channel : channels) {
+                    channel.close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                    //the connections are closed already
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            HttpChannel channel = (HttpChannel) key.attachment();
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    idle.add(channel);
+                } else if (key.isWritable()) {
+                    channel.write();
+                } else if (key.isReadable()) {
+                    boolean read = channel.isRead();
+                    long dueNanos = channel.getDueNanos();
+                    long sentNanos = channel.getSentNanos();
+                    int status = channel.read();
+                    if (status != 0) {
+                        record(read, dueNanos, sentNanos, status);
+                        //unless the server has closed it and it is connecting again
+                        if (channel.isIdle()) {
+                            idle.add(channel);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                fail(channel);
+            }
+        }
+
+        //requests without a response for TIMEOUT_MILLIS lose their connection like the blocking ones do
+        private void expire() {
+            long now = System.nanoTime();
+            for (int i = 0; i < channels.size(); ++i) {
+                HttpChannel channel = channels.get(i);
+                if (channel.isInFlight() && now - channel.getSentNanos() > TIMEOUT_MILLIS * 1_000_000L) {
+                    fail(channel);
+                }
+            }
+        }
+
+        private void fail(HttpChannel channel) {
+            if (channel.isInFlight()) {
+                record(channel.isRead(), channel.getDueNanos(), channel.getSentNanos(), IO_ERROR);
+            }
+            idle.remove(channel);
+            try {
+                channel.reconnect();
+                if (channel.isIdle()) {
+                    idle.add(channel);
+                }
+            } catch (IOException e) {
+                //out of sockets, the others go on
+                channels.remove(channel);
+            }
+        }
+
+        private void record(boolean read, long dueNanos, long sentNanos, int status) {
+            long receivedNanos = System.nanoTime();
+            (read ? reads : writes).record(status, receivedNanos - dueNanos, receivedNanos - sentNanos);
+            --inFlight;
+        }
+
+        private ByteBuffer get() {
+            return ByteBuffer.wrap(("GET " + statistics.getFile() + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        private ByteBuffer post(byte[] body) {
+            byte[] head = ("POST " + transactions.getFile() + " HTTP/1.1\r\nHost: " + host +
+                    "\r\nContent-Type: application/json\r\nContent-Length: " + body.length + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            ByteBuffer request = ByteBuffer.allocate(head.length + body.length);
+            request.put(head).put(body).flip();
+            return request;
+        }
+    }
+
+    private static void sleepUntil(long nanos) {
+        long now;
+        while (nanos - (now = System.nanoTime()) > 0) {
+            LockSupport.parkNanos(nanos - now);
+        }
+    }
+
+    private static void printInterval(String phase, long intervalNanos,
+                                      LatencyHistogram.Snapshot writes, LatencyHistogram.Snapshot reads) {
+        System.out.printf("%-8s %10.1f %11s %11s %11s %11s %11s %11s%n", phase,
+                (writes.getTotalCount() + reads.getTotalCount()) / (intervalNanos / 1e9),
+                millis(writes.getValueAtPercentile(50)), millis(writes.getValueAtPercentile(99)),
+                millis(writes.getValueAtPercentile(100)), millis(reads.getValueAtPercentile(50)),
+                millis(reads.getValueAtPercentile(99)), millis(reads.getValueAtPercentile(100)));
+    }
+
+    @Nonnull
+    private static String millis(long nanos) {
+        return String.format("%.3fms", nanos / 1e6);
+    }
+
+    private static final class Operation {
+        @Nonnull
+        private final String name;
+        //from when the request was due
+        private final LatencyHistogram responseTime = new LatencyHistogram();
+        //from when the request was sent
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private final ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentSkipListMap<>();
+
+        Operation(@Nonnull String name) {
+            this.name = name;
+        }
+
+        void record(int status, long responseNanos, long serviceNanos) {
+            responseTime.record(responseNanos);
+            serviceTime.record(serviceNanos);
+            statuses.computeIfAbsent(status, ignored -> new LongAdder()).increment();
+        }
+
+        @Nonnull
+        Map<Integer, Long> statusCounts() {
+            Map<Integer, Long> counts = new TreeMap<>();
+            statuses.forEach((status, count) -> counts.put(status, count.sum()));
+            return counts;
+        }
+    }
+
+    //what has been recorded by the end of the warm-up, the report is about what comes after it
+    private final class Baseline {
+        private final LatencyHistogram.Snapshot writeResponseTime = writes.responseTime.snapshot();
+        private final LatencyHistogram.Snapshot writeServiceTime = writes.serviceTime.snapshot();
+        private final Map<Integer, Long> writeStatuses = writes.statusCounts();
+        private final LatencyHistogram.Snapshot readResponseTime = reads.responseTime.snapshot();
+        private final LatencyHistogram.Snapshot readServiceTime = reads.serviceTime.snapshot();
+        private final Map<Integer, Long> readStatuses = reads.statusCounts();
+
+        long requests(@Nonnull Operation operation) {
+            return operation.responseTime.snapshot().minus(operation == writes ? writeResponseTime : readResponseTime)
+                    .getTotalCount();
+        }
+
+        void print(@Nonnull Operation operation, double seconds) {
+            boolean isWrite = operation == writes;
+            LatencyHistogram.Snapshot responseTime =
+                    operation.responseTime.snapshot().minus(isWrite ? writeResponseTime : readResponseTime);
+            LatencyHistogram.Snapshot serviceTime =
+                    operation.serviceTime.snapshot().minus(isWrite ? writeServiceTime : readServiceTime);
+            Map<Integer, Long> before = isWrite ? writeStatuses : readStatuses;
+            StringBuilder statusCounts = new StringBuilder();
+            operation.statusCounts().forEach((status, count) -> {
+                long measured = count - before.getOrDefault(status, 0L);
+                if (measured > 0) {
+                    statusCounts.append(statusCounts.length() == 0 ? "" : ", ")
+                            .append(status == IO_ERROR ? "no response" : String.valueOf(status))
+                            .append(": ").append(measured);
+                }
+            });
+            System.out.printf("%s: %d requests, %.1f/s (%s)%n", operation.name, responseTime.getTotalCount(),
+                    responseTime.getTotalCount() / seconds, statusCounts);
+            printPercentiles("  response time", responseTime);
+            printPercentiles("  service time ", serviceTime);
+        }
+
+        private void printPercentiles(String title, LatencyHistogram.Snapshot snapshot) {
+            StringBuilder line = new StringBuilder(title);
+            for (double percentile : PERCENTILES) {
+                line.append(percentile == 100 ? "  max " : "  p" + BigDecimal.valueOf(percentile)
+                        .stripTrailingZeros().toPlainString() + " ")
+                        .append(millis(snapshot.getValueAtPercentile(percentile)));
+            }
+            System.out.println(line);
+        }
+    }
+}
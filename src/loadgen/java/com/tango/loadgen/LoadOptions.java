@@ -0,0 +1,123 @@
+package com.tango.loadgen;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+//--name=value arguments of LoadGenerator, durations like 30s or plain seconds. Arguments it doesn't know are
+//passed to the embedded Application, so --stat.engine=ring or --spring.main.web-application-type=reactive
+//pick what is measured.
+final class LoadOptions {
+    //requests per second of the whole schedule, reads and writes together
+    double rate = 1000;
+    @Nonnull
+    Duration warmup = Duration.ofSeconds(10);
+    @Nonnull
+    Duration duration = Duration.ofSeconds(30);
+    @Nonnull
+    Duration reportInterval = Duration.ofSeconds(5);
+    //keep-alive connections, each has one request in flight at most
+    int connections = 64;
+    //blocking: a thread per connection, nio: ioThreads selector threads share them, for thousands of connections
+    @Nonnull
+    String io = "blocking";
+    int ioThreads = Runtime.getRuntime().availableProcessors();
+    //share of GET readPath, the rest are POST /transactions
+    double readRatio = 0.1;
+    @Nonnull
+    String readPath = "/statistics";
+    //shares of writes older than the window and newer than the future skew, the rest are spread over the window
+    double lateRatio = 0.05;
+    double futureRatio = 0.05;
+    //base URL of a running instance instead of the embedded one, like http://localhost:8080
+    @Nullable
+    String target;
+    //stat.max-duration of the target, the embedded one is read from its configuration
+    int maxDuration = 60;
+    @Nonnull
+    final List<String> applicationArgs = new ArrayList<>();
+
+    @Nonnull
+    static LoadOptions parse(@Nonnull String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("arguments look like --name=value but was " + arg);
+            }
+            String value = arg.substring(separator + 1);
+            switch (arg.substring(2, separator)) {
+                case "rate":
+                    options.rate = Double.parseDouble(value);
+                    break;
+                case "warmup":
+                    options.warmup = DurationStyle.detectAndParse(value, ChronoUnit.SECONDS);
+                    break;
+                case "duration":
+                    options.duration = DurationStyle.detectAndParse(value, ChronoUnit.SECONDS);
+                    break;
+                case "report-interval":
+                    options.reportInterval = DurationStyle.detectAndParse(value, ChronoUnit.SECONDS);
+                    break;
+                case "connections":
+                    options.connections = Integer.parseInt(value);
+                    break;
+                case "io":
+                    options.io = value;
+                    break;
+                case "io-threads":
+                    options.ioThreads = Integer.parseInt(value);
+                    break;
+                case "read-ratio":
+                    options.readRatio = Double.parseDouble(value);
+                    break;
+                case "read-path":
+                    options.readPath = value;
+                    break;
+                case "late-ratio":
+                    options.lateRatio = Double.parseDouble(value);
+                    break;
+                case "future-ratio":
+                    options.futureRatio = Double.parseDouble(value);
+                    break;
+                case "target":
+                    options.target = value;
+                    break;
+                case "max-duration":
+                    options.maxDuration = Integer.parseInt(value);
+                    break;
+                default:
+                    options.applicationArgs.add(arg);
+            }
+        }
+        options.validate();
+        return options;
+    }
+
+    private void validate() {
+        if (rate <= 0 || connections < 1 || maxDuration < 1) {
+            throw new IllegalArgumentException("rate, connections and max-duration have to be positive");
+        }
+        if (!io.equals("blocking") && !io.equals("nio")) {
+            throw new IllegalArgumentException("io is blocking or nio but was " + io);
+        }
+        if (io.equals("nio") && (ioThreads < 1 || ioThreads > connections)) {
+            throw new IllegalArgumentException("io-threads has to be in [1, connections]");
+        }
+        if (duration.isNegative() || duration.isZero() || warmup.isNegative() || reportInterval.isNegative()
+                || reportInterval.isZero()) {
+            throw new IllegalArgumentException("duration and report-interval have to be positive, warmup can't be negative");
+        }
+        if (readRatio < 0 || readRatio > 1 || lateRatio < 0 || futureRatio < 0 || lateRatio + futureRatio > 1) {
+            throw new IllegalArgumentException("read-ratio has to be in [0, 1], late-ratio and future-ratio can't add up above 1");
+        }
+        if (target != null && !applicationArgs.isEmpty()) {
+            throw new IllegalArgumentException("unknown arguments " + applicationArgs + " with a target");
+        }
+    }
+}
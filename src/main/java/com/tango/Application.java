@@ -4,7 +4,9 @@ import com.tango.services.CalculatorConfig;
 import com.tango.services.CalculatorConfigValidator;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.validation.Validator;
 
@@ -17,6 +19,13 @@ public class Application {
         return new CalculatorConfigValidator();
     }
 
+    //Jetty is on the classpath for the servlet stack and would otherwise be picked for the reactive one as well
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
     }
@@ -0,0 +1,205 @@
+package com.tango.controllers;
+
+import com.tango.domain.BatchResult;
+import com.tango.domain.StatBatch;
+import com.tango.services.CalculatorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.function.Function;
+
+//Opt-in listener of binary records (stat.ingest.port) on TCP and UDP, a record is 16 bytes in network byte order:
+//8 byte timestamp in millis followed by 8 byte IEEE 754 amount. A TCP connection is a plain stream of records,
+//a datagram holds a whole number of them (a trailing part of a record is ignored). There are no replies.
+//One selector thread reads into direct buffers and decodes the records in place into a reusable primitive batch,
+//which goes to the engine through the same path as /transactions/batch, so no Stat is created per record.
+//A failure of a connection, including an exception of the engine, closes that connection only, the records it
+//was decoding are dropped and the selector goes on serving the others.
+@Component
+@ConditionalOnProperty(name = "stat.ingest.port")
+public class BinaryIngestServer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(BinaryIngestServer.class);
+
+    static final int RECORD_SIZE = 16;
+
+    @Nonnull
+    private final Function<StatBatch, BatchResult> consumer;
+    private final int bufferSize;
+    private final StatBatch batch;
+    private final ByteBuffer datagram;
+    private final Selector selector;
+    private final ServerSocketChannel tcp;
+    private final DatagramChannel udp;
+    private final Thread reader;
+    private volatile boolean running = true;
+
+    @Autowired
+    public BinaryIngestServer(@Nonnull CalculatorConfig calculatorConfig,
+                              @Nonnull StatRequestHandler statRequestHandler) throws IOException {
+        this(calculatorConfig.getIngest().getPort(), calculatorConfig.getIngest().getBufferSize(), statRequestHandler::addAll);
+    }
+
+    //port 0 binds the listeners to any free ports
+    public BinaryIngestServer(int port, int bufferSize, @Nonnull Function<StatBatch, BatchResult> consumer) throws IOException {
+        this.consumer = consumer;
+        this.bufferSize = bufferSize;
+        this.batch = new StatBatch(bufferSize / RECORD_SIZE);
+        this.datagram = ByteBuffer.allocateDirect(bufferSize);
+        this.selector = Selector.open();
+        try {
+            this.tcp = ServerSocketChannel.open();
+            tcp.bind(new InetSocketAddress(port));
+            tcp.configureBlocking(false);
+            tcp.register(selector, SelectionKey.OP_ACCEPT);
+            this.udp = DatagramChannel.open();
+            udp.bind(new InetSocketAddress(port));
+            udp.configureBlocking(false);
+            udp.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+        this.reader = new Thread(this::run, "stat-ingest");
+        reader.setDaemon(true);
+        reader.start();
+        logger.info("Binary ingestion listens on tcp port {} and udp port {}", tcpPort(), udpPort());
+    }
+
+    public int tcpPort() {
+        return tcp.socket().getLocalPort();
+    }
+
+    public int udpPort() {
+        return udp.socket().getLocalPort();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                logger.error("Binary ingestion has been stopped", e);
+                return;
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.channel() == udp) {
+                        receive();
+                    } else {
+                        read(key);
+                    }
+                } catch (IOException e) {
+                    logger.debug("Binary ingestion connection has failed", e);
+                    closeConnection(key);
+                } catch (RuntimeException e) {
+                    logger.error("Binary ingestion records haven't been added", e);
+                    closeConnection(key);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel connection = tcp.accept();
+        if (connection != null) {
+            connection.configureBlocking(false);
+            connection.register(selector, SelectionKey.OP_READ, ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    private void receive() throws IOException {
+        while (udp.receive(datagram) != null) {
+            datagram.flip();
+            decode(datagram);
+            datagram.clear();
+        }
+    }
+
+    //a record split between two reads stays in the buffer until the rest of it arrives
+    private void read(SelectionKey key) throws IOException {
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        int read = ((SocketChannel) key.channel()).read(buffer);
+        buffer.flip();
+        decode(buffer);
+        buffer.compact();
+        if (read < 0) {
+            closeConnection(key);
+        }
+    }
+
+    private void decode(ByteBuffer buffer) {
+        int position = buffer.position();
+        for (int limit = buffer.limit(); limit - position >= RECORD_SIZE; position += RECORD_SIZE) {
+            batch.add(buffer.getDouble(position + 8), buffer.getLong(position));
+        }
+        buffer.position(position);
+        if (!batch.isEmpty()) {
+            try {
+                consumer.apply(batch);
+            } finally {
+                //a failed batch mustn't be sent again with the records of the next read
+                batch.clear();
+            }
+        }
+    }
+
+    //the listeners are shared by all the senders and stay open, a datagram has already been taken off the socket
+    private void closeConnection(SelectionKey key) {
+        if (key.channel() == tcp || key.channel() == udp) {
+            datagram.clear();
+            return;
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            logger.debug("Binary ingestion connection hasn't been closed", e);
+        }
+    }
+
+    private void closeChannels() throws IOException {
+        for (SelectionKey key : selector.keys()) {
+            if (key.channel() instanceof SocketChannel) {
+                key.channel().close();
+            }
+        }
+        if (tcp != null) {
+            tcp.close();
+        }
+        if (udp != null) {
+            udp.close();
+        }
+        selector.close();
+    }
+
+    @PreDestroy
+    @Override
+    public void close() throws Exception {
+        running = false;
+        selector.wakeup();
+        reader.join();
+        closeChannels();
+    }
+}
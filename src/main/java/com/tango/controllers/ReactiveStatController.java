@@ -0,0 +1,254 @@
+package com.tango.controllers;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.KeyedStat;
+import com.tango.domain.QuantileStat;
+import com.tango.domain.Stat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import javax.validation.Valid;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+//WebFlux counterpart of StatController, enabled by spring.main.web-application-type=reactive and served by Netty.
+//Bodies are read without blocking a thread on a slow client, the handling itself is microseconds of work
+//on the event loop. Batches go through the non-blocking StatBatchReader.Feeder chunk by chunk as they arrive.
+//Calls which may wait (a blocking engine, the archive files) run on a bounded pool instead, so they can't stall
+//the event loop, and wait in its queue once all of its threads are taken.
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveStatController {
+    private static final int BLOCKING_THREADS = 4 * Runtime.getRuntime().availableProcessors();
+
+    @Nonnull
+    private final StatRequestHandler statRequestHandler;
+    @Nonnull
+    private final StatBatchReader statBatchReader;
+    @Nonnull
+    private final StatBroadcaster statBroadcaster;
+    @Nonnull
+    private final StatSnapshotCache statSnapshotCache;
+    @Nonnull
+    private final StatCluster statCluster;
+    //threads are started on demand, so it costs nothing unless something blocks
+    @Nonnull
+    private final Scheduler blockingScheduler = Schedulers.newParallel("stat-blocking", BLOCKING_THREADS, true);
+
+    @Autowired
+    public ReactiveStatController(@Nonnull StatRequestHandler statRequestHandler,
+                                  @Nonnull StatBatchReader statBatchReader,
+                                  @Nonnull StatBroadcaster statBroadcaster,
+                                  @Nonnull StatSnapshotCache statSnapshotCache,
+                                  @Nonnull StatCluster statCluster) {
+        this.statRequestHandler = statRequestHandler;
+        this.statBatchReader = statBatchReader;
+        this.statBroadcaster = statBroadcaster;
+        this.statSnapshotCache = statSnapshotCache;
+        this.statCluster = statCluster;
+    }
+
+    @RequestMapping(path = "/transactions", method = RequestMethod.POST)
+    public Mono<ResponseEntity<?>> registryTransaction(@Valid @RequestBody Stat stat) {
+        return engine(() -> {
+            statRequestHandler.add(stat);
+            return ResponseEntity.status(HttpStatus.CREATED).build();
+        });
+    }
+
+    //accepts a JSON array or newline delimited JSON objects
+    @RequestMapping(
+            path = "/transactions/batch",
+            method = RequestMethod.POST,
+            consumes = {MediaType.APPLICATION_JSON_VALUE, StatBatchReader.APPLICATION_NDJSON_VALUE}
+    )
+    public Mono<ResponseEntity<BatchResult>> registryTransactions(
+            ServerHttpRequest request,
+            @RequestAttribute(name = StatAdmission.ENGINE_NANOS_ATTRIBUTE, required = false) AtomicLong engineNanos) {
+        //addAll of a blocking engine is called by the feeder as the chunks come, so they are handed over to the pool
+        Flux<DataBuffer> body = statRequestHandler.isBlocking() ?
+                request.getBody().publishOn(blockingScheduler) :
+                request.getBody();
+        return Mono.using(
+                () -> statBatchReader.feeder(StatAdmission.timed(statRequestHandler::addAll, engineNanos)),
+                feeder -> body
+                        .<Void>handle((buffer, sink) -> {
+                            try {
+                                feed(feeder, buffer);
+                            } catch (IOException e) {
+                                sink.error(e);
+                            }
+                        })
+                        .then(Mono.fromCallable(feeder::finish)),
+                ReactiveStatController::close
+        ).map(result -> ResponseEntity.status(HttpStatus.CREATED).body(result));
+    }
+
+    //window is a duration like 10s, 1m or 1h (plain numbers are seconds), the whole maxDuration by default,
+    //which is served from the snapshot cache and answers If-None-Match with 304 until the window changes
+    @RequestMapping(path = "/statistics", method = RequestMethod.GET)
+    public Mono<ResponseEntity<?>> getStatistics(
+            @RequestParam(name = "window", required = false) String window,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return engine(() -> {
+            if (window != null) {
+                return ResponseEntity.ok(statRequestHandler.getStatistics(window));
+            }
+            StatSnapshotCache.Snapshot snapshot = statSnapshotCache.current();
+            if (snapshot.matches(ifNoneMatch)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.getETag()).build();
+            }
+            return ResponseEntity.ok()
+                    .eTag(snapshot.getETag())
+                    .cacheControl(CacheControl.noCache())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(snapshot.getJson());
+        });
+    }
+
+    //ranges like from=14s,7s&to=7s,0s are the 7 seconds before the last 7 and the last 7, one aggregate per range
+    @RequestMapping(path = "/statistics", method = RequestMethod.GET, params = {"from", "to"})
+    public Mono<ResponseEntity<List<AggregatedStat>>> getRangeStatistics(@RequestParam("from") String[] from,
+                                                                         @RequestParam("to") String[] to) {
+        return engine(() -> ResponseEntity.ok(statRequestHandler.getRangeStatistics(from, to)));
+    }
+
+    //the window which ends stat.allowed-lateness ago, so records late by up to that are already counted
+    @RequestMapping(path = "/statistics/final", method = RequestMethod.GET)
+    public Mono<ResponseEntity<AggregatedStat>> getFinalStatistics() {
+        return engine(() -> ResponseEntity.ok(statRequestHandler.getFinalStatistics()));
+    }
+
+    //whole seconds which have left the window and lie in [from, to) of epoch millis, stat.archive.directory has to be set
+    @RequestMapping(path = "/statistics/history", method = RequestMethod.GET)
+    public Mono<ResponseEntity<AggregatedStat>> getHistory(@RequestParam("from") long from, @RequestParam("to") long to) {
+        return Mono.fromCallable(() -> ResponseEntity.ok(statRequestHandler.getHistory(from, to)))
+                .subscribeOn(blockingScheduler);
+    }
+
+    //server-sent events with the window aggregate once per bucket, a client which can't keep up gets the latest one.
+    //The frames of StatBroadcaster are whole events, they are wrapped and flushed as they are
+    @RequestMapping(path = "/statistics/stream", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Mono<Void> streamStatistics(ServerHttpResponse response) {
+        Flux<byte[]> frames = Flux.<byte[]>create(sink -> {
+            Runnable unsubscribe = statBroadcaster.subscribe(sink::next, sink::complete);
+            sink.onDispose(unsubscribe::run);
+        }, FluxSink.OverflowStrategy.LATEST);
+        response.getHeaders().setContentType(MediaType.TEXT_EVENT_STREAM);
+        return response.writeAndFlushWith(frames.map(frame -> Mono.just(response.bufferFactory().wrap(frame))));
+    }
+
+    //per bucket aggregates of the window in the binary form of StatPartialsCodec, fetched by /statistics/cluster of the peers
+    @RequestMapping(path = "/statistics/partials", method = RequestMethod.GET)
+    public Mono<ResponseEntity<byte[]>> getPartials() {
+        return engine(() -> ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(StatPartialsCodec.APPLICATION_STAT_PARTIALS_VALUE))
+                .body(StatPartialsCodec.encode(statRequestHandler.getPartials())));
+    }
+
+    //the window of the local instance merged with the ones of stat.cluster.peers, waits for the peers off the event loop
+    @RequestMapping(path = "/statistics/cluster", method = RequestMethod.GET)
+    public Mono<ResponseEntity<AggregatedStat>> getClusterStatistics() {
+        return Mono.fromCallable(statCluster::aggregate)
+                .subscribeOn(Schedulers.elastic())
+                .map(result -> ResponseEntity.ok()
+                        .header(StatCluster.MISSING_PEERS_HEADER, Integer.toString(result.getMissingPeers()))
+                        .body(result.getAggregatedStat()));
+    }
+
+    @RequestMapping(path = "/statistics/quantiles", method = RequestMethod.GET)
+    public Mono<ResponseEntity<QuantileStat>> getQuantiles(
+            @RequestParam(name = "q", defaultValue = "0.5,0.95,0.99") double[] quantiles) {
+        return engine(() -> ResponseEntity.ok(statRequestHandler.getQuantiles(quantiles)));
+    }
+
+    //the n largest records of the window with their timestamps, largest first
+    @RequestMapping(path = "/statistics/top", method = RequestMethod.GET)
+    public ResponseEntity<List<Stat>> getTop(@RequestParam(name = "n", defaultValue = "10") int n) {
+        return ResponseEntity.ok(statRequestHandler.getTop(n));
+    }
+
+    @RequestMapping(path = "/statistics/keys/{key}", method = RequestMethod.GET)
+    public ResponseEntity<AggregatedStat> getKeyStatistics(@PathVariable("key") String key) {
+        return ResponseEntity.ok(statRequestHandler.getKeyStatistics(key));
+    }
+
+    //keys with the biggest sums over the window
+    @RequestMapping(path = "/statistics/keys", method = RequestMethod.GET)
+    public ResponseEntity<List<KeyedStat>> getTopKeys(@RequestParam(name = "top", defaultValue = "10") int top) {
+        return ResponseEntity.ok(statRequestHandler.getTopKeys(top));
+    }
+
+    @ExceptionHandler(UnsupportedOperationException.class)
+    public ResponseEntity<?> notSupported() {
+        return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build();
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<?> illegalArgument() {
+        return ResponseEntity.badRequest().build();
+    }
+
+    @ExceptionHandler(JsonProcessingException.class)
+    public ResponseEntity<?> malformedBatch() {
+        return ResponseEntity.badRequest().build();
+    }
+
+    @PreDestroy
+    public void close() {
+        blockingScheduler.dispose();
+    }
+
+    //runs call on the event loop unless the engine is blocking
+    private <T> Mono<T> engine(Callable<T> call) {
+        Mono<T> result = Mono.fromCallable(call);
+        return statRequestHandler.isBlocking() ? result.subscribeOn(blockingScheduler) : result;
+    }
+
+    private static void feed(StatBatchReader.Feeder feeder, DataBuffer buffer) throws IOException {
+        try {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            feeder.feed(bytes, 0, bytes.length);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+
+    private static void close(StatBatchReader.Feeder feeder) {
+        try {
+            feeder.close();
+        } catch (IOException ignored) {
+            //nothing is held but the parser buffers
+        }
+    }
+}
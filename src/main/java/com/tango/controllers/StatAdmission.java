@@ -0,0 +1,161 @@
+package com.tango.controllers;
+
+import com.tango.domain.BatchResult;
+import com.tango.domain.StatBatch;
+import com.tango.services.CalculatorConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+//Admission control of the ingest endpoints (stat.admission.max-limit): a request is let in only while fewer than
+//the limit are in flight, the others are shed at once with 429 and Retry-After instead of piling up behind
+//a GC pause or an eviction. The limit is AIMD adapted to the latency of add: once per adjust interval it is cut
+//by a tenth if the average since the previous adjustment was above the target and grows by one otherwise,
+//from minLimit to maxLimit. Shed requests are counted by stat.admission.shed, the limit is stat.admission.limit.
+//StatAdmissionFilter and StatAdmissionWebFilter apply it in front of the handlers, so a shed request isn't even
+//parsed. A single record is a sample of everything from its arrival to its response, a batch of the time its
+//records have spent in the engine, since its body comes at the pace of the client.
+@Component
+public class StatAdmission {
+    //request attribute of a batch, the AtomicLong the controllers add the nanos of its addAll calls to,
+    //a literal since it is an annotation value
+    public static final String ENGINE_NANOS_ATTRIBUTE = "com.tango.controllers.StatAdmission.engineNanos";
+    static final String TRANSACTIONS_PATH = "/transactions";
+    static final String BATCH_PATH = "/transactions/batch";
+
+    @Nonnull
+    private final Counter shed;
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetNanos;
+    private final long adjustIntervalNanos;
+    @Nonnull
+    private final String retryAfter;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong nextAdjustment = new AtomicLong(System.nanoTime());
+    private final LongAdder latencyNanos = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+    private volatile int limit;
+
+    @Autowired
+    public StatAdmission(@Nonnull CalculatorConfig calculatorConfig, @Nonnull MeterRegistry meterRegistry) {
+        this(calculatorConfig.getAdmission(), meterRegistry);
+    }
+
+    public StatAdmission(@Nonnull CalculatorConfig.Admission admission, @Nonnull MeterRegistry meterRegistry) {
+        this.enabled = admission.getMaxLimit() != null;
+        this.maxLimit = enabled ? admission.getMaxLimit() : Integer.MAX_VALUE;
+        this.minLimit = admission.getMinLimit();
+        this.targetNanos = admission.getTargetLatency().toNanos();
+        this.adjustIntervalNanos = admission.getAdjustInterval().toNanos();
+        this.retryAfter = Long.toString((admission.getRetryAfter().toMillis() + 999) / 1000);
+        this.limit = maxLimit;
+        this.shed = Counter.builder("stat.admission.shed")
+                .description("ingest requests rejected over the in-flight limit")
+                .register(meterRegistry);
+        if (enabled) {
+            Gauge.builder("stat.admission.limit", this, StatAdmission::getLimit)
+                    .description("current in-flight limit of the ingest requests")
+                    .register(meterRegistry);
+            Gauge.builder("stat.admission.in-flight", inFlight, AtomicInteger::get)
+                    .description("ingest requests being handled")
+                    .register(meterRegistry);
+        }
+    }
+
+    //false if the request has to be shed, otherwise it has to be released once handled
+    public boolean tryAcquire() {
+        if (!enabled) {
+            return true;
+        }
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit) {
+                shed.increment();
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    //releases a request whose add took nanos, which the limit is adapted to
+    public void release(long nanos) {
+        if (!enabled) {
+            return;
+        }
+        inFlight.decrementAndGet();
+        latencyNanos.add(nanos);
+        samples.increment();
+        long now = System.nanoTime();
+        long next = nextAdjustment.get();
+        if (now - next >= 0 && nextAdjustment.compareAndSet(next, now + adjustIntervalNanos)) {
+            adjust();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    //seconds of the Retry-After header of a shed request
+    @Nonnull
+    public String getRetryAfter() {
+        return retryAfter;
+    }
+
+    //true for the ingest requests, the only ones which are limited
+    static boolean isIngest(@Nullable String method, @Nonnull String path) {
+        return "POST".equals(method) && (TRANSACTIONS_PATH.equals(path) || BATCH_PATH.equals(path));
+    }
+
+    //addAll which adds up the time it takes in engineNanos, addAll itself if the request isn't admitted by a filter
+    @Nonnull
+    public static Function<StatBatch, BatchResult> timed(@Nonnull Function<StatBatch, BatchResult> addAll,
+                                                         @Nullable AtomicLong engineNanos) {
+        if (engineNanos == null) {
+            return addAll;
+        }
+        return batch -> {
+            long start = System.nanoTime();
+            try {
+                return addAll.apply(batch);
+            } finally {
+                engineNanos.addAndGet(System.nanoTime() - start);
+            }
+        };
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public long getShed() {
+        return (long) shed.count();
+    }
+
+    //only the thread which has moved nextAdjustment gets here, samples of a concurrent release may go to either window
+    private void adjust() {
+        long count = samples.sumThenReset();
+        long total = latencyNanos.sumThenReset();
+        if (count == 0) {
+            return;
+        }
+        int current = limit;
+        if (total / count > targetNanos) {
+            limit = Math.max(minLimit, current - Math.max(1, current / 10));
+        } else if (current < maxLimit) {
+            limit = current + 1;
+        }
+    }
+}
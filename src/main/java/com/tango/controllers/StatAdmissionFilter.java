@@ -0,0 +1,72 @@
+package com.tango.controllers;
+
+import org.eclipse.jetty.server.Request;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.annotation.Nonnull;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//StatAdmission of the servlet stack in front of the DispatcherServlet. The latency sample of a request starts
+//when Jetty has received it, so the time it has waited for a thread of the pool is part of it as well.
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class StatAdmissionFilter extends OncePerRequestFilter {
+    @Nonnull
+    private final StatAdmission statAdmission;
+
+    @Autowired
+    public StatAdmissionFilter(@Nonnull StatAdmission statAdmission) {
+        this.statAdmission = statAdmission;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !statAdmission.isEnabled() || !StatAdmission.isIngest(request.getMethod(), path(request));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!statAdmission.tryAcquire()) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, statAdmission.getRetryAfter());
+            return;
+        }
+        long start = System.nanoTime();
+        long queued = queuedNanos(request);
+        AtomicLong engineNanos = null;
+        if (StatAdmission.BATCH_PATH.equals(path(request))) {
+            engineNanos = new AtomicLong();
+            request.setAttribute(StatAdmission.ENGINE_NANOS_ATTRIBUTE, engineNanos);
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            statAdmission.release(queued + (engineNanos != null ? engineNanos.get() : System.nanoTime() - start));
+        }
+    }
+
+    private static String path(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    //Jetty stamps a request in whole milliseconds, so only the whole milliseconds it has surely waited are counted
+    private static long queuedNanos(HttpServletRequest request) {
+        Request baseRequest = Request.getBaseRequest(request);
+        if (baseRequest == null || baseRequest.getTimeStamp() == 0) {
+            return 0;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - baseRequest.getTimeStamp() - 1));
+    }
+}
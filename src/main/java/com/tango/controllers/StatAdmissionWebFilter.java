@@ -0,0 +1,53 @@
+package com.tango.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+
+//StatAdmission of the reactive stack in front of the handlers. The latency sample of a single record covers
+//the wait for the blocking scheduler of the engines which need it, Netty itself doesn't queue requests.
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class StatAdmissionWebFilter implements WebFilter {
+    @Nonnull
+    private final StatAdmission statAdmission;
+
+    @Autowired
+    public StatAdmissionWebFilter(@Nonnull StatAdmission statAdmission) {
+        this.statAdmission = statAdmission;
+    }
+
+    @Nonnull
+    @Override
+    public Mono<Void> filter(@Nonnull ServerWebExchange exchange, @Nonnull WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        String path = request.getPath().pathWithinApplication().value();
+        if (!statAdmission.isEnabled() || !StatAdmission.isIngest(request.getMethodValue(), path)) {
+            return chain.filter(exchange);
+        }
+        if (!statAdmission.tryAcquire()) {
+            ServerHttpResponse response = exchange.getResponse();
+            response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+            response.getHeaders().set(HttpHeaders.RETRY_AFTER, statAdmission.getRetryAfter());
+            return response.setComplete();
+        }
+        long start = System.nanoTime();
+        AtomicLong engineNanos = StatAdmission.BATCH_PATH.equals(path) ? new AtomicLong() : null;
+        if (engineNanos != null) {
+            exchange.getAttributes().put(StatAdmission.ENGINE_NANOS_ATTRIBUTE, engineNanos);
+        }
+        return chain.filter(exchange).doFinally(signal ->
+                statAdmission.release(engineNanos != null ? engineNanos.get() : System.nanoTime() - start));
+    }
+}
@@ -0,0 +1,253 @@
+package com.tango.controllers;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tango.domain.BatchResult;
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Function;
+
+//Streams a JSON array or newline delimited JSON objects straight into primitive batches, no Stat is bound
+//per record. Records are handed over in chunks, so memory doesn't depend on the request size.
+//The same token driven parsing backs the blocking read of an InputStream and the non-blocking Feeder.
+@Component
+public class StatBatchReader {
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    static final int CHUNK_SIZE = 1024;
+
+    @Nonnull
+    private final JsonFactory jsonFactory;
+
+    @Autowired
+    public StatBatchReader(@Nonnull ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    //records which precede a malformed part of the body have already been applied when the exception is thrown
+    @Nonnull
+    public BatchResult read(@Nonnull InputStream body, @Nonnull Function<StatBatch, BatchResult> consumer) throws IOException {
+        Session session = new Session(consumer);
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            for (JsonToken token = parser.nextToken(); token != null && !session.isDone(); token = parser.nextToken()) {
+                session.accept(parser, token);
+            }
+            return session.finish(parser);
+        }
+    }
+
+    //non-blocking counterpart of read, the body is fed chunk by chunk as it arrives
+    @Nonnull
+    public Feeder feeder(@Nonnull Function<StatBatch, BatchResult> consumer) throws IOException {
+        return new Feeder(jsonFactory.createNonBlockingByteArrayParser(), new Session(consumer));
+    }
+
+    //not thread safe, chunks must be fed one after another
+    public static final class Feeder implements AutoCloseable {
+        @Nonnull
+        private final JsonParser parser;
+        @Nonnull
+        private final Session session;
+
+        private Feeder(@Nonnull JsonParser parser, @Nonnull Session session) {
+            this.parser = parser;
+            this.session = session;
+        }
+
+        public void feed(@Nonnull byte[] bytes, int offset, int length) throws IOException {
+            if (!session.isDone()) {
+                ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(bytes, offset, offset + length);
+                drain();
+            }
+        }
+
+        @Nonnull
+        public BatchResult finish() throws IOException {
+            if (!session.isDone()) {
+                ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).endOfInput();
+                drain();
+            }
+            return session.finish(parser);
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+        }
+
+        private void drain() throws IOException {
+            for (JsonToken token = parser.nextToken();
+                 token != null && token != JsonToken.NOT_AVAILABLE && !session.isDone();
+                 token = parser.nextToken()) {
+                session.accept(parser, token);
+            }
+        }
+    }
+
+    private static final class Session {
+        @Nonnull
+        private final Function<StatBatch, BatchResult> consumer;
+        private final StatBatch batch = new StatBatch(CHUNK_SIZE);
+        private BatchResult result = new BatchResult(0, 0, 0, 0);
+        private long malformed;
+        private boolean started;
+        private boolean array;
+        private boolean done;
+        //depth of the value which is being skipped, 0 if none
+        private int skipping;
+        private boolean inRecord;
+        //name of the field whose value is expected next, null between fields
+        @Nullable
+        private String field;
+        private double amount;
+        private long timestamp;
+        @Nullable
+        private String key;
+        private boolean hasAmount;
+        private boolean hasTimestamp;
+
+        private Session(@Nonnull Function<StatBatch, BatchResult> consumer) {
+            this.consumer = consumer;
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        void accept(JsonParser parser, JsonToken token) throws IOException {
+            if (skipping > 0) {
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    ++skipping;
+                } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+                    --skipping;
+                }
+            } else if (inRecord) {
+                acceptField(parser, token);
+            } else if (!started && token == JsonToken.START_ARRAY) {
+                started = true;
+                array = true;
+            } else if (array && token == JsonToken.END_ARRAY) {
+                done = true;
+            } else if (token == JsonToken.START_OBJECT) {
+                started = true;
+                inRecord = true;
+            } else {
+                throw new JsonParseException(parser, "object is expected but was " + token);
+            }
+        }
+
+        @Nonnull
+        BatchResult finish(JsonParser parser) throws IOException {
+            if (inRecord || skipping > 0) {
+                throw new JsonParseException(parser, "unexpected end of object");
+            }
+            if (array && !done) {
+                throw new JsonParseException(parser, "unexpected end of array");
+            }
+            if (!batch.isEmpty()) {
+                result = result.plus(consumer.apply(batch));
+                batch.clear();
+            }
+            return malformed == 0 ? result : result.plus(new BatchResult(0, malformed, 0, 0));
+        }
+
+        private void acceptField(JsonParser parser, JsonToken token) throws IOException {
+            if (field == null) {
+                if (token == JsonToken.FIELD_NAME) {
+                    field = parser.getCurrentName();
+                } else {
+                    endRecord();
+                }
+                return;
+            }
+            boolean numeric = token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT;
+            if (numeric && "amount".equals(field)) {
+                amount = parser.getDoubleValue();
+                hasAmount = true;
+            } else if (numeric && "timestamp".equals(field)) {
+                timestamp = parser.getLongValue();
+                hasTimestamp = true;
+            } else if (token == JsonToken.VALUE_STRING && "amount".equals(field)) {
+                hasAmount = parseTextualAmount(parser.getText().trim());
+            } else if (token == JsonToken.VALUE_STRING && "timestamp".equals(field)) {
+                hasTimestamp = parseTextualTimestamp(parser.getText().trim());
+            } else if (token == JsonToken.VALUE_STRING && "key".equals(field)) {
+                key = parser.getText();
+            } else if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                skipping = 1;
+            }
+            field = null;
+        }
+
+        //quoted numbers are coerced the way Jackson and StatJsonCodec do for a single stat: an empty string is 0 and
+        //"NaN", "Infinity" and "INF" are amounts too; one which isn't a number leaves the record invalid
+        private boolean parseTextualAmount(String text) {
+            switch (text) {
+                case "":
+                    amount = 0;
+                    return true;
+                case "NaN":
+                    amount = Double.NaN;
+                    return true;
+                case "Infinity":
+                case "INF":
+                    amount = Double.POSITIVE_INFINITY;
+                    return true;
+                case "-Infinity":
+                case "-INF":
+                    amount = Double.NEGATIVE_INFINITY;
+                    return true;
+                default:
+                    try {
+                        amount = Double.parseDouble(text);
+                        return true;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+            }
+        }
+
+        //a quoted timestamp has to be an integer, as for Jackson
+        private boolean parseTextualTimestamp(String text) {
+            if (text.isEmpty()) {
+                timestamp = 0;
+                return true;
+            }
+            try {
+                timestamp = Long.parseLong(text);
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        //a record which lacks amount or timestamp or whose key is empty or too long is counted as invalid
+        private void endRecord() {
+            if (hasAmount && hasTimestamp && (key == null || !key.isEmpty() && key.length() <= Stat.MAX_KEY_LENGTH)) {
+                batch.add(amount, timestamp, key);
+                if (batch.size() == CHUNK_SIZE) {
+                    result = result.plus(consumer.apply(batch));
+                    batch.clear();
+                }
+            } else {
+                ++malformed;
+            }
+            inRecord = false;
+            amount = 0;
+            timestamp = 0;
+            key = null;
+            hasAmount = false;
+            hasTimestamp = false;
+        }
+    }
+}
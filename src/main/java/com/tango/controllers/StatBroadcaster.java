@@ -0,0 +1,180 @@
+package com.tango.controllers;
+
+import com.tango.services.CalculatorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+//Pushes the window aggregate to the /statistics/stream subscribers. Once per bucket (1 / granularity seconds)
+//the aggregate is taken from StatSnapshotCache and framed as a server-sent event once, and the very same bytes go
+//to every subscriber. A subscriber has at most one send in flight, a snapshot which arrives meanwhile replaces
+//the undelivered one, so a slow client skips intermediate snapshots instead of buffering them. A send which
+//blocks on a client that doesn't read for SEND_TIMEOUT_MILLIS is interrupted and the subscriber dropped, so stalled
+//clients hold the send threads only that long and can't keep the snapshots from the others.
+//Nothing is computed while there are no subscribers.
+@Component
+public class StatBroadcaster implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(StatBroadcaster.class);
+    private static final long SEND_TIMEOUT_MILLIS = 2000;
+    private static final byte[] DATA = "data:".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = "\n\n".getBytes(StandardCharsets.UTF_8);
+
+    @FunctionalInterface
+    public interface Sender {
+        //frame is a whole event shared by all the subscribers, it must not be changed
+        void send(@Nonnull byte[] frame) throws Exception;
+    }
+
+    @Nonnull
+    private final StatSnapshotCache statSnapshotCache;
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+    //sends may block on slow clients, the ticks must not
+    private final ExecutorService sendExecutorService =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+    @Autowired
+    public StatBroadcaster(@Nonnull CalculatorConfig calculatorConfig, @Nonnull StatSnapshotCache statSnapshotCache) {
+        this.statSnapshotCache = statSnapshotCache;
+        long tickMillis = 1000 / calculatorConfig.getGranularity();
+        scheduledExecutorService.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    //returns the action which unsubscribes, a subscriber whose send fails is unsubscribed as well,
+    //onDropped is called once one has been dropped for a send which hasn't finished in time
+    @Nonnull
+    public Runnable subscribe(@Nonnull Sender sender, @Nonnull Runnable onDropped) {
+        Subscriber subscriber = new Subscriber(sender, onDropped);
+        subscribers.add(subscriber);
+        return () -> subscribers.remove(subscriber);
+    }
+
+    private void tick() {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        byte[] frame;
+        try {
+            byte[] json = statSnapshotCache.current().getJson();
+            frame = new byte[DATA.length + json.length + END.length];
+            System.arraycopy(DATA, 0, frame, 0, DATA.length);
+            System.arraycopy(json, 0, frame, DATA.length, json.length);
+            System.arraycopy(END, 0, frame, DATA.length + json.length, END.length);
+        } catch (RuntimeException e) {
+            //an exception would cancel the next ticks
+            logger.error("Statistics snapshot hasn't been made", e);
+            return;
+        }
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(SEND_TIMEOUT_MILLIS);
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.sendingSince(deadline)) {
+                subscriber.drop();
+            } else {
+                subscriber.offer(frame);
+            }
+        }
+    }
+
+    @PreDestroy
+    @Override
+    public void close() throws Exception {
+        scheduledExecutorService.shutdownNow();
+        sendExecutorService.shutdownNow();
+        scheduledExecutorService.awaitTermination(1, TimeUnit.MINUTES);
+        sendExecutorService.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private final class Subscriber {
+        @Nonnull
+        private final Sender sender;
+        @Nonnull
+        private final Runnable onDropped;
+        //the snapshot which hasn't been sent yet
+        private final AtomicReference<byte[]> latest = new AtomicReference<>();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        //guarded by this, the thread blocked in a send and since when
+        @Nullable
+        private Thread sendingThread;
+        private long sendStart;
+        private boolean dropped;
+
+        Subscriber(@Nonnull Sender sender, @Nonnull Runnable onDropped) {
+            this.sender = sender;
+            this.onDropped = onDropped;
+        }
+
+        void offer(byte[] frame) {
+            latest.set(frame);
+            if (sending.compareAndSet(false, true)) {
+                sendExecutorService.execute(this::drain);
+            }
+        }
+
+        synchronized boolean sendingSince(long nanos) {
+            return sendingThread != null && sendStart - nanos < 0;
+        }
+
+        //the blocked write is interrupted, which makes it fail and frees the thread
+        void drop() {
+            synchronized (this) {
+                if (dropped) {
+                    return;
+                }
+                dropped = true;
+                if (sendingThread != null) {
+                    sendingThread.interrupt();
+                }
+            }
+            subscribers.remove(this);
+            logger.debug("Statistics subscriber hasn't taken a snapshot in {} ms, dropped", SEND_TIMEOUT_MILLIS);
+            onDropped.run();
+        }
+
+        private void drain() {
+            for (; ; ) {
+                byte[] frame = latest.getAndSet(null);
+                if (frame == null) {
+                    sending.set(false);
+                    //a snapshot offered right before the flag was cleared is sent by this thread
+                    if (latest.get() == null || !sending.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                synchronized (this) {
+                    if (dropped) {
+                        return;
+                    }
+                    sendingThread = Thread.currentThread();
+                    sendStart = System.nanoTime();
+                }
+                try {
+                    sender.send(frame);
+                } catch (Exception e) {
+                    logger.debug("Statistics subscriber has gone", e);
+                    subscribers.remove(this);
+                    return;
+                } finally {
+                    synchronized (this) {
+                        sendingThread = null;
+                        //an interrupt which came after the send had finished isn't meant for the next task
+                        Thread.interrupted();
+                    }
+                }
+            }
+        }
+    }
+}
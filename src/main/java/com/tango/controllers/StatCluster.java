@@ -0,0 +1,140 @@
+package com.tango.controllers;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.StatPartials;
+import com.tango.services.CalculatorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+//Scatter-gather behind /statistics/cluster: the partials of every peer (stat.cluster.peers) are fetched
+//from their /statistics/partials in parallel, merged bucket by bucket with the local ones and folded over
+//the local window, so all instances are cut at the same buckets whatever their clocks say.
+//A peer which fails or doesn't answer within stat.cluster.timeout is left out and counted as missing.
+//Blocks the calling thread for up to the timeout.
+@Component
+public class StatCluster implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(StatCluster.class);
+
+    public static final String MISSING_PEERS_HEADER = "X-Stat-Missing-Peers";
+    static final String PARTIALS_PATH = "/statistics/partials";
+
+    @Nonnull
+    private final List<String> peers;
+    private final long timeoutNanos;
+    @Nonnull
+    private final Supplier<StatPartials> localPartials;
+    private final ExecutorService executorService = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "stat-cluster");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public StatCluster(@Nonnull CalculatorConfig calculatorConfig, @Nonnull StatRequestHandler statRequestHandler) {
+        this(calculatorConfig.getCluster(), statRequestHandler::getPartials);
+    }
+
+    public StatCluster(@Nonnull CalculatorConfig.Cluster cluster, @Nonnull Supplier<StatPartials> localPartials) {
+        this.peers = new ArrayList<>(cluster.getPeers());
+        this.timeoutNanos = cluster.getTimeout().toNanos();
+        this.localPartials = localPartials;
+    }
+
+    @Nonnull
+    public Result aggregate() {
+        long deadline = System.nanoTime() + timeoutNanos;
+        List<Future<StatPartials>> futures = new ArrayList<>(peers.size());
+        for (String peer : peers) {
+            futures.add(executorService.submit(() -> fetch(peer)));
+        }
+        StatPartials merged = localPartials.get();
+        int missing = 0;
+        for (int i = 0; i < futures.size(); ++i) {
+            Future<StatPartials> future = futures.get(i);
+            try {
+                merged = merged.merge(future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                logger.warn("Peer {} hasn't answered in time", peers.get(i));
+                ++missing;
+            } catch (ExecutionException | IllegalArgumentException e) {
+                logger.warn("Peer {} has failed", peers.get(i), e);
+                ++missing;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for the peers", e);
+            }
+        }
+        return new Result(merged.toAggregatedStat(), missing);
+    }
+
+    @PreDestroy
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+    }
+
+    private StatPartials fetch(String peer) throws IOException {
+        int timeoutMillis = (int) TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+        HttpURLConnection connection = (HttpURLConnection) new URL(peer + PARTIALS_PATH).openConnection();
+        try {
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setRequestProperty("Accept", StatPartialsCodec.APPLICATION_STAT_PARTIALS_VALUE);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("peer " + peer + " has answered " + connection.getResponseCode());
+            }
+            try (InputStream body = connection.getInputStream()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
+                }
+                return StatPartialsCodec.decode(bytes.toByteArray());
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    public static final class Result {
+        @Nonnull
+        private final AggregatedStat aggregatedStat;
+        private final int missingPeers;
+
+        Result(@Nonnull AggregatedStat aggregatedStat, int missingPeers) {
+            this.aggregatedStat = aggregatedStat;
+            this.missingPeers = missingPeers;
+        }
+
+        @Nonnull
+        public AggregatedStat getAggregatedStat() {
+            return aggregatedStat;
+        }
+
+        //peers which are not in the aggregate
+        public int getMissingPeers() {
+            return missingPeers;
+        }
+    }
+}
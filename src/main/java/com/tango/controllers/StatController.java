@@ -1,39 +1,206 @@
 package com.tango.controllers;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.KeyedStat;
+import com.tango.domain.QuantileStat;
 import com.tango.domain.Stat;
-import com.tango.services.StatCalculatorService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.WebDataBinder;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.InitBinder;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestAttribute;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
+//Servlet stack (the default) controller, see ReactiveStatController for spring.main.web-application-type=reactive
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class StatController {
+    private static final long NO_TIMEOUT = 0;
 
     @Nonnull
-    private final StatCalculatorService statCalculatorService;
+    private final StatRequestHandler statRequestHandler;
+    @Nonnull
+    private final StatBatchReader statBatchReader;
+    @Nonnull
+    private final StatBroadcaster statBroadcaster;
+    @Nonnull
+    private final StatSnapshotCache statSnapshotCache;
+    @Nonnull
+    private final StatCluster statCluster;
+    //null unless stat.json-codec is set
+    @Nullable
+    private final StatJsonCodec statJsonCodec;
 
     @Autowired
-    public StatController(@Nonnull StatCalculatorService statCalculatorService) {
-        this.statCalculatorService = statCalculatorService;
+    public StatController(@Nonnull StatRequestHandler statRequestHandler,
+                          @Nonnull StatBatchReader statBatchReader,
+                          @Nonnull StatBroadcaster statBroadcaster,
+                          @Nonnull StatSnapshotCache statSnapshotCache,
+                          @Nonnull StatCluster statCluster,
+                          @Nullable StatJsonCodec statJsonCodec) {
+        this.statRequestHandler = statRequestHandler;
+        this.statBatchReader = statBatchReader;
+        this.statBroadcaster = statBroadcaster;
+        this.statSnapshotCache = statSnapshotCache;
+        this.statCluster = statCluster;
+        this.statJsonCodec = statJsonCodec;
     }
 
-    //DeferredResult is unnecessary in this case because method add is fast
+    //the codec checks a record while parsing it, its plain checks replace reflective bean validation
+    @InitBinder("stat")
+    public void initStatBinder(WebDataBinder binder) {
+        if (statJsonCodec != null) {
+            binder.setValidator(statJsonCodec.validator());
+        }
+    }
+
+    //DeferredResult is unnecessary in this case because method add is fast (./gradlew loadgen reports how fast),
+    //and once it isn't StatAdmissionFilter sheds the requests over its limit instead of letting them queue
     @RequestMapping(path = "/transactions", method = RequestMethod.POST)
     public ResponseEntity<?> registryTransaction(@Valid @RequestBody Stat stat) {
-        statCalculatorService.add(stat);
+        statRequestHandler.add(stat);
         return ResponseEntity.status(HttpStatus.CREATED).build();
     }
 
+    //accepts a JSON array or newline delimited JSON objects
+    @RequestMapping(
+            path = "/transactions/batch",
+            method = RequestMethod.POST,
+            consumes = {MediaType.APPLICATION_JSON_VALUE, StatBatchReader.APPLICATION_NDJSON_VALUE}
+    )
+    public ResponseEntity<BatchResult> registryTransactions(
+            InputStream body,
+            @RequestAttribute(name = StatAdmission.ENGINE_NANOS_ATTRIBUTE, required = false) AtomicLong engineNanos)
+            throws IOException {
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .body(statBatchReader.read(body, StatAdmission.timed(statRequestHandler::addAll, engineNanos)));
+    }
+
+    //window is a duration like 10s, 1m or 1h (plain numbers are seconds), the whole maxDuration by default,
+    //which is served from the snapshot cache and answers If-None-Match with 304 until the window changes
     @RequestMapping(path = "/statistics", method = RequestMethod.GET)
-    public ResponseEntity<AggregatedStat> getStatistics() {
-        return ResponseEntity.ok(statCalculatorService.getCurrentAggStat());
+    public ResponseEntity<?> getStatistics(
+            @RequestParam(name = "window", required = false) String window,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (window != null) {
+            return ResponseEntity.ok(statRequestHandler.getStatistics(window));
+        }
+        StatSnapshotCache.Snapshot snapshot = statSnapshotCache.current();
+        if (snapshot.matches(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.getETag()).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(snapshot.getETag())
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getJson());
+    }
+
+    //ranges like from=14s,7s&to=7s,0s are the 7 seconds before the last 7 and the last 7, one aggregate per range
+    @RequestMapping(path = "/statistics", method = RequestMethod.GET, params = {"from", "to"})
+    public ResponseEntity<List<AggregatedStat>> getRangeStatistics(@RequestParam("from") String[] from,
+                                                                   @RequestParam("to") String[] to) {
+        return ResponseEntity.ok(statRequestHandler.getRangeStatistics(from, to));
+    }
+
+    //the window which ends stat.allowed-lateness ago, so records late by up to that are already counted
+    @RequestMapping(path = "/statistics/final", method = RequestMethod.GET)
+    public ResponseEntity<AggregatedStat> getFinalStatistics() {
+        return ResponseEntity.ok(statRequestHandler.getFinalStatistics());
+    }
+
+    //whole seconds which have left the window and lie in [from, to) of epoch millis, stat.archive.directory has to be set
+    @RequestMapping(path = "/statistics/history", method = RequestMethod.GET)
+    public ResponseEntity<AggregatedStat> getHistory(@RequestParam("from") long from, @RequestParam("to") long to) {
+        return ResponseEntity.ok(statRequestHandler.getHistory(from, to));
+    }
+
+    //server-sent events with the window aggregate once per bucket, the connection is kept until the client leaves
+    //or stops reading. The frames of StatBroadcaster are whole events, written as they are by the byte array converter
+    @RequestMapping(path = "/statistics/stream", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<ResponseBodyEmitter> streamStatistics() {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(NO_TIMEOUT);
+        Runnable unsubscribe = statBroadcaster.subscribe(emitter::send, emitter::complete);
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        return ResponseEntity.ok().contentType(MediaType.TEXT_EVENT_STREAM).body(emitter);
+    }
+
+    //per bucket aggregates of the window in the binary form of StatPartialsCodec, fetched by /statistics/cluster of the peers
+    @RequestMapping(path = "/statistics/partials", method = RequestMethod.GET)
+    public ResponseEntity<byte[]> getPartials() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(StatPartialsCodec.APPLICATION_STAT_PARTIALS_VALUE))
+                .body(StatPartialsCodec.encode(statRequestHandler.getPartials()));
+    }
+
+    //the window of the local instance merged with the ones of stat.cluster.peers
+    @RequestMapping(path = "/statistics/cluster", method = RequestMethod.GET)
+    public ResponseEntity<AggregatedStat> getClusterStatistics() {
+        StatCluster.Result result = statCluster.aggregate();
+        return ResponseEntity.ok()
+                .header(StatCluster.MISSING_PEERS_HEADER, Integer.toString(result.getMissingPeers()))
+                .body(result.getAggregatedStat());
+    }
+
+    @RequestMapping(path = "/statistics/quantiles", method = RequestMethod.GET)
+    public ResponseEntity<QuantileStat> getQuantiles(
+            @RequestParam(name = "q", defaultValue = "0.5,0.95,0.99") double[] quantiles) {
+        return ResponseEntity.ok(statRequestHandler.getQuantiles(quantiles));
+    }
+
+    //the n largest records of the window with their timestamps, largest first
+    @RequestMapping(path = "/statistics/top", method = RequestMethod.GET)
+    public ResponseEntity<List<Stat>> getTop(@RequestParam(name = "n", defaultValue = "10") int n) {
+        return ResponseEntity.ok(statRequestHandler.getTop(n));
+    }
+
+    @RequestMapping(path = "/statistics/keys/{key}", method = RequestMethod.GET)
+    public ResponseEntity<AggregatedStat> getKeyStatistics(@PathVariable("key") String key) {
+        return ResponseEntity.ok(statRequestHandler.getKeyStatistics(key));
+    }
+
+    //keys with the biggest sums over the window
+    @RequestMapping(path = "/statistics/keys", method = RequestMethod.GET)
+    public ResponseEntity<List<KeyedStat>> getTopKeys(@RequestParam(name = "top", defaultValue = "10") int top) {
+        return ResponseEntity.ok(statRequestHandler.getTopKeys(top));
+    }
+
+    @ExceptionHandler(UnsupportedOperationException.class)
+    public ResponseEntity<?> notSupported() {
+        return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build();
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<?> illegalArgument() {
+        return ResponseEntity.badRequest().build();
+    }
+
+    @ExceptionHandler(JsonProcessingException.class)
+    public ResponseEntity<?> malformedBatch() {
+        return ResponseEntity.badRequest().build();
     }
 }
@@ -0,0 +1,574 @@
+package com.tango.controllers;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.Stat;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.Errors;
+import org.springframework.validation.Validator;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+//Opt-in (stat.json-codec) hand-written JSON converter of the hot path of the servlet stack, picked before Jackson:
+//a Stat body is read into a per-thread buffer and parsed straight into primitives, the @Min and @Size rules of Stat
+//are checked while parsing, and an AggregatedStat is written into a per-thread buffer. The only allocations per
+//request are the Stat itself and the key string if there is one. Unknown fields are skipped like Jackson does,
+//and its default coercions are kept: numbers in strings (an empty one is 0, "Infinity" and "NaN" are amounts too)
+//and timestamps with a fraction or an exponent, which are truncated to a long.
+//Doubles with up to 15 significant digits and a small exponent are parsed exactly without Double.parseDouble,
+//the rest fall back to it. StatSnapshotCache writes the /statistics body with it as well.
+//The reactive stack keeps its Jackson codecs.
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "stat.json-codec", havingValue = "true")
+public class StatJsonCodec extends AbstractHttpMessageConverter<Object> {
+    //a Stat is well under a hundred bytes, anything this big is not one
+    static final int MAX_BODY_SIZE = 16 * 1024;
+
+    private static final byte[] AMOUNT = ascii("amount");
+    private static final byte[] TIMESTAMP = ascii("timestamp");
+    private static final byte[] KEY = ascii("key");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    //integers up to it are exact doubles
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    //the checks of the parser for a Stat bound by another converter, replaces bean validation of the controller
+    private final Validator validator = new Validator() {
+        @Override
+        public boolean supports(@Nonnull Class<?> clazz) {
+            return Stat.class == clazz;
+        }
+
+        @Override
+        public void validate(@Nonnull Object target, @Nonnull Errors errors) {
+            Stat stat = (Stat) target;
+            if (!(stat.getAmount() >= 0)) {
+                errors.rejectValue("amount", "Min", "amount can't be negative");
+            }
+            if (stat.getTimestamp() < 0) {
+                errors.rejectValue("timestamp", "Min", "timestamp can't be negative");
+            }
+            if (stat.getKey() != null && !isValidKeyLength(stat.getKey().length())) {
+                errors.rejectValue("key", "Size", "key has to be from 1 to " + Stat.MAX_KEY_LENGTH + " characters");
+            }
+        }
+    };
+
+    public StatJsonCodec() {
+        super(StandardCharsets.UTF_8, MediaType.APPLICATION_JSON);
+    }
+
+    @Nonnull
+    public Validator validator() {
+        return validator;
+    }
+
+    @Override
+    protected boolean supports(@Nonnull Class<?> clazz) {
+        return Stat.class == clazz || AggregatedStat.class == clazz;
+    }
+
+    @Override
+    public boolean canRead(@Nonnull Class<?> clazz, @Nullable MediaType mediaType) {
+        return Stat.class == clazz && canRead(mediaType);
+    }
+
+    @Override
+    public boolean canWrite(@Nonnull Class<?> clazz, @Nullable MediaType mediaType) {
+        return AggregatedStat.class == clazz && canWrite(mediaType);
+    }
+
+    @Nonnull
+    @Override
+    protected Object readInternal(@Nonnull Class<?> clazz, @Nonnull HttpInputMessage inputMessage) throws IOException {
+        Buffers buffers = this.buffers.get();
+        buffers.fill(inputMessage.getBody());
+        return buffers.parseStat();
+    }
+
+    @Override
+    protected void writeInternal(@Nonnull Object value, @Nonnull HttpOutputMessage outputMessage) throws IOException {
+        Buffers buffers = this.buffers.get();
+        buffers.write((AggregatedStat) value);
+        outputMessage.getBody().write(buffers.out, 0, buffers.outLength);
+    }
+
+    //the bytes writeInternal sends, copied out of the per-thread buffer
+    @Nonnull
+    public byte[] toJson(@Nonnull AggregatedStat aggregatedStat) {
+        Buffers buffers = this.buffers.get();
+        buffers.write(aggregatedStat);
+        return Arrays.copyOf(buffers.out, buffers.outLength);
+    }
+
+    private static boolean isValidKeyLength(int length) {
+        return length >= 1 && length <= Stat.MAX_KEY_LENGTH;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static HttpMessageNotReadableException malformed(String message) {
+        return new HttpMessageNotReadableException(message);
+    }
+
+    //per thread state, not shared between requests in flight
+    private static final class Buffers {
+        private byte[] in = new byte[256];
+        private int inLength;
+        private int position;
+        private byte[] out = new byte[256];
+        private int outLength;
+        //Double.toString of Java 8 and later appends without allocating into a builder
+        private final StringBuilder chars = new StringBuilder(32);
+
+        void fill(InputStream body) throws IOException {
+            inLength = 0;
+            position = 0;
+            int read;
+            while ((read = body.read(in, inLength, in.length - inLength)) != -1) {
+                inLength += read;
+                if (inLength == in.length) {
+                    if (in.length >= MAX_BODY_SIZE) {
+                        throw malformed("body is larger than " + MAX_BODY_SIZE + " bytes");
+                    }
+                    in = Arrays.copyOf(in, in.length * 2);
+                }
+            }
+        }
+
+        Stat parseStat() {
+            double amount = 0;
+            long timestamp = 0;
+            String key = null;
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                ++position;
+            } else {
+                while (true) {
+                    expect('"');
+                    int nameStart = position;
+                    skipString();
+                    int nameEnd = position - 1;
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    if (nameEquals(nameStart, nameEnd, AMOUNT)) {
+                        amount = skipNull() ? 0 : peek() == '"' ? parseTextualDouble() : parseDouble();
+                    } else if (nameEquals(nameStart, nameEnd, TIMESTAMP)) {
+                        timestamp = skipNull() ? 0 : peek() == '"' ? parseTextualLong() : parseLong();
+                    } else if (nameEquals(nameStart, nameEnd, KEY)) {
+                        key = skipNull() ? null : parseString();
+                    } else {
+                        skipValue();
+                    }
+                    skipWhitespace();
+                    byte next = next();
+                    if (next == '}') {
+                        break;
+                    }
+                    if (next != ',') {
+                        throw malformed("expected , or } at " + (position - 1));
+                    }
+                    skipWhitespace();
+                }
+            }
+            skipWhitespace();
+            if (position != inLength) {
+                throw malformed("unexpected content after the object at " + position);
+            }
+            //the rules of the annotations of Stat
+            if (!(amount >= 0)) {
+                throw malformed("amount can't be negative");
+            }
+            if (timestamp < 0) {
+                throw malformed("timestamp can't be negative");
+            }
+            if (key != null && !isValidKeyLength(key.length())) {
+                throw malformed("key has to be from 1 to " + Stat.MAX_KEY_LENGTH + " characters");
+            }
+            return new Stat(amount, timestamp, key);
+        }
+
+        void write(AggregatedStat aggregatedStat) {
+            outLength = 0;
+            append("{\"sum\":");
+            append(aggregatedStat.getSum());
+            append(",\"avg\":");
+            append(aggregatedStat.getAvg());
+            append(",\"max\":");
+            append(aggregatedStat.getMax());
+            append(",\"min\":");
+            append(aggregatedStat.getMin());
+            append(",\"count\":");
+            chars.setLength(0);
+            chars.append(aggregatedStat.getCount());
+            append(chars);
+            AggregatedStat.Exact exact = aggregatedStat.getExact();
+            if (exact != null) {
+                //plain decimals, nothing to escape
+                append(",\"exact\":{\"sum\":\"");
+                append(exact.getSum());
+                append("\",\"avg\":\"");
+                append(exact.getAvg());
+                append("\",\"max\":\"");
+                append(exact.getMax());
+                append("\",\"min\":\"");
+                append(exact.getMin());
+                append("\"}");
+            }
+            append("}");
+        }
+
+        private void append(double value) {
+            chars.setLength(0);
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                //the way Jackson writes them by default
+                chars.append('"').append(value).append('"');
+            } else {
+                chars.append(value);
+            }
+            append(chars);
+        }
+
+        private void append(CharSequence value) {
+            int length = value.length();
+            if (outLength + length > out.length) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, outLength + length));
+            }
+            for (int i = 0; i < length; ++i) {
+                out[outLength++] = (byte) value.charAt(i);
+            }
+        }
+
+        private boolean nameEquals(int start, int end, byte[] name) {
+            if (end - start != name.length) {
+                return false;
+            }
+            for (int i = 0; i < name.length; ++i) {
+                if (in[start + i] != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private double parseDouble() {
+            int start = position;
+            if (peek() == '-') {
+                ++position;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+            int integerDigits = 0;
+            while (position < inLength && isDigit(in[position])) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (in[position] - '0');
+                    if (mantissa != 0) {
+                        ++digits;
+                    }
+                } else {
+                    ++exponent;
+                    ++digits;
+                }
+                ++position;
+                ++integerDigits;
+            }
+            if (integerDigits == 0) {
+                throw malformed("expected a number at " + start);
+            }
+            if (position < inLength && in[position] == '.') {
+                ++position;
+                int fractionStart = position;
+                while (position < inLength && isDigit(in[position])) {
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + (in[position] - '0');
+                        --exponent;
+                        if (mantissa != 0) {
+                            ++digits;
+                        }
+                    } else {
+                        ++digits;
+                    }
+                    ++position;
+                }
+                if (position == fractionStart) {
+                    throw malformed("expected digits after . at " + position);
+                }
+            }
+            if (position < inLength && (in[position] == 'e' || in[position] == 'E')) {
+                ++position;
+                boolean negative = false;
+                if (position < inLength && (in[position] == '+' || in[position] == '-')) {
+                    negative = in[position] == '-';
+                    ++position;
+                }
+                int exponentStart = position;
+                int explicit = 0;
+                while (position < inLength && isDigit(in[position])) {
+                    explicit = Math.min(explicit * 10 + (in[position] - '0'), 10000);
+                    ++position;
+                }
+                if (position == exponentStart) {
+                    throw malformed("expected digits of the exponent at " + position);
+                }
+                exponent += negative ? -explicit : explicit;
+            }
+            boolean negative = in[start] == '-';
+            if (digits <= 15 && mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+                double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+                return negative ? -value : value;
+            }
+            return Double.parseDouble(new String(in, start, position - start, StandardCharsets.US_ASCII));
+        }
+
+        private long parseLong() {
+            int start = position;
+            boolean negative = peek() == '-';
+            if (negative) {
+                ++position;
+            }
+            long value = 0;
+            while (position < inLength && isDigit(in[position])) {
+                int digit = in[position] - '0';
+                if (value > (Long.MAX_VALUE - digit) / 10) {
+                    throw malformed("number is out of the long range at " + start);
+                }
+                value = value * 10 + digit;
+                ++position;
+            }
+            if (position == start + (negative ? 1 : 0)) {
+                throw malformed("expected an integer at " + start);
+            }
+            if (position < inLength && (in[position] == '.' || in[position] == 'e' || in[position] == 'E')) {
+                //truncated like Jackson does with ACCEPT_FLOAT_AS_INT, within the same range
+                position = start;
+                double fraction = parseDouble();
+                if (fraction < Long.MIN_VALUE || fraction > Long.MAX_VALUE) {
+                    throw malformed("number is out of the long range at " + start);
+                }
+                return (long) fraction;
+            }
+            return negative ? -value : value;
+        }
+
+        //a quoted amount, the words are the ones Jackson takes
+        private double parseTextualDouble() {
+            int start = position;
+            String text = parseString().trim();
+            switch (text) {
+                case "":
+                    return 0;
+                case "NaN":
+                    return Double.NaN;
+                case "Infinity":
+                case "INF":
+                    return Double.POSITIVE_INFINITY;
+                case "-Infinity":
+                case "-INF":
+                    return Double.NEGATIVE_INFINITY;
+                default:
+                    try {
+                        return Double.parseDouble(text);
+                    } catch (NumberFormatException e) {
+                        throw malformed("expected a number in the string at " + start);
+                    }
+            }
+        }
+
+        //a quoted timestamp has to be an integer, as for Jackson
+        private long parseTextualLong() {
+            int start = position;
+            String text = parseString().trim();
+            if (text.isEmpty()) {
+                return 0;
+            }
+            try {
+                return Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                throw malformed("expected an integer in the string at " + start);
+            }
+        }
+
+        //a string without escapes is decoded at once
+        private String parseString() {
+            expect('"');
+            int start = position;
+            while (position < inLength && in[position] != '"' && in[position] != '\\') {
+                ++position;
+            }
+            if (position < inLength && in[position] == '"') {
+                return new String(in, start, position++ - start, StandardCharsets.UTF_8);
+            }
+            StringBuilder value = new StringBuilder().append(new String(in, start, position - start, StandardCharsets.UTF_8));
+            while (true) {
+                byte current = next();
+                if (current == '"') {
+                    return value.toString();
+                }
+                if (current != '\\') {
+                    int segment = position - 1;
+                    while (position < inLength && in[position] != '"' && in[position] != '\\') {
+                        ++position;
+                    }
+                    value.append(new String(in, segment, position - segment, StandardCharsets.UTF_8));
+                    continue;
+                }
+                byte escaped = next();
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        value.append((char) escaped);
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        value.append((char) hex());
+                        break;
+                    default:
+                        throw malformed("unknown escape at " + (position - 1));
+                }
+            }
+        }
+
+        private int hex() {
+            if (position + 4 > inLength) {
+                throw malformed("truncated escape at " + position);
+            }
+            int value = 0;
+            for (int i = 0; i < 4; ++i) {
+                int digit = Character.digit(in[position++], 16);
+                if (digit < 0) {
+                    throw malformed("bad escape at " + (position - 1));
+                }
+                value = value * 16 + digit;
+            }
+            return value;
+        }
+
+        //position is after the opening quote, leaves it after the closing one
+        private void skipString() {
+            while (true) {
+                byte current = next();
+                if (current == '"') {
+                    return;
+                }
+                if (current == '\\') {
+                    next();
+                }
+            }
+        }
+
+        private void skipValue() {
+            byte current = peek();
+            if (current == '"') {
+                ++position;
+                skipString();
+            } else if (current == '{' || current == '[') {
+                int depth = 0;
+                do {
+                    current = next();
+                    if (current == '"') {
+                        skipString();
+                    } else if (current == '{' || current == '[') {
+                        ++depth;
+                    } else if (current == '}' || current == ']') {
+                        --depth;
+                    }
+                } while (depth > 0);
+            } else if (current == 't') {
+                skipLiteral(TRUE);
+            } else if (current == 'f') {
+                skipLiteral(FALSE);
+            } else if (!skipNull()) {
+                parseDouble();
+            }
+        }
+
+        private boolean skipNull() {
+            if (peek() != 'n') {
+                return false;
+            }
+            skipLiteral(NULL);
+            return true;
+        }
+
+        private void skipLiteral(byte[] literal) {
+            if (position + literal.length > inLength) {
+                throw malformed("unexpected end of the body");
+            }
+            for (byte expected : literal) {
+                if (in[position++] != expected) {
+                    throw malformed("unexpected literal at " + (position - 1));
+                }
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < inLength &&
+                    (in[position] == ' ' || in[position] == '\n' || in[position] == '\r' || in[position] == '\t')) {
+                ++position;
+            }
+        }
+
+        private void expect(char expected) {
+            if (next() != expected) {
+                throw malformed("expected " + expected + " at " + (position - 1));
+            }
+        }
+
+        private byte peek() {
+            if (position == inLength) {
+                throw malformed("unexpected end of the body");
+            }
+            return in[position];
+        }
+
+        private byte next() {
+            byte current = peek();
+            ++position;
+            return current;
+        }
+
+        private static boolean isDigit(byte value) {
+            return value >= '0' && value <= '9';
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.tango.controllers;
+
+import com.tango.domain.StatPartials;
+
+import javax.annotation.Nonnull;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+//Binary form of StatPartials served by /statistics/partials, everything in network byte order:
+//4 byte magic, 8 byte bucket millis, 8 byte first and last bucket of the window, 4 byte number of buckets,
+//then 40 bytes per bucket: index, sum, count, max and min. A minute of 1 second buckets is under 2.5 KB.
+public final class StatPartialsCodec {
+    public static final String APPLICATION_STAT_PARTIALS_VALUE = "application/x-stat-partials";
+
+    private static final int MAGIC = 0x53545054;
+    private static final int HEADER_SIZE = 32;
+    private static final int BUCKET_SIZE = 40;
+
+    private StatPartialsCodec() {
+    }
+
+    @Nonnull
+    public static byte[] encode(@Nonnull StatPartials partials) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + partials.size() * BUCKET_SIZE);
+        buffer.putInt(MAGIC)
+                .putLong(partials.getBucketMillis())
+                .putLong(partials.getFromBucket())
+                .putLong(partials.getToBucket())
+                .putInt(partials.size());
+        for (int i = 0; i < partials.size(); ++i) {
+            buffer.putLong(partials.getBucket(i))
+                    .putDouble(partials.getSum(i))
+                    .putLong(partials.getCount(i))
+                    .putDouble(partials.getMax(i))
+                    .putDouble(partials.getMin(i));
+        }
+        return buffer.array();
+    }
+
+    //IllegalArgumentException if the bytes are not whole partials
+    @Nonnull
+    public static StatPartials decode(@Nonnull byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("not stat partials");
+            }
+            long bucketMillis = buffer.getLong();
+            long fromBucket = buffer.getLong();
+            long toBucket = buffer.getLong();
+            int size = buffer.getInt();
+            if (size < 0 || size > buffer.remaining() / BUCKET_SIZE) {
+                throw new IllegalArgumentException("stat partials are truncated");
+            }
+            StatPartials partials = new StatPartials(bucketMillis, fromBucket, toBucket, size);
+            for (int i = 0; i < size; ++i) {
+                partials.add(buffer.getLong(), buffer.getDouble(), buffer.getLong(), buffer.getDouble(), buffer.getDouble());
+            }
+            return partials;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("stat partials are truncated", e);
+        }
+    }
+}
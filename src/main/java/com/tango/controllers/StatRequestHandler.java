@@ -0,0 +1,211 @@
+package com.tango.controllers;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.KeyedStat;
+import com.tango.domain.QuantileStat;
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.domain.StatPartials;
+import com.tango.services.AddOutcome;
+import com.tango.services.KeyedStatCalculatorService;
+import com.tango.services.StatArchive;
+import com.tango.services.StatCalculatorService;
+import com.tango.services.StatJournal;
+import com.tango.services.StatMetrics;
+import com.tango.services.StatRange;
+import com.tango.services.TopStatCalculatorService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+//Work behind the endpoints, shared by the servlet and the reactive controllers. The reactive controller calls it
+//straight from the event loop, except for the engines which wait for other threads (isBlocking, the sharded one)
+//and for getHistory, which reads the archive files.
+@Component
+public class StatRequestHandler {
+    static final int MAX_TOP = 1000;
+
+    @Nonnull
+    private final StatCalculatorService statCalculatorService;
+    //null unless stat.keys.capacity is set
+    @Nullable
+    private final KeyedStatCalculatorService keyedStatCalculatorService;
+    @Nonnull
+    private final TopStatCalculatorService topStatCalculatorService;
+    @Nonnull
+    private final StatMetrics statMetrics;
+    //null unless stat.persistence.directory is set
+    @Nullable
+    private final StatJournal statJournal;
+    //null unless stat.archive.directory is set
+    @Nullable
+    private final StatArchive statArchive;
+    //calls which have changed the window, see writeVersion
+    private final LongAdder writes = new LongAdder();
+
+    @Autowired
+    public StatRequestHandler(@Nonnull StatCalculatorService statCalculatorService,
+                              @Nullable KeyedStatCalculatorService keyedStatCalculatorService,
+                              @Nonnull TopStatCalculatorService topStatCalculatorService,
+                              @Nonnull StatMetrics statMetrics,
+                              @Nullable StatJournal statJournal,
+                              @Nullable StatArchive statArchive) {
+        this.statCalculatorService = statCalculatorService;
+        this.keyedStatCalculatorService = keyedStatCalculatorService;
+        this.topStatCalculatorService = topStatCalculatorService;
+        this.statMetrics = statMetrics;
+        this.statJournal = statJournal;
+        this.statArchive = statArchive;
+    }
+
+    @Nonnull
+    public AddOutcome add(@Nonnull Stat stat) {
+        long start = System.nanoTime();
+        AddOutcome outcome = statCalculatorService.add(stat);
+        statMetrics.recordAdd(outcome, System.nanoTime() - start);
+        if (outcome == AddOutcome.ACCEPTED) {
+            writes.increment();
+            topStatCalculatorService.add(stat);
+            if (statJournal != null) {
+                statJournal.append(stat.getAmount(), stat.getTimestamp());
+            }
+        }
+        if (keyedStatCalculatorService != null && stat.getKey() != null) {
+            keyedStatCalculatorService.add(stat);
+        }
+        return outcome;
+    }
+
+    @Nonnull
+    public BatchResult addAll(@Nonnull StatBatch batch) {
+        long start = System.nanoTime();
+        BatchResult result = statCalculatorService.addAll(batch);
+        statMetrics.recordBatch(result, System.nanoTime() - start);
+        if (result.getAccepted() > 0) {
+            writes.increment();
+        }
+        topStatCalculatorService.addAll(batch);
+        if (keyedStatCalculatorService != null) {
+            keyedStatCalculatorService.addAll(batch);
+        }
+        if (statJournal != null && result.getAccepted() > 0) {
+            statJournal.appendAll(batch, result.getClassifiedAt());
+        }
+        return result;
+    }
+
+    //true if the engine may wait for other threads, see StatCalculatorService.isBlocking
+    public boolean isBlocking() {
+        return statCalculatorService.isBlocking();
+    }
+
+    //grows after every add which has changed the window, so an aggregate computed after reading a version
+    //has all the records of that version
+    public long writeVersion() {
+        return writes.sum();
+    }
+
+    //window is a duration like 10s, 1m or 1h (plain numbers are seconds), the whole maxDuration if it is null
+    @Nonnull
+    public AggregatedStat getStatistics(@Nullable String window) {
+        long start = System.nanoTime();
+        AggregatedStat aggregatedStat = window == null ?
+                statCalculatorService.getCurrentAggStat() :
+                statCalculatorService.getAggStat(DurationStyle.detectAndParse(window, ChronoUnit.SECONDS));
+        statMetrics.recordRead(System.nanoTime() - start);
+        return aggregatedStat;
+    }
+
+    //from[i] and to[i] make the i-th range, all of them are answered at once
+    @Nonnull
+    public List<AggregatedStat> getRangeStatistics(@Nonnull String[] from, @Nonnull String[] to) {
+        if (from.length == 0 || from.length != to.length) {
+            throw new IllegalArgumentException("every range needs both from and to");
+        }
+        List<StatRange> ranges = new ArrayList<>(from.length);
+        for (int i = 0; i < from.length; ++i) {
+            ranges.add(new StatRange(
+                    DurationStyle.detectAndParse(from[i], ChronoUnit.SECONDS),
+                    DurationStyle.detectAndParse(to[i], ChronoUnit.SECONDS)
+            ));
+        }
+        long start = System.nanoTime();
+        List<AggregatedStat> aggregatedStats = statCalculatorService.getAggStats(ranges);
+        statMetrics.recordRead(System.nanoTime() - start);
+        return aggregatedStats;
+    }
+
+    @Nonnull
+    public AggregatedStat getFinalStatistics() {
+        long start = System.nanoTime();
+        AggregatedStat aggregatedStat = statCalculatorService.getFinalAggStat();
+        statMetrics.recordRead(System.nanoTime() - start);
+        return aggregatedStat;
+    }
+
+    @Nonnull
+    public StatPartials getPartials() {
+        long start = System.nanoTime();
+        StatPartials partials = statCalculatorService.getCurrentPartials();
+        statMetrics.recordRead(System.nanoTime() - start);
+        return partials;
+    }
+
+    //archived seconds which lie entirely in [from, to), both epoch millis
+    @Nonnull
+    public AggregatedStat getHistory(long from, long to) {
+        if (statArchive == null) {
+            throw new UnsupportedOperationException("history is kept only if stat.archive.directory is set");
+        }
+        long start = System.nanoTime();
+        AggregatedStat aggregatedStat = statArchive.getAggStat(from, to);
+        statMetrics.recordRead(System.nanoTime() - start);
+        return aggregatedStat;
+    }
+
+    @Nonnull
+    public QuantileStat getQuantiles(@Nonnull double[] quantiles) {
+        for (double quantile : quantiles) {
+            if (!(quantile > 0 && quantile <= 1)) {
+                throw new IllegalArgumentException("quantile must be in (0, 1] but was " + quantile);
+            }
+        }
+        return statCalculatorService.getCurrentQuantiles(quantiles);
+    }
+
+    //the n largest records of the window, largest first
+    @Nonnull
+    public List<Stat> getTop(int n) {
+        return topStatCalculatorService.getTop(n);
+    }
+
+    @Nonnull
+    public AggregatedStat getKeyStatistics(@Nonnull String key) {
+        return keyed().getAggStat(key);
+    }
+
+    //keys with the biggest sums over the window
+    @Nonnull
+    public List<KeyedStat> getTopKeys(int top) {
+        if (top < 1 || top > MAX_TOP) {
+            throw new IllegalArgumentException("top must be in [1, " + MAX_TOP + "] but was " + top);
+        }
+        return keyed().getTop(top);
+    }
+
+    @Nonnull
+    private KeyedStatCalculatorService keyed() {
+        if (keyedStatCalculatorService == null) {
+            throw new UnsupportedOperationException("keyed statistics are kept only if stat.keys.capacity is set");
+        }
+        return keyedStatCalculatorService;
+    }
+}
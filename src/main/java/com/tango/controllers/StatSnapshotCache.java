@@ -0,0 +1,112 @@
+package com.tango.controllers;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tango.domain.AggregatedStat;
+import com.tango.services.TimeSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+//Serialized body of GET /statistics keyed by the version of the window. The window only slides on whole seconds
+//of the engines' clock and only changes otherwise by a write, so (second, write version) identifies the aggregate
+//and polls in between get the same bytes without touching the engine or Jackson. The version also makes the ETag.
+//The body is written by StatJsonCodec when stat.json-codec is on, so it is the same as the one of a window.
+@Component
+public class StatSnapshotCache {
+    @Nonnull
+    private final StatRequestHandler statRequestHandler;
+    @Nonnull
+    private final ObjectMapper objectMapper;
+    @Nonnull
+    private final TimeSource timeSource;
+    //null unless stat.json-codec is set
+    @Nullable
+    private final StatJsonCodec statJsonCodec;
+    //versions start over after a restart, so tags of different runs must not match
+    private final String instance = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    @Nullable
+    private volatile Snapshot snapshot;
+
+    @Autowired
+    public StatSnapshotCache(@Nonnull StatRequestHandler statRequestHandler,
+                             @Nonnull ObjectMapper objectMapper,
+                             @Nonnull TimeSource timeSource,
+                             @Nullable StatJsonCodec statJsonCodec) {
+        this.statRequestHandler = statRequestHandler;
+        this.objectMapper = objectMapper;
+        this.timeSource = timeSource;
+        this.statJsonCodec = statJsonCodec;
+    }
+
+    //versions are read before the aggregate, a write which races with it makes the next call compute a new one
+    @Nonnull
+    public Snapshot current() {
+        long second = timeSource.currentTimeMillis() / 1000;
+        long version = statRequestHandler.writeVersion();
+        Snapshot current = snapshot;
+        if (current != null && current.second == second && current.version == version) {
+            return current;
+        }
+        AggregatedStat aggregatedStat = statRequestHandler.getStatistics(null);
+        byte[] json;
+        if (statJsonCodec != null) {
+            json = statJsonCodec.toJson(aggregatedStat);
+        } else {
+            try {
+                json = objectMapper.writeValueAsBytes(aggregatedStat);
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        current = new Snapshot(second, version, "\"" + instance + "-" + second + "-" + version + "\"", json);
+        snapshot = current;
+        return current;
+    }
+
+    public static final class Snapshot {
+        private final long second;
+        private final long version;
+        @Nonnull
+        private final String eTag;
+        @Nonnull
+        private final byte[] json;
+
+        Snapshot(long second, long version, @Nonnull String eTag, @Nonnull byte[] json) {
+            this.second = second;
+            this.version = version;
+            this.eTag = eTag;
+            this.json = json;
+        }
+
+        @Nonnull
+        public String getETag() {
+            return eTag;
+        }
+
+        //the bytes are shared, they must not be changed
+        @Nonnull
+        public byte[] getJson() {
+            return json;
+        }
+
+        //If-None-Match is a list of tags or *, weak tags match as well since the body is the same
+        public boolean matches(@Nullable String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                String trimmed = tag.trim();
+                if (trimmed.equals("*") || trimmed.equals(eTag) ||
+                        trimmed.startsWith("W/") && trimmed.substring(2).equals(eTag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
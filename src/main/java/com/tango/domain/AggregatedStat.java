@@ -1,18 +1,33 @@
 package com.tango.domain;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 public class AggregatedStat {
     private final double sum;
     private final double avg;
     private final double max;
     private final double min;
     private final long count;
+    //decimal strings of the same values when amounts are kept as fixed-point units (stat.amount-scale),
+    //a double can't hold every sum of them exactly
+    @Nullable
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final Exact exact;
 
     public AggregatedStat(double sum, double avg, double max, double min, long count) {
+        this(sum, avg, max, min, count, null);
+    }
+
+    public AggregatedStat(double sum, double avg, double max, double min, long count, @Nullable Exact exact) {
         this.sum = sum;
         this.avg = avg;
         this.max = max;
         this.min = min;
         this.count = count;
+        this.exact = exact;
     }
 
     public double getSum() {
@@ -35,6 +50,11 @@ public class AggregatedStat {
         return count;
     }
 
+    @Nullable
+    public Exact getExact() {
+        return exact;
+    }
+
     @Override
     public String toString() {
         return "AggregatedStat{" +
@@ -43,6 +63,56 @@ public class AggregatedStat {
                 ", max=" + max +
                 ", min=" + min +
                 ", count=" + count +
+                (exact != null ? ", exact=" + exact : "") +
                 '}';
     }
+
+    //plain decimal strings, avg is rounded to 16 significant digits
+    public static class Exact {
+        @Nonnull
+        private final String sum;
+        @Nonnull
+        private final String avg;
+        @Nonnull
+        private final String max;
+        @Nonnull
+        private final String min;
+
+        public Exact(@Nonnull String sum, @Nonnull String avg, @Nonnull String max, @Nonnull String min) {
+            this.sum = sum;
+            this.avg = avg;
+            this.max = max;
+            this.min = min;
+        }
+
+        @Nonnull
+        public String getSum() {
+            return sum;
+        }
+
+        @Nonnull
+        public String getAvg() {
+            return avg;
+        }
+
+        @Nonnull
+        public String getMax() {
+            return max;
+        }
+
+        @Nonnull
+        public String getMin() {
+            return min;
+        }
+
+        @Override
+        public String toString() {
+            return "Exact{" +
+                    "sum=" + sum +
+                    ", avg=" + avg +
+                    ", max=" + max +
+                    ", min=" + min +
+                    '}';
+        }
+    }
 }
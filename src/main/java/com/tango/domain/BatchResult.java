@@ -0,0 +1,66 @@
+package com.tango.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+public class BatchResult {
+    private final long accepted;
+    private final long invalid;
+    private final long late;
+    private final long future;
+    //clock reading the engine has classified the records against, Long.MIN_VALUE if there wasn't one
+    private final long classifiedAt;
+
+    public BatchResult(long accepted, long invalid, long late, long future) {
+        this(accepted, invalid, late, future, Long.MIN_VALUE);
+    }
+
+    public BatchResult(long accepted, long invalid, long late, long future, long classifiedAt) {
+        this.accepted = accepted;
+        this.invalid = invalid;
+        this.late = late;
+        this.future = future;
+        this.classifiedAt = classifiedAt;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getInvalid() {
+        return invalid;
+    }
+
+    public long getLate() {
+        return late;
+    }
+
+    public long getFuture() {
+        return future;
+    }
+
+    @JsonIgnore
+    public long getClassifiedAt() {
+        return classifiedAt;
+    }
+
+    //the later clock reading is kept
+    public BatchResult plus(BatchResult other) {
+        return new BatchResult(
+                accepted + other.accepted,
+                invalid + other.invalid,
+                late + other.late,
+                future + other.future,
+                Math.max(classifiedAt, other.classifiedAt)
+        );
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{" +
+                "accepted=" + accepted +
+                ", invalid=" + invalid +
+                ", late=" + late +
+                ", future=" + future +
+                '}';
+    }
+}
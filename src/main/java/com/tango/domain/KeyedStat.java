@@ -0,0 +1,26 @@
+package com.tango.domain;
+
+public class KeyedStat extends AggregatedStat {
+    private final String key;
+
+    public KeyedStat(String key, double sum, double avg, double max, double min, long count) {
+        super(sum, avg, max, min, count);
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyedStat{" +
+                "key=" + key +
+                ", sum=" + getSum() +
+                ", avg=" + getAvg() +
+                ", max=" + getMax() +
+                ", min=" + getMin() +
+                ", count=" + getCount() +
+                '}';
+    }
+}
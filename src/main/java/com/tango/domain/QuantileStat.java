@@ -0,0 +1,30 @@
+package com.tango.domain;
+
+import java.util.Map;
+
+public class QuantileStat {
+    private final long count;
+    //requested quantile -> value
+    private final Map<String, Double> quantiles;
+
+    public QuantileStat(long count, Map<String, Double> quantiles) {
+        this.count = count;
+        this.quantiles = quantiles;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public Map<String, Double> getQuantiles() {
+        return quantiles;
+    }
+
+    @Override
+    public String toString() {
+        return "QuantileStat{" +
+                "count=" + count +
+                ", quantiles=" + quantiles +
+                '}';
+    }
+}
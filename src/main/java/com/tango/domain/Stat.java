@@ -1,20 +1,39 @@
 package com.tango.domain;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
+import javax.annotation.Nullable;
 import javax.validation.constraints.Min;
+import javax.validation.constraints.Size;
 
 public class Stat {
+    public static final int MAX_KEY_LENGTH = 256;
+
     @Min(0)
     private final double amount;
     @Min(0)
     private final long timestamp;
+    //optional dimension like a merchant or a tenant id, keyed statistics are kept only for records which have it
+    @Nullable
+    @Size(min = 1, max = MAX_KEY_LENGTH)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final String key;
 
     public Stat(double amount, long timestamp) {
+        this(amount, timestamp, null);
+    }
+
+    @JsonCreator
+    public Stat(@JsonProperty("amount") double amount,
+                @JsonProperty("timestamp") long timestamp,
+                @JsonProperty("key") @Nullable String key) {
         this.amount = amount;
         this.timestamp = timestamp;
+        this.key = key;
     }
 
     public double getAmount() {
@@ -25,6 +44,11 @@ public class Stat {
         return timestamp;
     }
 
+    @Nullable
+    public String getKey() {
+        return key;
+    }
+
     @JsonIgnore
     public long getTimestampInSec() {
         return timestamp / 1000;
@@ -35,6 +59,7 @@ public class Stat {
         return "Stat{" +
                 "amount=" + amount +
                 ", timestamp=" + timestamp +
+                ", key=" + key +
                 '}';
     }
 }
@@ -0,0 +1,79 @@
+package com.tango.domain;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+//Reusable primitive container of records, lets bulk ingestion avoid a Stat object per record
+public class StatBatch {
+    private double[] amounts;
+    private long[] timestamps;
+    private String[] keys;
+    private int size;
+    //number of records with a key, lets keyed statistics skip batches without them
+    private int keyed;
+
+    public StatBatch(int initialCapacity) {
+        this.amounts = new double[initialCapacity];
+        this.timestamps = new long[initialCapacity];
+        this.keys = new String[initialCapacity];
+    }
+
+    public void add(double amount, long timestamp) {
+        add(amount, timestamp, null);
+    }
+
+    public void add(double amount, long timestamp, @Nullable String key) {
+        if (size == amounts.length) {
+            int capacity = Math.max(16, size * 2);
+            amounts = Arrays.copyOf(amounts, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+        }
+        amounts[size] = amount;
+        timestamps[size] = timestamp;
+        keys[size] = key;
+        if (key != null) {
+            ++keyed;
+        }
+        ++size;
+    }
+
+    public double getAmount(int index) {
+        return amounts[index];
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    @Nullable
+    public String getKey(int index) {
+        return keys[index];
+    }
+
+    public boolean hasKeys() {
+        return keyed > 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        //drop references to the keys of the previous records
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+        keyed = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "StatBatch{" +
+                "size=" + size +
+                '}';
+    }
+}
@@ -0,0 +1,144 @@
+package com.tango.domain;
+
+import java.util.Arrays;
+
+//Primitive per bucket partial aggregates of one window: bucket indexes in increasing order with their sum, count,
+//max and min. Partials of instances with the same bucket size merge bucket by bucket into the cluster-wide window.
+public class StatPartials {
+    private final long bucketMillis;
+    //the window as the exporting instance saw it, buckets [fromBucket, toBucket]
+    private final long fromBucket;
+    private final long toBucket;
+    private long[] buckets;
+    private double[] sums;
+    private long[] counts;
+    private double[] maxs;
+    private double[] mins;
+    private int size;
+
+    public StatPartials(long bucketMillis, long fromBucket, long toBucket, int initialCapacity) {
+        this.bucketMillis = bucketMillis;
+        this.fromBucket = fromBucket;
+        this.toBucket = toBucket;
+        this.buckets = new long[initialCapacity];
+        this.sums = new double[initialCapacity];
+        this.counts = new long[initialCapacity];
+        this.maxs = new double[initialCapacity];
+        this.mins = new double[initialCapacity];
+    }
+
+    //buckets have to be added in increasing order, a bucket equal to the last one is merged into it
+    public void add(long bucket, double sum, long count, double max, double min) {
+        if (count == 0) {
+            return;
+        }
+        if (size > 0 && buckets[size - 1] == bucket) {
+            sums[size - 1] += sum;
+            counts[size - 1] += count;
+            maxs[size - 1] = Math.max(maxs[size - 1], max);
+            mins[size - 1] = Math.min(mins[size - 1], min);
+            return;
+        }
+        if (size > 0 && buckets[size - 1] > bucket) {
+            throw new IllegalArgumentException("bucket " + bucket + " is added after " + buckets[size - 1]);
+        }
+        if (size == buckets.length) {
+            int capacity = Math.max(16, size * 2);
+            buckets = Arrays.copyOf(buckets, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+        }
+        buckets[size] = bucket;
+        sums[size] = sum;
+        counts[size] = count;
+        maxs[size] = max;
+        mins[size] = min;
+        ++size;
+    }
+
+    //bucket by bucket merge of two ordered partials, the window stays the one of this
+    public StatPartials merge(StatPartials other) {
+        if (other.bucketMillis != bucketMillis) {
+            throw new IllegalArgumentException("buckets of " + other.bucketMillis + " ms can't be merged into buckets of " +
+                    bucketMillis + " ms");
+        }
+        StatPartials merged = new StatPartials(bucketMillis, fromBucket, toBucket, size + other.size);
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || i < size && buckets[i] <= other.buckets[j]) {
+                merged.add(buckets[i], sums[i], counts[i], maxs[i], mins[i]);
+                ++i;
+            } else {
+                merged.add(other.buckets[j], other.sums[j], other.counts[j], other.maxs[j], other.mins[j]);
+                ++j;
+            }
+        }
+        return merged;
+    }
+
+    //aggregate of the buckets of the window of this, the ones of other instances outside of it are skipped
+    public AggregatedStat toAggregatedStat() {
+        double sum = 0;
+        long count = 0;
+        double max = Double.NEGATIVE_INFINITY;
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < size; ++i) {
+            if (buckets[i] >= fromBucket && buckets[i] <= toBucket) {
+                sum += sums[i];
+                count += counts[i];
+                max = Math.max(max, maxs[i]);
+                min = Math.min(min, mins[i]);
+            }
+        }
+        return new AggregatedStat(sum, count > 0 ? sum / count : 0, count > 0 ? max : 0, count > 0 ? min : 0, count);
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    public long getFromBucket() {
+        return fromBucket;
+    }
+
+    public long getToBucket() {
+        return toBucket;
+    }
+
+    public long getBucket(int index) {
+        return buckets[index];
+    }
+
+    public double getSum(int index) {
+        return sums[index];
+    }
+
+    public long getCount(int index) {
+        return counts[index];
+    }
+
+    public double getMax(int index) {
+        return maxs[index];
+    }
+
+    public double getMin(int index) {
+        return mins[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "StatPartials{" +
+                "bucketMillis=" + bucketMillis +
+                ", fromBucket=" + fromBucket +
+                ", toBucket=" + toBucket +
+                ", size=" + size +
+                '}';
+    }
+}
@@ -0,0 +1,11 @@
+package com.tango.services;
+
+public enum AddOutcome {
+    ACCEPTED,
+    //negative amount or timestamp
+    INVALID,
+    //too late to registry
+    LATE,
+    //from future
+    FUTURE
+}
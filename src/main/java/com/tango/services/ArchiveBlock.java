@@ -0,0 +1,233 @@
+package com.tango.services;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+//Columnar block of per second aggregates of StatArchive compressed the way Gorilla compresses time series:
+//seconds and counts are delta-of-delta encoded (a run of consecutive seconds is one bit per second),
+//sums, maxs and mins are XOR encoded against the previous value of their column (an unchanged value is one bit,
+//otherwise only the meaningful bits of the XOR are written). Columns follow each other in one bit stream.
+//Not thread safe, the arrays are reused from block to block.
+final class ArchiveBlock {
+    final long[] seconds;
+    final long[] counts;
+    final double[] sums;
+    final double[] maxs;
+    final double[] mins;
+    int size;
+
+    ArchiveBlock(int capacity) {
+        this.seconds = new long[capacity];
+        this.counts = new long[capacity];
+        this.sums = new double[capacity];
+        this.maxs = new double[capacity];
+        this.mins = new double[capacity];
+    }
+
+    boolean isFull() {
+        return size == seconds.length;
+    }
+
+    void add(long second, double sum, long count, double max, double min) {
+        seconds[size] = second;
+        sums[size] = sum;
+        counts[size] = count;
+        maxs[size] = max;
+        mins[size] = min;
+        ++size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    @Nonnull
+    byte[] encode() {
+        BitWriter writer = new BitWriter(size * 8 + 64);
+        //seconds of a block are mostly consecutive
+        writeDeltas(writer, seconds, 1);
+        writeDeltas(writer, counts, 0);
+        writeXors(writer, sums);
+        writeXors(writer, maxs);
+        writeXors(writer, mins);
+        return writer.toByteArray();
+    }
+
+    //replaces the content by the size aggregates encoded in the remaining bytes of buffer
+    void decode(@Nonnull ByteBuffer buffer, int size) {
+        BitReader reader = new BitReader(buffer);
+        this.size = size;
+        readDeltas(reader, seconds, size, 1);
+        readDeltas(reader, counts, size, 0);
+        readXors(reader, sums, size);
+        readXors(reader, maxs, size);
+        readXors(reader, mins, size);
+    }
+
+    private void writeDeltas(BitWriter writer, long[] values, long expectedDelta) {
+        if (size == 0) {
+            return;
+        }
+        writer.write(values[0], 64);
+        long previousDelta = expectedDelta;
+        for (int i = 1; i < size; ++i) {
+            long delta = values[i] - values[i - 1];
+            long deltaOfDelta = delta - previousDelta;
+            previousDelta = delta;
+            if (deltaOfDelta == 0) {
+                writer.write(0, 1);
+            } else if (fits(deltaOfDelta, 7)) {
+                writer.write(0b10, 2);
+                writer.write(deltaOfDelta, 7);
+            } else if (fits(deltaOfDelta, 9)) {
+                writer.write(0b110, 3);
+                writer.write(deltaOfDelta, 9);
+            } else if (fits(deltaOfDelta, 12)) {
+                writer.write(0b1110, 4);
+                writer.write(deltaOfDelta, 12);
+            } else {
+                writer.write(0b1111, 4);
+                writer.write(deltaOfDelta, 64);
+            }
+        }
+    }
+
+    private static void readDeltas(BitReader reader, long[] values, int size, long expectedDelta) {
+        if (size == 0) {
+            return;
+        }
+        values[0] = reader.read(64);
+        long previousDelta = expectedDelta;
+        for (int i = 1; i < size; ++i) {
+            long deltaOfDelta;
+            if (reader.read(1) == 0) {
+                deltaOfDelta = 0;
+            } else if (reader.read(1) == 0) {
+                deltaOfDelta = reader.readSigned(7);
+            } else if (reader.read(1) == 0) {
+                deltaOfDelta = reader.readSigned(9);
+            } else if (reader.read(1) == 0) {
+                deltaOfDelta = reader.readSigned(12);
+            } else {
+                deltaOfDelta = reader.read(64);
+            }
+            previousDelta += deltaOfDelta;
+            values[i] = values[i - 1] + previousDelta;
+        }
+    }
+
+    private void writeXors(BitWriter writer, double[] values) {
+        if (size == 0) {
+            return;
+        }
+        long previous = Double.doubleToRawLongBits(values[0]);
+        writer.write(previous, 64);
+        //window of the meaningful bits of the previous XOR, 64 leading zeros mean there isn't one yet
+        int previousLeading = 64;
+        int previousTrailing = 0;
+        for (int i = 1; i < size; ++i) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                writer.write(0, 1);
+                continue;
+            }
+            //5 bits hold up to 31 leading zeros
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading != 64 && leading >= previousLeading && trailing >= previousTrailing) {
+                writer.write(0b10, 2);
+                writer.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                writer.write(0b11, 2);
+                writer.write(leading, 5);
+                //64 meaningful bits are written as 0
+                writer.write(meaningful & 63, 6);
+                writer.write(xor >>> trailing, meaningful);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+    }
+
+    private static void readXors(BitReader reader, double[] values, int size) {
+        if (size == 0) {
+            return;
+        }
+        long previous = reader.read(64);
+        values[0] = Double.longBitsToDouble(previous);
+        int previousLeading = 64;
+        int previousTrailing = 0;
+        for (int i = 1; i < size; ++i) {
+            if (reader.read(1) != 0) {
+                if (reader.read(1) != 0) {
+                    previousLeading = (int) reader.read(5);
+                    int meaningful = (int) reader.read(6);
+                    previousTrailing = 64 - previousLeading - (meaningful == 0 ? 64 : meaningful);
+                }
+                previous ^= reader.read(64 - previousLeading - previousTrailing) << previousTrailing;
+            }
+            values[i] = Double.longBitsToDouble(previous);
+        }
+    }
+
+    private static boolean fits(long value, int bits) {
+        long bound = 1L << (bits - 1);
+        return value >= -bound && value < bound;
+    }
+
+    private static final class BitWriter {
+        private byte[] bytes;
+        private long bitPosition;
+
+        BitWriter(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        //the lowest bits of value, highest of them first
+        void write(long value, int bits) {
+            for (int bit = bits - 1; bit >= 0; --bit) {
+                int index = (int) (bitPosition >>> 3);
+                if (index == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                if ((value >>> bit & 1) != 0) {
+                    bytes[index] |= 0x80 >>> (bitPosition & 7);
+                }
+                ++bitPosition;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, (int) ((bitPosition + 7) >>> 3));
+        }
+    }
+
+    private static final class BitReader {
+        private final ByteBuffer buffer;
+        private final int base;
+        private long bitPosition;
+
+        BitReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.base = buffer.position();
+        }
+
+        long read(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; ++i) {
+                int current = buffer.get(base + (int) (bitPosition >>> 3));
+                value = value << 1 | (current >>> (7 - (bitPosition & 7)) & 1);
+                ++bitPosition;
+            }
+            return value;
+        }
+
+        long readSigned(int bits) {
+            return read(bits) << (64 - bits) >> (64 - bits);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.tango.services;
+
+import com.tango.domain.BatchResult;
+import com.tango.domain.StatBatch;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+//Classifies records of one batch against a single clock read and folds accepted ones into per bucket partials,
+//so an engine touches every bucket once per batch instead of once per record.
+//Accepted buckets all belong to one window, so bucket % size never collides. Not thread safe, meant to be reused.
+//With a FixedPoint the partials are long units, an amount or a partial sum which overflows them is invalid.
+final class BatchPartials {
+    private final int size;
+    private final long[] buckets;
+    private final double[] sums;
+    private final long[] counts;
+    private final double[] maxs;
+    private final double[] mins;
+    @Nullable
+    private final FixedPoint fixedPoint;
+    private final long[] unitSums;
+    private final long[] unitMaxs;
+    private final long[] unitMins;
+    //slots touched by the current batch in order of appearance
+    private final int[] touched;
+    private int touchedCount;
+
+    private long accepted;
+    private long invalid;
+    private long late;
+    private long future;
+    private long currentTimeMillis;
+
+    BatchPartials(int size) {
+        this(size, null);
+    }
+
+    BatchPartials(int size, @Nullable FixedPoint fixedPoint) {
+        this.size = size;
+        this.fixedPoint = fixedPoint;
+        this.buckets = new long[size];
+        this.counts = new long[size];
+        int doubles = fixedPoint == null ? size : 0;
+        this.sums = new double[doubles];
+        this.maxs = new double[doubles];
+        this.mins = new double[doubles];
+        int units = fixedPoint != null ? size : 0;
+        this.unitSums = new long[units];
+        this.unitMaxs = new long[units];
+        this.unitMins = new long[units];
+        this.touched = new int[size];
+        Arrays.fill(buckets, -1);
+    }
+
+    void collect(@Nonnull StatBatch batch, @Nonnull StatWindow window, long currentTimeMillis) {
+        clear();
+        this.currentTimeMillis = currentTimeMillis;
+        for (int i = 0; i < batch.size(); ++i) {
+            double amount = batch.getAmount(i);
+            long timestamp = batch.getTimestamp(i);
+            switch (window.classify(amount, timestamp, currentTimeMillis)) {
+                case ACCEPTED:
+                    if (fixedPoint == null) {
+                        fold(window.bucketOf(timestamp), amount);
+                    } else if (!foldUnits(window.bucketOf(timestamp), amount)) {
+                        ++invalid;
+                        break;
+                    }
+                    ++accepted;
+                    break;
+                case INVALID:
+                    ++invalid;
+                    break;
+                case LATE:
+                    ++late;
+                    break;
+                case FUTURE:
+                    ++future;
+                    break;
+            }
+        }
+    }
+
+    int bucketCount() {
+        return touchedCount;
+    }
+
+    long bucket(int index) {
+        return buckets[touched[index]];
+    }
+
+    double sum(int index) {
+        return sums[touched[index]];
+    }
+
+    long count(int index) {
+        return counts[touched[index]];
+    }
+
+    double max(int index) {
+        return maxs[touched[index]];
+    }
+
+    double min(int index) {
+        return mins[touched[index]];
+    }
+
+    long sumUnits(int index) {
+        return unitSums[touched[index]];
+    }
+
+    long maxUnits(int index) {
+        return unitMaxs[touched[index]];
+    }
+
+    long minUnits(int index) {
+        return unitMins[touched[index]];
+    }
+
+    //the engine couldn't take the partial at index after all, its records are counted as late
+    void reject(int index) {
+        long rejected = counts[touched[index]];
+        accepted -= rejected;
+        late += rejected;
+    }
+
+    @Nonnull
+    BatchResult result() {
+        return new BatchResult(accepted, invalid, late, future, currentTimeMillis);
+    }
+
+    private void fold(long bucket, double amount) {
+        int slot = (int) (bucket % size);
+        if (buckets[slot] != bucket) {
+            buckets[slot] = bucket;
+            sums[slot] = amount;
+            counts[slot] = 1;
+            maxs[slot] = amount;
+            mins[slot] = amount;
+            touched[touchedCount++] = slot;
+            return;
+        }
+        sums[slot] += amount;
+        counts[slot]++;
+        maxs[slot] = Math.max(maxs[slot], amount);
+        mins[slot] = Math.min(mins[slot], amount);
+    }
+
+    private boolean foldUnits(long bucket, double amount) {
+        long units;
+        try {
+            units = fixedPoint.toUnits(amount);
+        } catch (ArithmeticException e) {
+            return false;
+        }
+        int slot = (int) (bucket % size);
+        if (buckets[slot] != bucket) {
+            buckets[slot] = bucket;
+            unitSums[slot] = units;
+            counts[slot] = 1;
+            unitMaxs[slot] = units;
+            unitMins[slot] = units;
+            touched[touchedCount++] = slot;
+            return true;
+        }
+        try {
+            unitSums[slot] = Math.addExact(unitSums[slot], units);
+        } catch (ArithmeticException e) {
+            return false;
+        }
+        counts[slot]++;
+        unitMaxs[slot] = Math.max(unitMaxs[slot], units);
+        unitMins[slot] = Math.min(unitMins[slot], units);
+        return true;
+    }
+
+    private void clear() {
+        for (int i = 0; i < touchedCount; ++i) {
+            buckets[touched[i]] = -1;
+        }
+        touchedCount = 0;
+        accepted = 0;
+        invalid = 0;
+        late = 0;
+        future = 0;
+    }
+}
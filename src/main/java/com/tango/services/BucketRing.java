@@ -0,0 +1,261 @@
+package com.tango.services;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Fixed size ring of primitive sum/count/max/min cells. Every slot is tagged with the bucket index it holds,
+//a slot which still holds an older bucket is reset lazily by the first writer of a newer one.
+//Updates are lock free and allocation free.
+//With stripes > 1 every slot is split into independent cells (like LongAdder does), a writer picks a cell
+//by its thread probe and moves to another one when it sees contention. Readers merge all cells of a slot.
+//A fixed-point ring keeps long units instead of double bits, so its sums are exact and updated without conversions.
+final class BucketRing {
+    private static final long EMPTY = -1;
+    private static final long RESETTING = Long.MIN_VALUE;
+
+    //one cell takes a whole cache line (8 longs), so neighbour buckets and stripes are not false shared
+    private static final int STRIDE = 8;
+    private static final int EPOCH = 0;
+    private static final int SUM = 1;
+    private static final int COUNT = 2;
+    private static final int MAX = 3;
+    private static final int MIN = 4;
+
+    private static final long ZERO_BITS = Double.doubleToRawLongBits(0);
+    private static final long NEGATIVE_INFINITY_BITS = Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY);
+    private static final long POSITIVE_INFINITY_BITS = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+
+    private static final ThreadLocal<int[]> probe = ThreadLocal.withInitial(
+            () -> new int[]{mix((int) Thread.currentThread().getId())}
+    );
+
+    private final int size;
+    private final int stripes;
+    private final AtomicLongArray cells;
+    private final boolean fixedPoint;
+    private final long emptyMax;
+    private final long emptyMin;
+
+    BucketRing(int size) {
+        this(size, 1);
+    }
+
+    BucketRing(int size, int stripes) {
+        this(size, stripes, false);
+    }
+
+    BucketRing(int size, int stripes, boolean fixedPoint) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size has to be positive: " + size);
+        }
+        if (stripes <= 0 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("stripes has to be a power of two: " + stripes);
+        }
+        this.size = size;
+        this.stripes = stripes;
+        this.fixedPoint = fixedPoint;
+        this.emptyMax = fixedPoint ? Long.MIN_VALUE : NEGATIVE_INFINITY_BITS;
+        this.emptyMin = fixedPoint ? Long.MAX_VALUE : POSITIVE_INFINITY_BITS;
+        this.cells = new AtomicLongArray(size * stripes * STRIDE);
+        for (int cell = 0; cell < size * stripes; ++cell) {
+            cells.set(cell * STRIDE + EPOCH, EMPTY);
+        }
+    }
+
+    //returns false if the slot has already been taken by a newer bucket, i.e. the value is too old for this ring
+    boolean add(long bucket, double amount) {
+        return merge(bucket, amount, 1, amount, amount);
+    }
+
+    //folds a partial aggregate of one bucket into its cell
+    boolean merge(long bucket, double sum, long count, double max, double min) {
+        assert !fixedPoint;
+        int[] threadProbe = stripes > 1 ? probe.get() : null;
+        int stripe = threadProbe != null ? threadProbe[0] & (stripes - 1) : 0;
+        int base = claim(offset(bucket, stripe), bucket);
+        if (base < 0) {
+            return false;
+        }
+        boolean contended = addDouble(base + SUM, sum);
+        cells.getAndAdd(base + COUNT, count);
+        maxDouble(base + MAX, max);
+        minDouble(base + MIN, min);
+        if (contended && threadProbe != null) {
+            threadProbe[0] = mix(threadProbe[0]);
+        }
+        return true;
+    }
+
+    //merge of a fixed-point ring, ArithmeticException (and nothing merged) if the sum of the bucket overflows
+    boolean mergeUnits(long bucket, long sum, long count, long max, long min) {
+        assert fixedPoint;
+        int[] threadProbe = stripes > 1 ? probe.get() : null;
+        int stripe = threadProbe != null ? threadProbe[0] & (stripes - 1) : 0;
+        int base = claim(offset(bucket, stripe), bucket);
+        if (base < 0) {
+            return false;
+        }
+        boolean contended = addLong(base + SUM, sum);
+        cells.getAndAdd(base + COUNT, count);
+        maxLong(base + MAX, max);
+        minLong(base + MIN, min);
+        if (contended && threadProbe != null) {
+            threadProbe[0] = mix(threadProbe[0]);
+        }
+        return true;
+    }
+
+    //folds buckets [fromBucket, toBucket] into the accumulator, cells which are being recycled concurrently are skipped
+    void aggregate(long fromBucket, long toBucket, @Nonnull StatAccumulator accumulator) {
+        assert !fixedPoint;
+        fold(fromBucket, toBucket, (sum, count, max, min) -> accumulator.merge(
+                Double.longBitsToDouble(sum), count, Double.longBitsToDouble(max), Double.longBitsToDouble(min)
+        ));
+    }
+
+    void aggregateUnits(long fromBucket, long toBucket, @Nonnull FixedPointAccumulator accumulator) {
+        assert fixedPoint;
+        fold(fromBucket, toBucket, accumulator::merge);
+    }
+
+    private interface CellConsumer {
+        void accept(long sum, long count, long max, long min);
+    }
+
+    private void fold(long fromBucket, long toBucket, @Nonnull CellConsumer consumer) {
+        long from = Math.max(Math.max(fromBucket, 0), toBucket - size + 1);
+        for (long bucket = from; bucket <= toBucket; ++bucket) {
+            for (int stripe = 0; stripe < stripes; ++stripe) {
+                int base = offset(bucket, stripe);
+                long epoch = cells.get(base + EPOCH);
+                if (epoch != bucket) {
+                    continue;
+                }
+                long sum = cells.get(base + SUM);
+                long count = cells.get(base + COUNT);
+                long max = cells.get(base + MAX);
+                long min = cells.get(base + MIN);
+                if (cells.get(base + EPOCH) == epoch) {
+                    consumer.accept(sum, count, max, min);
+                }
+            }
+        }
+    }
+
+    //number of buckets of [fromBucket, toBucket] which have at least one cell
+    int occupied(long fromBucket, long toBucket) {
+        long from = Math.max(Math.max(fromBucket, 0), toBucket - size + 1);
+        int occupied = 0;
+        for (long bucket = from; bucket <= toBucket; ++bucket) {
+            for (int stripe = 0; stripe < stripes; ++stripe) {
+                if (cells.get(offset(bucket, stripe) + EPOCH) == bucket) {
+                    ++occupied;
+                    break;
+                }
+            }
+        }
+        return occupied;
+    }
+
+    //returns base offset of the cell which holds the bucket or -1 if the bucket is already overwritten
+    private int claim(int base, long bucket) {
+        for (; ; ) {
+            long epoch = cells.get(base + EPOCH);
+            if (epoch == bucket) {
+                return base;
+            }
+            if (epoch == RESETTING) {
+                Thread.yield();
+                continue;
+            }
+            if (epoch > bucket) {
+                return -1;
+            }
+            //A writer which has already passed this check for the old bucket and stalls until the slot is
+            //taken by the new one lands there. The engines size the ring one slot above the accepted buckets,
+            //so a slot is taken by a new bucket only after its old one has been out of the accepted range for
+            //a whole bucket, and such a writer has to stall for that long between its clock reading and here;
+            //we accept this instead of taking a lock.
+            if (cells.compareAndSet(base + EPOCH, epoch, RESETTING)) {
+                cells.set(base + SUM, ZERO_BITS);
+                cells.set(base + COUNT, 0);
+                cells.set(base + MAX, emptyMax);
+                cells.set(base + MIN, emptyMin);
+                cells.set(base + EPOCH, bucket);
+                return base;
+            }
+        }
+    }
+
+    private int offset(long bucket, int stripe) {
+        return ((int) (bucket % size) * stripes + stripe) * STRIDE;
+    }
+
+    //returns true if the cell was contended
+    private boolean addDouble(int index, double amount) {
+        for (boolean contended = false; ; contended = true) {
+            long current = cells.get(index);
+            long next = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + amount);
+            if (cells.compareAndSet(index, current, next)) {
+                return contended;
+            }
+        }
+    }
+
+    //returns true if the cell was contended, the cell is left as is if the sum overflows
+    private boolean addLong(int index, long amount) {
+        for (boolean contended = false; ; contended = true) {
+            long current = cells.get(index);
+            if (cells.compareAndSet(index, current, Math.addExact(current, amount))) {
+                return contended;
+            }
+        }
+    }
+
+    private void maxLong(int index, long amount) {
+        for (; ; ) {
+            long current = cells.get(index);
+            if (current >= amount || cells.compareAndSet(index, current, amount)) {
+                return;
+            }
+        }
+    }
+
+    private void minLong(int index, long amount) {
+        for (; ; ) {
+            long current = cells.get(index);
+            if (current <= amount || cells.compareAndSet(index, current, amount)) {
+                return;
+            }
+        }
+    }
+
+    private void maxDouble(int index, double amount) {
+        for (; ; ) {
+            long current = cells.get(index);
+            if (Double.longBitsToDouble(current) >= amount ||
+                    cells.compareAndSet(index, current, Double.doubleToRawLongBits(amount))) {
+                return;
+            }
+        }
+    }
+
+    private void minDouble(int index, double amount) {
+        for (; ; ) {
+            long current = cells.get(index);
+            if (Double.longBitsToDouble(current) <= amount ||
+                    cells.compareAndSet(index, current, Double.doubleToRawLongBits(amount))) {
+                return;
+            }
+        }
+    }
+
+    //xorshift step, the same way Striped64 moves a thread probe after a collision
+    private static int mix(int value) {
+        int result = value == 0 ? 0x9e3779b9 : value;
+        result ^= result << 13;
+        result ^= result >>> 17;
+        result ^= result << 5;
+        return result;
+    }
+}
@@ -0,0 +1,77 @@
+package com.tango.services;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+//Segment tree of the bucket aggregates kept in the slots of a window: updating a slot and folding any run
+//of neighbour slots both take O(log size). Bottom-up layout, leaves are [size, 2 * size) and node i
+//aggregates nodes 2i and 2i + 1, which works for any size since all the aggregates are commutative.
+//Not thread safe, the owner guards it.
+final class BucketSegmentTree {
+    private final int size;
+    private final double[] sums;
+    private final long[] counts;
+    private final double[] maxs;
+    private final double[] mins;
+
+    BucketSegmentTree(int size) {
+        this.size = size;
+        this.sums = new double[2 * size];
+        this.counts = new long[2 * size];
+        this.maxs = new double[2 * size];
+        this.mins = new double[2 * size];
+        clear();
+    }
+
+    void set(int slot, double sum, long count, double max, double min) {
+        int node = slot + size;
+        sums[node] = sum;
+        counts[node] = count;
+        maxs[node] = max;
+        mins[node] = min;
+        for (node >>= 1; node > 0; node >>= 1) {
+            int left = 2 * node;
+            int right = left + 1;
+            sums[node] = sums[left] + sums[right];
+            counts[node] = counts[left] + counts[right];
+            maxs[node] = Math.max(maxs[left], maxs[right]);
+            mins[node] = Math.min(mins[left], mins[right]);
+        }
+    }
+
+    void clear(int slot) {
+        set(slot, 0, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    void clear() {
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+        Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+        Arrays.fill(mins, Double.POSITIVE_INFINITY);
+    }
+
+    //sum of all the slots, kept by the root, so it is recomputed from the slots on every set
+    double sum() {
+        return sums[1];
+    }
+
+    long count() {
+        return counts[1];
+    }
+
+    //folds slots [fromSlot, toSlot] into the accumulator
+    void aggregate(int fromSlot, int toSlot, @Nonnull StatAccumulator accumulator) {
+        for (int left = fromSlot + size, right = toSlot + size + 1; left < right; left >>= 1, right >>= 1) {
+            if ((left & 1) == 1) {
+                merge(left++, accumulator);
+            }
+            if ((right & 1) == 1) {
+                merge(--right, accumulator);
+            }
+        }
+    }
+
+    private void merge(int node, StatAccumulator accumulator) {
+        accumulator.merge(sums[node], counts[node], maxs[node], mins[node]);
+    }
+}
@@ -5,6 +5,9 @@ import org.springframework.validation.annotation.Validated;
 
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 @ConfigurationProperties("stat")
 @Validated
@@ -16,6 +19,68 @@ public class CalculatorConfig {
     @Min(1)
     private int granularity;
 
+    //map, ring, window, tiered or sharded, the StatCalculatorService beans are picked by @ConditionalOnProperty on it
+    private String engine = "map";
+
+    //number of independent cells per bucket, used by the ring engine to spread contention of the current bucket
+    @Min(1)
+    private int stripes = 1;
+
+    //binary digits of a bucket histogram used for quantiles by the map engine, relative error is 2^-(precision + 1),
+    //a histogram takes 8 * (63 * 2^precision + 2) bytes per bucket (8KB at 4), 0 turns it off
+    @Min(0)
+    @Max(8)
+    private int quantilePrecision;
+
+    //largest records kept per bucket for /statistics/top, the most it can return, 0 turns it off
+    @Min(0)
+    @Max(1000)
+    private int topSize = 10;
+
+    //decimal places of the amounts kept by the ring engine as exact long units, e.g. 2 for cents, doubles if not set.
+    //Responses of the ring engine get the exact decimals as strings under "exact", the other engines reject it
+    //and /statistics/cluster merges the partials as doubles
+    @Min(0)
+    @Max(18)
+    private Integer amountScale;
+
+    //how late a record may be for the final view, buckets stay writable until the watermark has passed them
+    private Duration allowedLateness = Duration.ZERO;
+
+    //how far ahead of now a record may be stamped, it is counted once its time comes
+    private Duration futureSkew = Duration.ZERO;
+
+    //refresh period of the cached clock of the engines, longer than a bucket would blur bucket boundaries
+    private Duration clockTick = Duration.ofMillis(1);
+
+    //coarser resolutions kept by the tiered engine on top of the maxDuration window, finest first,
+    //a window longer than the retention of the finer tiers has to be a multiple of the resolution of its tier
+    private List<Tier> tiers = new ArrayList<>();
+
+    //per key windows of records which carry a key, off unless stat.keys.capacity is set
+    private Keys keys = new Keys();
+
+    //snapshot of the window and log of the records which let a restarted service continue where it stopped
+    private Persistence persistence = new Persistence();
+
+    //binary TCP/UDP listener of fixed-width records next to the HTTP endpoints
+    private Ingest ingest = new Ingest();
+
+    //writer threads and their queues of the sharded engine
+    private Shards shards = new Shards();
+
+    //in-flight limit of the ingest endpoints which sheds the requests over it with 429
+    private Admission admission = new Admission();
+
+    //other instances whose windows /statistics/cluster merges with the local one
+    private Cluster cluster = new Cluster();
+
+    //on disk archive of the per second aggregates which have left the window
+    private Archive archive = new Archive();
+
+    //hand-written JSON converter of Stat and AggregatedStat in front of Jackson on the servlet stack
+    private boolean jsonCodec;
+
     public CalculatorConfig(int maxDuration, int granularity) {
         this.maxDuration = maxDuration;
         this.granularity = granularity;
@@ -32,6 +97,74 @@ public class CalculatorConfig {
         return granularity;
     }
 
+    public String getEngine() {
+        return engine;
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    public int getQuantilePrecision() {
+        return quantilePrecision;
+    }
+
+    public int getTopSize() {
+        return topSize;
+    }
+
+    public Integer getAmountScale() {
+        return amountScale;
+    }
+
+    public Duration getAllowedLateness() {
+        return allowedLateness;
+    }
+
+    public Duration getFutureSkew() {
+        return futureSkew;
+    }
+
+    public Duration getClockTick() {
+        return clockTick;
+    }
+
+    public List<Tier> getTiers() {
+        return tiers;
+    }
+
+    public Keys getKeys() {
+        return keys;
+    }
+
+    public Persistence getPersistence() {
+        return persistence;
+    }
+
+    public Ingest getIngest() {
+        return ingest;
+    }
+
+    public Shards getShards() {
+        return shards;
+    }
+
+    public Admission getAdmission() {
+        return admission;
+    }
+
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public Archive getArchive() {
+        return archive;
+    }
+
+    public boolean isJsonCodec() {
+        return jsonCodec;
+    }
+
     public void setMaxDuration(int maxDuration) {
         this.maxDuration = maxDuration;
     }
@@ -40,11 +173,438 @@ public class CalculatorConfig {
         this.granularity = granularity;
     }
 
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    public void setQuantilePrecision(int quantilePrecision) {
+        this.quantilePrecision = quantilePrecision;
+    }
+
+    public void setTopSize(int topSize) {
+        this.topSize = topSize;
+    }
+
+    public void setAmountScale(Integer amountScale) {
+        this.amountScale = amountScale;
+    }
+
+    public void setAllowedLateness(Duration allowedLateness) {
+        this.allowedLateness = allowedLateness;
+    }
+
+    public void setFutureSkew(Duration futureSkew) {
+        this.futureSkew = futureSkew;
+    }
+
+    public void setClockTick(Duration clockTick) {
+        this.clockTick = clockTick;
+    }
+
+    public void setTiers(List<Tier> tiers) {
+        this.tiers = tiers;
+    }
+
+    public void setKeys(Keys keys) {
+        this.keys = keys;
+    }
+
+    public void setPersistence(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+    public void setIngest(Ingest ingest) {
+        this.ingest = ingest;
+    }
+
+    public void setShards(Shards shards) {
+        this.shards = shards;
+    }
+
+    public void setAdmission(Admission admission) {
+        this.admission = admission;
+    }
+
+    public void setCluster(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    public void setArchive(Archive archive) {
+        this.archive = archive;
+    }
+
+    public void setJsonCodec(boolean jsonCodec) {
+        this.jsonCodec = jsonCodec;
+    }
+
     @Override
     public String toString() {
         return "CalculatorConfig{" +
                 "maxDuration=" + maxDuration +
                 ", granularity=" + granularity +
+                ", engine=" + engine +
+                ", stripes=" + stripes +
+                ", quantilePrecision=" + quantilePrecision +
+                ", topSize=" + topSize +
+                ", amountScale=" + amountScale +
+                ", allowedLateness=" + allowedLateness +
+                ", futureSkew=" + futureSkew +
+                ", clockTick=" + clockTick +
+                ", tiers=" + tiers +
+                ", keys=" + keys +
+                ", persistence=" + persistence +
+                ", ingest=" + ingest +
+                ", shards=" + shards +
+                ", admission=" + admission +
+                ", cluster=" + cluster +
+                ", archive=" + archive +
+                ", jsonCodec=" + jsonCodec +
                 '}';
     }
+
+    public static class Tier {
+        private Duration resolution;
+        private Duration retention;
+
+        public Tier(Duration resolution, Duration retention) {
+            this.resolution = resolution;
+            this.retention = retention;
+        }
+
+        public Tier() {
+        }
+
+        public Duration getResolution() {
+            return resolution;
+        }
+
+        public Duration getRetention() {
+            return retention;
+        }
+
+        public void setResolution(Duration resolution) {
+            this.resolution = resolution;
+        }
+
+        public void setRetention(Duration retention) {
+            this.retention = retention;
+        }
+
+        @Override
+        public String toString() {
+            return "Tier{" +
+                    "resolution=" + resolution +
+                    ", retention=" + retention +
+                    '}';
+        }
+    }
+
+    public static class Keys {
+        //the most keys kept at once, storage is preallocated for all of them, 0 turns keyed statistics off
+        private int capacity;
+        //bucket of a key window, has to divide maxDuration, the window is its whole buckets ending with the current one
+        private Duration resolution = Duration.ofSeconds(10);
+
+        public Keys(int capacity, Duration resolution) {
+            this.capacity = capacity;
+            this.resolution = resolution;
+        }
+
+        public Keys() {
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public Duration getResolution() {
+            return resolution;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public void setResolution(Duration resolution) {
+            this.resolution = resolution;
+        }
+
+        @Override
+        public String toString() {
+            return "Keys{" +
+                    "capacity=" + capacity +
+                    ", resolution=" + resolution +
+                    '}';
+        }
+    }
+
+    public static class Persistence {
+        //directory of the snapshot and the log files, persistence is off unless it's set
+        private String directory;
+        //records are gathered for this long before one write and fsync of the log
+        private Duration commitInterval = Duration.ofMillis(10);
+        //how often the snapshot is flushed to disk, the log before it is deleted
+        private Duration checkpointInterval = Duration.ofSeconds(5);
+        //records waiting for the next group commit, the ones which don't fit are not persisted
+        private int queueCapacity = 64 * 1024;
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public Duration getCommitInterval() {
+            return commitInterval;
+        }
+
+        public Duration getCheckpointInterval() {
+            return checkpointInterval;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public void setCommitInterval(Duration commitInterval) {
+            this.commitInterval = commitInterval;
+        }
+
+        public void setCheckpointInterval(Duration checkpointInterval) {
+            this.checkpointInterval = checkpointInterval;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        @Override
+        public String toString() {
+            return "Persistence{" +
+                    "directory=" + directory +
+                    ", commitInterval=" + commitInterval +
+                    ", checkpointInterval=" + checkpointInterval +
+                    ", queueCapacity=" + queueCapacity +
+                    '}';
+        }
+    }
+
+    public static class Ingest {
+        //port of both the TCP and the UDP listener, the listener is off unless it's set
+        private Integer port;
+        //read buffer of a connection and the largest datagram, has to hold a whole number of records
+        private int bufferSize = 64 * 1024;
+
+        public Integer getPort() {
+            return port;
+        }
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        public void setPort(Integer port) {
+            this.port = port;
+        }
+
+        public void setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Ingest{" +
+                    "port=" + port +
+                    ", bufferSize=" + bufferSize +
+                    '}';
+        }
+    }
+
+    public static class Shards {
+        //writer threads, a request thread always publishes to the same one
+        private int count = 2;
+        //bucket partials a queue holds, has to be a power of two, a full queue makes publishers wait
+        private int queueCapacity = 16 * 1024;
+
+        public Shards(int count, int queueCapacity) {
+            this.count = count;
+            this.queueCapacity = queueCapacity;
+        }
+
+        public Shards() {
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        @Override
+        public String toString() {
+            return "Shards{" +
+                    "count=" + count +
+                    ", queueCapacity=" + queueCapacity +
+                    '}';
+        }
+    }
+
+    public static class Admission {
+        //the most ingest requests handled at once, admission control is off unless it's set
+        private Integer maxLimit;
+        //the limit never goes below it however slow add gets
+        private int minLimit = 8;
+        //average latency of add above which the limit is cut
+        private Duration targetLatency = Duration.ofMillis(1);
+        //how often the limit is adjusted to the latency measured since the previous adjustment
+        private Duration adjustInterval = Duration.ofMillis(100);
+        //sent back in Retry-After of a shed request, rounded up to seconds
+        private Duration retryAfter = Duration.ofSeconds(1);
+
+        public Admission(Integer maxLimit, int minLimit, Duration targetLatency) {
+            this.maxLimit = maxLimit;
+            this.minLimit = minLimit;
+            this.targetLatency = targetLatency;
+        }
+
+        public Admission() {
+        }
+
+        public Integer getMaxLimit() {
+            return maxLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public Duration getTargetLatency() {
+            return targetLatency;
+        }
+
+        public Duration getAdjustInterval() {
+            return adjustInterval;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        public void setMaxLimit(Integer maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public void setTargetLatency(Duration targetLatency) {
+            this.targetLatency = targetLatency;
+        }
+
+        public void setAdjustInterval(Duration adjustInterval) {
+            this.adjustInterval = adjustInterval;
+        }
+
+        public void setRetryAfter(Duration retryAfter) {
+            this.retryAfter = retryAfter;
+        }
+
+        @Override
+        public String toString() {
+            return "Admission{" +
+                    "maxLimit=" + maxLimit +
+                    ", minLimit=" + minLimit +
+                    ", targetLatency=" + targetLatency +
+                    ", adjustInterval=" + adjustInterval +
+                    ", retryAfter=" + retryAfter +
+                    '}';
+        }
+    }
+
+    public static class Cluster {
+        //base URLs of the other instances like http://10.0.0.2:8080, the local instance is always included
+        private List<String> peers = new ArrayList<>();
+        //how long a peer is waited for, the ones which don't answer in time are left out of the aggregate
+        private Duration timeout = Duration.ofMillis(200);
+
+        public Cluster(List<String> peers, Duration timeout) {
+            this.peers = peers;
+            this.timeout = timeout;
+        }
+
+        public Cluster() {
+        }
+
+        public List<String> getPeers() {
+            return peers;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setPeers(List<String> peers) {
+            this.peers = peers;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        public String toString() {
+            return "Cluster{" +
+                    "peers=" + peers +
+                    ", timeout=" + timeout +
+                    '}';
+        }
+    }
+
+    public static class Archive {
+        //directory of the day files, the archive is off unless it's set, only the map engine feeds it
+        private String directory;
+        //seconds compressed together, the latest block is only in memory until it's full
+        private int blockSize = 1024;
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public void setBlockSize(int blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Archive{" +
+                    "directory=" + directory +
+                    ", blockSize=" + blockSize +
+                    '}';
+        }
+    }
 }
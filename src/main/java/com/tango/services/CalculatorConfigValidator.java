@@ -4,11 +4,15 @@ import com.google.common.collect.ImmutableSet;
 import org.springframework.validation.Errors;
 import org.springframework.validation.Validator;
 
+import java.time.Duration;
+
 public class CalculatorConfigValidator implements Validator {
 
     private final static ImmutableSet<Integer> supportedGranularity = ImmutableSet.<Integer>builder()
             .add(1, 2, 4, 5, 8, 10)
             .build();
+    //histograms of all the buckets of the window together
+    private final static long MAX_QUANTILE_BYTES = 64L * 1024 * 1024;
 
     @Override
     public boolean supports(Class<?> clazz) {
@@ -21,5 +25,95 @@ public class CalculatorConfigValidator implements Validator {
         if (!supportedGranularity.contains(calculatorConfig.getGranularity())) {
             errors.rejectValue("granularity", "","granularity has to be one of: 1,2,4,5,8");
         }
+        if (Integer.bitCount(calculatorConfig.getStripes()) != 1) {
+            errors.rejectValue("stripes", "", "stripes has to be a power of two");
+        }
+        if (!isWholeSeconds(calculatorConfig.getAllowedLateness())) {
+            errors.rejectValue("allowedLateness", "", "allowed lateness has to be a non negative number of whole seconds");
+        }
+        if (!isWholeSeconds(calculatorConfig.getFutureSkew())) {
+            errors.rejectValue("futureSkew", "", "future skew has to be a non negative number of whole seconds");
+        }
+        if (calculatorConfig.getQuantilePrecision() > 0 && calculatorConfig.getAllowedLateness() != null &&
+                calculatorConfig.getFutureSkew() != null) {
+            //the map keeps a histogram per bucket of the window, of the allowed lateness and of the future skew
+            long buckets = (calculatorConfig.getMaxDuration() + calculatorConfig.getAllowedLateness().getSeconds() +
+                    calculatorConfig.getFutureSkew().getSeconds()) * calculatorConfig.getGranularity();
+            long bytes = buckets * LogLinearHistogram.binCount(calculatorConfig.getQuantilePrecision()) * Long.BYTES;
+            if (bytes > MAX_QUANTILE_BYTES) {
+                errors.rejectValue("quantilePrecision", "", "quantile histograms would take " + (bytes >> 20) +
+                        " MB, lower the quantile precision or the number of buckets below " + (MAX_QUANTILE_BYTES >> 20) + " MB");
+            }
+        }
+        Duration clockTick = calculatorConfig.getClockTick();
+        if (clockTick == null || clockTick.toMillis() < 1 ||
+                calculatorConfig.getGranularity() > 0 && clockTick.toMillis() > 1000 / calculatorConfig.getGranularity()) {
+            errors.rejectValue("clockTick", "", "clock tick has to be from 1 millisecond to a bucket");
+        }
+        Duration previous = Duration.ofSeconds(calculatorConfig.getMaxDuration());
+        for (CalculatorConfig.Tier tier : calculatorConfig.getTiers()) {
+            Duration resolution = tier.getResolution();
+            Duration retention = tier.getRetention();
+            if (resolution == null || retention == null ||
+                    resolution.toMillis() < 1000 || resolution.toMillis() % 1000 != 0 ||
+                    retention.toMillis() % resolution.toMillis() != 0) {
+                errors.rejectValue("tiers", "", "tier resolution has to be whole seconds and divide its retention");
+            } else if (retention.compareTo(previous) <= 0) {
+                errors.rejectValue("tiers", "", "tier retention has to grow from tier to tier");
+            } else {
+                previous = retention;
+            }
+        }
+        CalculatorConfig.Keys keys = calculatorConfig.getKeys();
+        if (keys.getCapacity() < 0) {
+            errors.rejectValue("keys", "", "keys capacity can't be negative");
+        }
+        Duration resolution = keys.getResolution();
+        if (keys.getCapacity() > 0 && (resolution == null || resolution.toMillis() < 1000 ||
+                resolution.toMillis() % 1000 != 0 || calculatorConfig.getMaxDuration() % resolution.getSeconds() != 0)) {
+            errors.rejectValue("keys", "", "keys resolution has to be whole seconds and divide maxDuration");
+        }
+        CalculatorConfig.Persistence persistence = calculatorConfig.getPersistence();
+        if (persistence.getCommitInterval() == null || persistence.getCommitInterval().isNegative() ||
+                persistence.getCheckpointInterval() == null || persistence.getCheckpointInterval().isNegative() ||
+                persistence.getQueueCapacity() < 1) {
+            errors.rejectValue("persistence", "", "persistence intervals can't be negative, queue capacity has to be positive");
+        }
+        CalculatorConfig.Ingest ingest = calculatorConfig.getIngest();
+        if (ingest.getPort() != null && (ingest.getPort() < 0 || ingest.getPort() > 65535)) {
+            errors.rejectValue("ingest", "", "ingest port has to be in [0, 65535]");
+        }
+        if (ingest.getBufferSize() < 16 || ingest.getBufferSize() % 16 != 0) {
+            errors.rejectValue("ingest", "", "ingest buffer size has to be a positive multiple of 16 bytes");
+        }
+        CalculatorConfig.Shards shards = calculatorConfig.getShards();
+        if (shards.getCount() < 1 || shards.getQueueCapacity() < 1 || Integer.bitCount(shards.getQueueCapacity()) != 1) {
+            errors.rejectValue("shards", "", "shards count has to be positive, queue capacity a power of two");
+        }
+        CalculatorConfig.Admission admission = calculatorConfig.getAdmission();
+        if (admission.getMaxLimit() != null && (admission.getMinLimit() < 1 || admission.getMaxLimit() < admission.getMinLimit())) {
+            errors.rejectValue("admission", "", "admission min limit has to be positive and not above the max limit");
+        }
+        if (admission.getTargetLatency() == null || admission.getTargetLatency().isNegative() ||
+                admission.getAdjustInterval() == null || admission.getAdjustInterval().isNegative() ||
+                admission.getRetryAfter() == null || admission.getRetryAfter().isNegative()) {
+            errors.rejectValue("admission", "", "admission latency and intervals can't be negative");
+        }
+        CalculatorConfig.Cluster cluster = calculatorConfig.getCluster();
+        if (cluster.getPeers() == null || cluster.getTimeout() == null ||
+                cluster.getTimeout().toMillis() < 1 || cluster.getTimeout().toMillis() > Integer.MAX_VALUE) {
+            errors.rejectValue("cluster", "", "cluster timeout has to be from 1 millisecond to 24 days");
+        }
+        if (calculatorConfig.getArchive().getBlockSize() < 1 || calculatorConfig.getArchive().getBlockSize() > 64 * 1024) {
+            errors.rejectValue("archive", "", "archive block size has to be in [1, 65536]");
+        }
+        if (calculatorConfig.getArchive().getDirectory() != null && !"map".equals(calculatorConfig.getEngine())) {
+            errors.rejectValue("archive", "", "archive is fed by the map engine only, stat.engine is " +
+                    calculatorConfig.getEngine());
+        }
+    }
+
+    private static boolean isWholeSeconds(Duration duration) {
+        return duration != null && !duration.isNegative() && duration.toMillis() % 1000 == 0;
     }
 }
@@ -0,0 +1,29 @@
+package com.tango.services;
+
+//Amounts as long minor units: amount * 10^scale rounded half up, e.g. 12.34 with scale 2 is 1234 cents.
+//Units up to 2^53 convert back to the doubles closest to their decimals, larger sums are exact only as decimals.
+final class FixedPoint {
+    //the biggest magnitude of a double which still rounds into a long
+    private static final double LIMIT = 0x1p63;
+
+    private final int scale;
+    private final double factor;
+
+    FixedPoint(int scale) {
+        this.scale = scale;
+        this.factor = Math.pow(10, scale);
+    }
+
+    int scale() {
+        return scale;
+    }
+
+    //ArithmeticException if the amount doesn't fit into a long of units
+    long toUnits(double amount) {
+        double units = amount * factor;
+        if (!(Math.abs(units) < LIMIT)) {
+            throw new ArithmeticException("amount " + amount + " overflows a long of 10^-" + scale + " units");
+        }
+        return Math.round(units);
+    }
+}
@@ -0,0 +1,65 @@
+package com.tango.services;
+
+import com.tango.domain.AggregatedStat;
+
+import javax.annotation.Nonnull;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+//StatAccumulator of long units: the sum is exact, a window sum which doesn't fit into a long goes on in a BigInteger.
+//The result carries the decimals next to the doubles, so the exact sum reaches the response.
+final class FixedPointAccumulator {
+    @Nonnull
+    private final FixedPoint fixedPoint;
+    private long sum;
+    //set once the sum has overflowed a long
+    private BigInteger bigSum;
+    private long count;
+    private long max = Long.MIN_VALUE;
+    private long min = Long.MAX_VALUE;
+
+    FixedPointAccumulator(@Nonnull FixedPoint fixedPoint) {
+        this.fixedPoint = fixedPoint;
+    }
+
+    void merge(long sum, long count, long max, long min) {
+        if (count == 0) {
+            return;
+        }
+        if (bigSum != null) {
+            bigSum = bigSum.add(BigInteger.valueOf(sum));
+        } else {
+            try {
+                this.sum = Math.addExact(this.sum, sum);
+            } catch (ArithmeticException e) {
+                bigSum = BigInteger.valueOf(this.sum).add(BigInteger.valueOf(sum));
+            }
+        }
+        this.count += count;
+        this.max = Math.max(this.max, max);
+        this.min = Math.min(this.min, min);
+    }
+
+    @Nonnull
+    AggregatedStat toAggregatedStat() {
+        if (count == 0) {
+            String zero = BigDecimal.valueOf(0, fixedPoint.scale()).toPlainString();
+            return new AggregatedStat(0, 0, 0, 0, 0, new AggregatedStat.Exact(zero, zero, zero, zero));
+        }
+        BigDecimal total = bigSum != null ?
+                new BigDecimal(bigSum, fixedPoint.scale()) :
+                BigDecimal.valueOf(sum, fixedPoint.scale());
+        BigDecimal avg = total.divide(BigDecimal.valueOf(count), MathContext.DECIMAL64);
+        BigDecimal max = BigDecimal.valueOf(this.max, fixedPoint.scale());
+        BigDecimal min = BigDecimal.valueOf(this.min, fixedPoint.scale());
+        return new AggregatedStat(
+                total.doubleValue(),
+                avg.doubleValue(),
+                max.doubleValue(),
+                min.doubleValue(),
+                count,
+                new AggregatedStat.Exact(total.toPlainString(), avg.toPlainString(), max.toPlainString(), min.toPlainString())
+        );
+    }
+}
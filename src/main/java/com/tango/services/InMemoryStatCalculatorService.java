@@ -1,12 +1,25 @@
 package com.tango.services;
 
 import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.QuantileStat;
 import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.domain.StatPartials;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -17,17 +30,52 @@ import java.util.stream.Collectors;
 
 
 @Service
-public class InMemoryStatCalculatorService implements StatCalculatorService, AutoCloseable {
+@ConditionalOnProperty(name = "stat.engine", havingValue = "map", matchIfMissing = true)
+public class InMemoryStatCalculatorService implements StatCalculatorService, MeterBinder, AutoCloseable {
     private final ConcurrentHashMap<Long, StatCell> aggregator;
     @Nonnull
     private final CalculatorConfig calculatorConfig;
+    @Nonnull
+    private final StatWindow window;
+    private final ThreadLocal<BatchPartials> batchPartials;
     private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+    //set once the service is bound to a registry
+    @Nullable
+    private volatile Timer evictionTimer;
+    @Nonnull
+    private final TimeSource timeSource;
+    //null unless stat.archive.directory is set
+    @Nullable
+    private final StatArchive statArchive;
+    //buckets below it have been archived, the map functions don't create them again, see archive
+    private volatile long evictedBelow = Long.MIN_VALUE;
+    //first bucket the next archive run removes, owned by the eviction thread
+    private long archivedBelow;
 
-    @Autowired
     public InMemoryStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig) {
+        this(calculatorConfig, TimeSource.SYSTEM);
+    }
+
+    public InMemoryStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig, @Nonnull TimeSource timeSource) {
+        this(calculatorConfig, timeSource, null);
+    }
+
+    @Autowired
+    public InMemoryStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig,
+                                         @Nonnull TimeSource timeSource,
+                                         @Nullable StatArchive statArchive) {
+        this.timeSource = timeSource;
+        this.statArchive = statArchive;
         this.calculatorConfig = calculatorConfig;
+        if (calculatorConfig.getAmountScale() != null) {
+            throw new IllegalArgumentException("fixed-point amounts are supported by the ring engine only");
+        }
+        this.window = new StatWindow(calculatorConfig);
+        this.batchPartials = ThreadLocal.withInitial(() -> new BatchPartials(window.size()));
+        //nothing below the window of now can be accepted
+        this.archivedBelow = window.beginBucket(window.watermark(timeSource.currentTimeMillis()));
 
-        int capacity = calculatorConfig.getMaxDuration() * calculatorConfig.getGranularity() * 2;
+        int capacity = window.size() * 2;
         this.aggregator = new ConcurrentHashMap<>(capacity);
         scheduledExecutorService.scheduleWithFixedDelay(
                 this::reduceAggregatorIfRequired,
@@ -37,56 +85,271 @@ public class InMemoryStatCalculatorService implements StatCalculatorService, Aut
         );
     }
 
+    @Nonnull
     @Override
-    public void add(@Nonnull Stat statValue) {
-        long currentTime = System.currentTimeMillis() / 1000;
-        long beginInterval = currentTime - calculatorConfig.getMaxDuration() + 1;
-
-        if (statValue.getAmount() < 0 || statValue.getTimestamp() < 0) {
-            return;
-        }
-        if (statValue.getTimestampInSec() < beginInterval || statValue.getTimestampInSec() > currentTime) {
-            //too late to registry or from future - doesn't handle it
-            return;
+    public AddOutcome add(@Nonnull Stat statValue) {
+        AddOutcome outcome = window.classify(statValue.getAmount(), statValue.getTimestamp(), timeSource.currentTimeMillis());
+        if (outcome != AddOutcome.ACCEPTED) {
+            return outcome;
         }
 
-        long index = statValue.getTimestamp() / (1000 / calculatorConfig.getGranularity());
-        aggregator.compute(
+        long index = window.bucketOf(statValue.getTimestamp());
+        StatCell cell = aggregator.compute(
                 index, (key, value) -> value == null ?
-                        new StatCell(statValue.getAmount(), 1, statValue.getAmount(), statValue.getAmount()) :
+                        (key < evictedBelow ? null : new StatCell(newHistogram()).add(statValue.getAmount())) :
                         value.add(statValue.getAmount())
         );
+        //the bucket has been archived since the record was classified
+        return cell != null ? outcome : AddOutcome.LATE;
+    }
+
+    @Nonnull
+    @Override
+    public BatchResult addAll(@Nonnull StatBatch batch) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        BatchPartials partials = batchPartials.get();
+        partials.collect(batch, window, currentTimeMillis);
+        for (int i = 0; i < partials.bucketCount(); ++i) {
+            StatCell partial = new StatCell(partials.sum(i), partials.count(i), partials.max(i), partials.min(i), null);
+            if (aggregator.compute(partials.bucket(i), (key, value) -> merge(key, value, partial)) == null) {
+                partials.reject(i);
+            }
+        }
+        if (calculatorConfig.getQuantilePrecision() > 0) {
+            //histograms are atomic, so amounts are recorded outside of the map locks
+            for (int i = 0; i < batch.size(); ++i) {
+                double amount = batch.getAmount(i);
+                long timestamp = batch.getTimestamp(i);
+                if (window.classify(amount, timestamp, currentTimeMillis) == AddOutcome.ACCEPTED) {
+                    StatCell cell = aggregator.get(window.bucketOf(timestamp));
+                    if (cell != null) {
+                        cell.histogram.record(amount);
+                    }
+                }
+            }
+        }
+        return partials.result();
+    }
+
+    //histograms can't be restored from aggregates, quantiles only cover the records added after the restart
+    @Override
+    public void restore(long timestamp, double sum, long count, double max, double min) {
+        if (window.classify(0, timestamp, timeSource.currentTimeMillis()) != AddOutcome.ACCEPTED) {
+            return;
+        }
+        StatCell partial = new StatCell(sum, count, max, min, null);
+        aggregator.compute(window.bucketOf(timestamp), (key, value) -> merge(key, value, partial));
+    }
+
+    //null if the bucket has already been archived
+    @Nullable
+    private StatCell merge(long bucket, @Nullable StatCell value, @Nonnull StatCell partial) {
+        if (value == null) {
+            return bucket < evictedBelow ? null : new StatCell(newHistogram()).merge(partial);
+        }
+        return value.merge(partial);
     }
 
     private void reduceAggregatorIfRequired() {
-        long currentTime = System.currentTimeMillis() / 1000;
-        long min = (currentTime - calculatorConfig.getMaxDuration() + 1) * calculatorConfig.getGranularity();
-        aggregator.entrySet().removeIf(entry -> entry.getKey() < min);
+        long start = System.nanoTime();
+        //late records are still accepted into the final window
+        long min = window.beginBucket(window.watermark(timeSource.currentTimeMillis()));
+        if (statArchive == null) {
+            aggregator.entrySet().removeIf(entry -> entry.getKey() < min);
+        } else {
+            archive(min, statArchive);
+        }
+        Timer timer = evictionTimer;
+        if (timer != null) {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    //Evicted buckets are folded into whole seconds in order, they can't take records any more: a record classified
+    //against an earlier clock read may still be on its way into one of them, so the floor is raised first and the
+    //map functions don't create a bucket below it again. Removing every bucket below the floor one by one takes
+    //the lock of its bin, so one being created concurrently is either seen here or refused there. An iteration
+    //of the map could miss it and the archive wouldn't take its second at the next run any more.
+    private void archive(long min, StatArchive statArchive) {
+        evictedBelow = min;
+        List<Long> expired;
+        if (min - archivedBelow <= 4L * window.size()) {
+            expired = new ArrayList<>();
+            for (long bucket = archivedBelow; bucket < min; ++bucket) {
+                expired.add(bucket);
+            }
+        } else {
+            //the clock has jumped ahead, its buckets are found by iteration
+            expired = aggregator.keySet().stream()
+                    .filter(bucket -> bucket < min)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        archivedBelow = Math.max(archivedBelow, min);
+        StatAccumulator accumulator = new StatAccumulator();
+        long second = Long.MIN_VALUE;
+        for (long bucket : expired) {
+            StatCell cell = aggregator.remove(bucket);
+            if (cell == null) {
+                continue;
+            }
+            long bucketSecond = bucket * window.bucketMillis() / 1000;
+            if (bucketSecond != second) {
+                appendSecond(second, accumulator, statArchive);
+                second = bucketSecond;
+            }
+            accumulator.merge(cell.getSum(), cell.getCount(), cell.getMax(), cell.getMin());
+        }
+        appendSecond(second, accumulator, statArchive);
+    }
+
+    private static void appendSecond(long second, StatAccumulator accumulator, StatArchive statArchive) {
+        if (accumulator.getCount() > 0) {
+            statArchive.append(second, accumulator.getSum(), accumulator.getCount(), accumulator.getMax(), accumulator.getMin());
+            accumulator.reset();
+        }
     }
 
     @Nonnull
     @Override
     public AggregatedStat getCurrentAggStat() {
-        long currentTime = System.currentTimeMillis() / 1000;
-        long beginInterval = (currentTime - calculatorConfig.getMaxDuration() + 1) * calculatorConfig.getGranularity();
-
-        List<StatCell> currentDump = aggregator.entrySet().stream()
-                .filter(entry -> entry.getKey() >= beginInterval)
-                .map(Map.Entry::getValue)
-                .collect(Collectors.toList());
-
-
-        double sum = currentDump.stream().mapToDouble(StatCell::getSum).sum();
-        long count = currentDump.stream().mapToLong(StatCell::getCount).sum();
-        return new AggregatedStat(
-                sum,
-                count > 0 ? sum / count : 0,
-                currentDump.stream().mapToDouble(StatCell::getMax).max().orElse(0),
-                currentDump.stream().mapToDouble(StatCell::getMin).min().orElse(0),
-                count
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        return aggregate(window.beginBucket(currentTimeMillis), window.endBucket(currentTimeMillis));
+    }
+
+    @Nonnull
+    @Override
+    public AggregatedStat getFinalAggStat() {
+        long watermark = window.watermark(timeSource.currentTimeMillis());
+        return aggregate(window.beginBucket(watermark), window.endBucket(watermark));
+    }
+
+    @Nonnull
+    @Override
+    public AggregatedStat getAggStat(@Nonnull Duration duration) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        return aggregate(
+                window.beginBucket(currentTimeMillis, window.windowSeconds(duration)),
+                window.endBucket(currentTimeMillis)
         );
     }
 
+    //the buckets which the ranges cover are read from the map once into a segment tree, so every range
+    //is O(log n) and k ranges don't cost k reads of the window
+    @Nonnull
+    @Override
+    public List<AggregatedStat> getAggStats(@Nonnull List<StatRange> ranges) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (StatRange range : ranges) {
+            first = Math.min(first, window.beginBucket(currentTimeMillis, range));
+            last = Math.max(last, window.endBucket(currentTimeMillis, range));
+        }
+        List<AggregatedStat> result = new ArrayList<>(ranges.size());
+        if (first > last) {
+            return result;
+        }
+        BucketSegmentTree tree = new BucketSegmentTree((int) (last - first + 1));
+        for (long bucket = first; bucket <= last; ++bucket) {
+            StatCell cell = aggregator.get(bucket);
+            if (cell != null) {
+                tree.set((int) (bucket - first), cell.getSum(), cell.getCount(), cell.getMax(), cell.getMin());
+            }
+        }
+        for (StatRange range : ranges) {
+            StatAccumulator accumulator = new StatAccumulator();
+            tree.aggregate(
+                    (int) (window.beginBucket(currentTimeMillis, range) - first),
+                    (int) (window.endBucket(currentTimeMillis, range) - first),
+                    accumulator
+            );
+            result.add(accumulator.toAggregatedStat());
+        }
+        return result;
+    }
+
+    @Nonnull
+    @Override
+    public StatPartials getCurrentPartials() {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        long beginInterval = window.beginBucket(currentTimeMillis);
+        long endInterval = window.endBucket(currentTimeMillis);
+        StatPartials partials = new StatPartials(window.bucketMillis(), beginInterval, endInterval, window.size());
+        for (long bucket = beginInterval; bucket <= endInterval; ++bucket) {
+            StatCell cell = aggregator.get(bucket);
+            if (cell != null) {
+                partials.add(bucket, cell.getSum(), cell.getCount(), cell.getMax(), cell.getMin());
+            }
+        }
+        return partials;
+    }
+
+    //the buckets of the interval are looked up by their index, the map holds the buckets of the future skew
+    //and the ones which haven't been evicted yet as well, which aren't visited
+    private AggregatedStat aggregate(long beginInterval, long endInterval) {
+        StatAccumulator accumulator = new StatAccumulator();
+        for (long bucket = beginInterval; bucket <= endInterval; ++bucket) {
+            StatCell cell = aggregator.get(bucket);
+            if (cell != null) {
+                accumulator.merge(cell.getSum(), cell.getCount(), cell.getMax(), cell.getMin());
+            }
+        }
+        return accumulator.toAggregatedStat();
+    }
+
+    @Nonnull
+    @Override
+    public QuantileStat getCurrentQuantiles(@Nonnull double[] quantiles) {
+        int precision = calculatorConfig.getQuantilePrecision();
+        if (precision == 0) {
+            throw new UnsupportedOperationException("quantiles are turned off by stat.quantile-precision");
+        }
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        long beginInterval = window.beginBucket(currentTimeMillis);
+        long endInterval = window.endBucket(currentTimeMillis);
+
+        long[] bins = new long[LogLinearHistogram.binCount(precision)];
+        double max = Double.NEGATIVE_INFINITY;
+        double min = Double.POSITIVE_INFINITY;
+        for (Map.Entry<Long, StatCell> entry : aggregator.entrySet()) {
+            if (entry.getKey() >= beginInterval && entry.getKey() <= endInterval) {
+                StatCell cell = entry.getValue();
+                cell.histogram.addTo(bins);
+                max = Math.max(max, cell.getMax());
+                min = Math.min(min, cell.getMin());
+            }
+        }
+
+        long count = 0;
+        for (long binCount : bins) {
+            count += binCount;
+        }
+        double[] values = LogLinearHistogram.quantiles(precision, bins, quantiles, min, max);
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int i = 0; i < quantiles.length; ++i) {
+            result.put(String.valueOf(quantiles[i]), values[i]);
+        }
+        return new QuantileStat(count, result);
+    }
+
+    @Nullable
+    private LogLinearHistogram newHistogram() {
+        int precision = calculatorConfig.getQuantilePrecision();
+        return precision > 0 ? new LogLinearHistogram(precision) : null;
+    }
+
+    //the map holds the buckets which haven't been evicted yet as well
+    @Override
+    public void bindTo(@Nonnull MeterRegistry meterRegistry) {
+        Gauge.builder("stat.window.buckets", aggregator, ConcurrentHashMap::size)
+                .description("buckets kept in the map")
+                .register(meterRegistry);
+        evictionTimer = Timer.builder("stat.eviction.latency")
+                .description("time of removing the buckets which have left the window")
+                .register(meterRegistry);
+    }
+
     @PreDestroy
     @Override
     public void close() throws Exception {
@@ -99,16 +362,38 @@ public class InMemoryStatCalculatorService implements StatCalculatorService, Aut
         private final long count;
         private final double max;
         private final double min;
+        //shared by all versions of the cell of one bucket, null if quantiles are turned off
+        @Nullable
+        private final LogLinearHistogram histogram;
+
+        StatCell(@Nullable LogLinearHistogram histogram) {
+            this(0, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, histogram);
+        }
 
-        StatCell(double sum, long count, double max, double min) {
+        StatCell(double sum, long count, double max, double min, @Nullable LogLinearHistogram histogram) {
             this.sum = sum;
             this.count = count;
             this.max = max;
             this.min = min;
+            this.histogram = histogram;
         }
 
         StatCell add(double amount) {
-            return new StatCell(sum + amount, count + 1, Math.max(max, amount), Math.min(min, amount));
+            if (histogram != null) {
+                histogram.record(amount);
+            }
+            return new StatCell(sum + amount, count + 1, Math.max(max, amount), Math.min(min, amount), histogram);
+        }
+
+        //keeps the histogram of this cell, amounts of the other one are recorded by the caller
+        StatCell merge(StatCell other) {
+            return new StatCell(
+                    sum + other.sum,
+                    count + other.count,
+                    Math.max(max, other.max),
+                    Math.min(min, other.min),
+                    histogram
+            );
         }
 
         double getSum() {
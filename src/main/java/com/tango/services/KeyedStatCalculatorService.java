@@ -0,0 +1,200 @@
+package com.tango.services;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.KeyedStat;
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+//Sliding window per key (merchant, tenant...) for the records which carry one, next to the global engine,
+//only created once stat.keys.capacity is set.
+//Keys are spread over lock striped KeyedWindowSegment tables with preallocated primitive storage, so heap is
+//fixed by stat.keys.capacity * ((maxDuration + futureSkew + 1) / stat.keys.resolution + 1) cells of 40 bytes whatever the traffic.
+//Capacity is split evenly between the segments and a full segment evicts its least recently written key (sampled),
+//keys which have left the window go first.
+//A key window is maxDuration / resolution whole buckets ending with the current one, like the buckets of StatWindow,
+//so it covers from maxDuration - resolution to maxDuration seconds and never reaches past maxDuration.
+//Records before its oldest bucket are late here even within the allowed lateness, nothing would ever read them.
+@Service
+@ConditionalOnExpression("${stat.keys.capacity:0} > 0")
+public class KeyedStatCalculatorService implements MeterBinder {
+    private static final int MAX_SEGMENTS = 64;
+    //smaller segments would evict long before the whole capacity is used because of uneven hashing
+    private static final int MIN_SEGMENT_CAPACITY = 256;
+
+    @Nonnull
+    private final StatWindow window;
+    private final int maxDuration;
+    private final long resolution;
+    private final KeyedWindowSegment[] segments;
+    @Nonnull
+    private final TimeSource timeSource;
+
+    public KeyedStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig) {
+        this(calculatorConfig, TimeSource.SYSTEM);
+    }
+
+    @Autowired
+    public KeyedStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig, @Nonnull TimeSource timeSource) {
+        this.timeSource = timeSource;
+        this.window = new StatWindow(calculatorConfig);
+        this.maxDuration = calculatorConfig.getMaxDuration();
+        this.resolution = calculatorConfig.getKeys().getResolution().toMillis();
+        int capacity = calculatorConfig.getKeys().getCapacity();
+        if (capacity < 1) {
+            throw new IllegalArgumentException("keys capacity has to be positive: " + capacity);
+        }
+        //the window and the buckets of the future skew, which ends up to a second after the current one
+        long future = (calculatorConfig.getFutureSkew().getSeconds() + 1) * 1000L;
+        int slots = (int) (maxDuration * 1000L / resolution + (future + resolution - 1) / resolution);
+        this.segments = new KeyedWindowSegment[
+                Math.max(1, Math.min(MAX_SEGMENTS, Integer.highestOneBit(capacity / MIN_SEGMENT_CAPACITY)))
+        ];
+        for (int i = 0; i < segments.length; ++i) {
+            segments[i] = new KeyedWindowSegment((capacity + segments.length - 1) / segments.length, slots);
+        }
+    }
+
+    //records without a key are invalid here
+    @Nonnull
+    public AddOutcome add(@Nonnull Stat statValue) {
+        String key = statValue.getKey();
+        if (key == null) {
+            return AddOutcome.INVALID;
+        }
+        return add(key, statValue.getAmount(), statValue.getTimestamp(), timeSource.currentTimeMillis());
+    }
+
+    //only the records with a key are counted in the result
+    @Nonnull
+    public BatchResult addAll(@Nonnull StatBatch batch) {
+        long accepted = 0, invalid = 0, late = 0, future = 0;
+        if (!batch.hasKeys()) {
+            return new BatchResult(0, 0, 0, 0);
+        }
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        for (int i = 0; i < batch.size(); ++i) {
+            String key = batch.getKey(i);
+            if (key == null) {
+                continue;
+            }
+            switch (add(key, batch.getAmount(i), batch.getTimestamp(i), currentTimeMillis)) {
+                case ACCEPTED:
+                    ++accepted;
+                    break;
+                case INVALID:
+                    ++invalid;
+                    break;
+                case LATE:
+                    ++late;
+                    break;
+                case FUTURE:
+                    ++future;
+                    break;
+            }
+        }
+        return new BatchResult(accepted, invalid, late, future);
+    }
+
+    //the current bucket is partially covered, the oldest one of the window is whole
+    @Nonnull
+    public AggregatedStat getAggStat(@Nonnull String key) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        int hash = hash(key);
+        StatAccumulator accumulator = new StatAccumulator();
+        segmentOf(hash).aggregate(key, hash, beginBucket(currentTimeMillis), endBucket(currentTimeMillis), accumulator);
+        return accumulator.toAggregatedStat();
+    }
+
+    //keys with the biggest sums in the window, biggest first
+    @Nonnull
+    public List<KeyedStat> getTop(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k has to be positive: " + k);
+        }
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        long begin = beginBucket(currentTimeMillis);
+        long end = endBucket(currentTimeMillis);
+        Comparator<KeyedStat> bySum = Comparator.comparingDouble(KeyedStat::getSum);
+        PriorityQueue<KeyedStat> heap = new PriorityQueue<>(k, bySum);
+        for (KeyedWindowSegment segment : segments) {
+            segment.top(begin, end, k, heap);
+        }
+        List<KeyedStat> top = new ArrayList<>(heap);
+        top.sort(bySum.reversed());
+        return top;
+    }
+
+    //keys kept at the moment, including the ones which have already left the window but haven't been evicted
+    public int size() {
+        int size = 0;
+        for (KeyedWindowSegment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long evictions() {
+        long evictions = 0;
+        for (KeyedWindowSegment segment : segments) {
+            evictions += segment.evictions();
+        }
+        return evictions;
+    }
+
+    @Override
+    public void bindTo(@Nonnull MeterRegistry meterRegistry) {
+        Gauge.builder("stat.keys", this, KeyedStatCalculatorService::size)
+                .description("keys kept at the moment")
+                .register(meterRegistry);
+        FunctionCounter.builder("stat.keys.evictions", this, KeyedStatCalculatorService::evictions)
+                .description("keys evicted because their segment was full")
+                .register(meterRegistry);
+    }
+
+    private AddOutcome add(String key, double amount, long timestamp, long currentTimeMillis) {
+        AddOutcome outcome = window.classify(amount, timestamp, currentTimeMillis);
+        if (outcome != AddOutcome.ACCEPTED) {
+            return outcome;
+        }
+        long bucket = timestamp / resolution;
+        if (bucket < beginBucket(currentTimeMillis)) {
+            return AddOutcome.LATE;
+        }
+        int hash = hash(key);
+        return segmentOf(hash).merge(key, hash, bucket, amount, 1, amount, amount) ?
+                AddOutcome.ACCEPTED : AddOutcome.LATE;
+    }
+
+    //resolution divides maxDuration, validated by CalculatorConfigValidator
+    private long beginBucket(long currentTimeMillis) {
+        return endBucket(currentTimeMillis) - maxDuration * 1000L / resolution + 1;
+    }
+
+    private long endBucket(long currentTimeMillis) {
+        return currentTimeMillis / resolution;
+    }
+
+    //segments are picked by the high bits of the hash, positions inside of a segment by the low ones
+    private KeyedWindowSegment segmentOf(int hash) {
+        return segments[(int) (((hash & 0xFFFFFFFFL) * segments.length) >>> 32)];
+    }
+
+    private static int hash(String key) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,223 @@
+package com.tango.services;
+
+import com.tango.domain.KeyedStat;
+
+import javax.annotation.Nonnull;
+import java.util.PriorityQueue;
+
+//Fixed capacity map of key -> bucket ring guarded by its own monitor, the keyed engine spreads keys over many of them.
+//Entries are packed densely: entry e owns cells [e * slots, (e + 1) * slots) of the primitive arrays and the
+//open addressing index (linear probing, load factor <= 0.5) maps a key to its entry. A removed entry is replaced
+//by the last one and the index is repaired by backward shifting, so there are neither tombstones nor allocations
+//after construction apart from the key strings themselves.
+final class KeyedWindowSegment {
+    //entries looked at to choose a victim, the same sampled LRU approximation as in Redis
+    private static final int EVICTION_SAMPLES = 8;
+
+    private final int capacity;
+    private final int slots;
+    private final int mask;
+    //entry + 1, 0 marks a free position
+    private final int[] index;
+
+    private final String[] keys;
+    private final int[] hashes;
+    //the newest bucket written to an entry, the least recently written entry is evicted first
+    private final long[] lastBuckets;
+
+    private final long[] buckets;
+    private final double[] sums;
+    private final long[] counts;
+    private final double[] maxs;
+    private final double[] mins;
+
+    private int size;
+    private long evictions;
+    private int random = 0x2545F491;
+
+    KeyedWindowSegment(int capacity, int slots) {
+        this.capacity = capacity;
+        this.slots = slots;
+        int indexSize = Integer.highestOneBit(Math.max(1, capacity) * 2 - 1) * 2;
+        this.mask = indexSize - 1;
+        this.index = new int[indexSize];
+        this.keys = new String[capacity];
+        this.hashes = new int[capacity];
+        this.lastBuckets = new long[capacity];
+        this.buckets = new long[capacity * slots];
+        this.sums = new double[capacity * slots];
+        this.counts = new long[capacity * slots];
+        this.maxs = new double[capacity * slots];
+        this.mins = new double[capacity * slots];
+    }
+
+    //returns false if the slot of the bucket has been already taken by a newer one
+    synchronized boolean merge(@Nonnull String key, int hash, long bucket,
+                               double sum, long count, double max, double min) {
+        int entry = find(key, hash);
+        if (entry < 0) {
+            if (size == capacity) {
+                evict();
+            }
+            entry = insert(key, hash);
+        }
+        int cell = entry * slots + (int) (bucket % slots);
+        if (buckets[cell] != bucket) {
+            if (buckets[cell] > bucket) {
+                return false;
+            }
+            buckets[cell] = bucket;
+            sums[cell] = 0;
+            counts[cell] = 0;
+            maxs[cell] = Double.NEGATIVE_INFINITY;
+            mins[cell] = Double.POSITIVE_INFINITY;
+        }
+        sums[cell] += sum;
+        counts[cell] += count;
+        maxs[cell] = Math.max(maxs[cell], max);
+        mins[cell] = Math.min(mins[cell], min);
+        lastBuckets[entry] = Math.max(lastBuckets[entry], bucket);
+        return true;
+    }
+
+    //folds buckets [from, to] of the key into the accumulator
+    synchronized void aggregate(@Nonnull String key, int hash, long from, long to, @Nonnull StatAccumulator accumulator) {
+        int entry = find(key, hash);
+        if (entry >= 0) {
+            aggregate(entry, from, to, accumulator);
+        }
+    }
+
+    //offers every key which has records in buckets [from, to] to the bounded min heap of the k biggest sums
+    synchronized void top(long from, long to, int k, @Nonnull PriorityQueue<KeyedStat> heap) {
+        StatAccumulator accumulator = new StatAccumulator();
+        for (int entry = 0; entry < size; ++entry) {
+            if (lastBuckets[entry] < from) {
+                continue;
+            }
+            accumulator.reset();
+            aggregate(entry, from, to, accumulator);
+            if (accumulator.getCount() == 0) {
+                continue;
+            }
+            if (heap.size() == k) {
+                if (heap.peek().getSum() >= accumulator.getSum()) {
+                    continue;
+                }
+                heap.poll();
+            }
+            heap.offer(new KeyedStat(
+                    keys[entry],
+                    accumulator.getSum(),
+                    accumulator.getSum() / accumulator.getCount(),
+                    accumulator.getMax(),
+                    accumulator.getMin(),
+                    accumulator.getCount()
+            ));
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    private void aggregate(int entry, long from, long to, StatAccumulator accumulator) {
+        for (int cell = entry * slots; cell < (entry + 1) * slots; ++cell) {
+            if (buckets[cell] >= from && buckets[cell] <= to) {
+                accumulator.merge(sums[cell], counts[cell], maxs[cell], mins[cell]);
+            }
+        }
+    }
+
+    private int find(String key, int hash) {
+        for (int position = hash & mask; index[position] != 0; position = (position + 1) & mask) {
+            int entry = index[position] - 1;
+            if (hashes[entry] == hash && keys[entry].equals(key)) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private int positionOf(int entry) {
+        int position = hashes[entry] & mask;
+        while (index[position] != entry + 1) {
+            position = (position + 1) & mask;
+        }
+        return position;
+    }
+
+    private int insert(String key, int hash) {
+        int entry = size++;
+        keys[entry] = key;
+        hashes[entry] = hash;
+        lastBuckets[entry] = Long.MIN_VALUE;
+        //buckets of a recycled entry are left from its previous key
+        for (int cell = entry * slots; cell < (entry + 1) * slots; ++cell) {
+            buckets[cell] = Long.MIN_VALUE;
+            counts[cell] = 0;
+        }
+        int position = hash & mask;
+        while (index[position] != 0) {
+            position = (position + 1) & mask;
+        }
+        index[position] = entry + 1;
+        return entry;
+    }
+
+    private void evict() {
+        int victim = next(size);
+        for (int i = 1; i < EVICTION_SAMPLES; ++i) {
+            int candidate = next(size);
+            if (lastBuckets[candidate] < lastBuckets[victim]) {
+                victim = candidate;
+            }
+        }
+        remove(victim);
+        ++evictions;
+    }
+
+    private void remove(int entry) {
+        removePosition(positionOf(entry));
+        int last = size - 1;
+        if (entry != last) {
+            keys[entry] = keys[last];
+            hashes[entry] = hashes[last];
+            lastBuckets[entry] = lastBuckets[last];
+            System.arraycopy(buckets, last * slots, buckets, entry * slots, slots);
+            System.arraycopy(sums, last * slots, sums, entry * slots, slots);
+            System.arraycopy(counts, last * slots, counts, entry * slots, slots);
+            System.arraycopy(maxs, last * slots, maxs, entry * slots, slots);
+            System.arraycopy(mins, last * slots, mins, entry * slots, slots);
+            index[positionOf(last)] = entry + 1;
+        }
+        keys[last] = null;
+        --size;
+    }
+
+    //backward shift deletion: the following entries of the probe sequence are moved back into the hole
+    //unless it would put them before their home position
+    private void removePosition(int position) {
+        int hole = position;
+        for (int next = (position + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+            int home = hashes[index[next] - 1] & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                index[hole] = index[next];
+                hole = next;
+            }
+        }
+        index[hole] = 0;
+    }
+
+    //xorshift, uniform enough to sample victims
+    private int next(int bound) {
+        random ^= random << 13;
+        random ^= random >>> 17;
+        random ^= random << 5;
+        return (random & Integer.MAX_VALUE) % bound;
+    }
+}
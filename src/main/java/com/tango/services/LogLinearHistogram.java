@@ -0,0 +1,87 @@
+package com.tango.services;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//HDR style histogram of non negative values with a fixed set of bins: every power of two between 2^MIN_EXPONENT
+//and 2^(MAX_EXPONENT + 1) is split into 2^precision linear sub-bins, taken straight from the double mantissa bits.
+//Relative error of a reported quantile is at most 2^-(precision + 1). Recording is one atomic increment,
+//histograms of different buckets are merged by adding bins.
+final class LogLinearHistogram {
+    private static final int MIN_EXPONENT = -10;
+    private static final int MAX_EXPONENT = 52;
+    private static final int MANTISSA_BITS = 52;
+    private static final int EXPONENT_BIAS = 1023;
+
+    private final int precision;
+    private final AtomicLongArray counts;
+
+    LogLinearHistogram(int precision) {
+        this.precision = precision;
+        this.counts = new AtomicLongArray(binCount(precision));
+    }
+
+    static int binCount(int precision) {
+        //underflow (including zero) and overflow bins on both sides
+        return ((MAX_EXPONENT - MIN_EXPONENT + 1) << precision) + 2;
+    }
+
+    void record(double value) {
+        counts.incrementAndGet(binOf(precision, value));
+    }
+
+    void addTo(@Nonnull long[] target) {
+        for (int bin = 0; bin < target.length; ++bin) {
+            target[bin] += counts.get(bin);
+        }
+    }
+
+    //quantiles of merged bins, every value is clamped into [min, max] of the same records
+    @Nonnull
+    static double[] quantiles(int precision, @Nonnull long[] bins, @Nonnull double[] quantiles, double min, double max) {
+        long total = 0;
+        for (long count : bins) {
+            total += count;
+        }
+        double[] result = new double[quantiles.length];
+        if (total == 0) {
+            return result;
+        }
+        for (int i = 0; i < quantiles.length; ++i) {
+            long rank = Math.max(1, (long) Math.ceil(quantiles[i] * total));
+            long seen = 0;
+            int bin = 0;
+            while (bin < bins.length - 1 && seen + bins[bin] < rank) {
+                seen += bins[bin++];
+            }
+            result[i] = Math.min(max, Math.max(min, valueOf(precision, bin)));
+        }
+        return result;
+    }
+
+    static int binOf(int precision, double value) {
+        if (!(value >= Math.scalb(1d, MIN_EXPONENT))) {
+            return 0;
+        }
+        if (value >= Math.scalb(1d, MAX_EXPONENT + 1)) {
+            return binCount(precision) - 1;
+        }
+        long bits = Double.doubleToRawLongBits(value);
+        int exponent = (int) (bits >>> MANTISSA_BITS) - EXPONENT_BIAS;
+        int subBin = (int) (bits >>> (MANTISSA_BITS - precision)) & ((1 << precision) - 1);
+        return 1 + ((exponent - MIN_EXPONENT) << precision) + subBin;
+    }
+
+    //middle of the bin
+    static double valueOf(int precision, int bin) {
+        if (bin == 0) {
+            return 0;
+        }
+        if (bin == binCount(precision) - 1) {
+            return Double.MAX_VALUE;
+        }
+        int exponent = ((bin - 1) >> precision) + MIN_EXPONENT;
+        int subBin = (bin - 1) & ((1 << precision) - 1);
+        return Math.scalb(1 + (subBin + 0.5) / (1 << precision), exponent);
+    }
+}
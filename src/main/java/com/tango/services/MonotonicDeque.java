@@ -0,0 +1,82 @@
+package com.tango.services;
+
+//Deque of (bucket, value) ordered by bucket where values strictly decrease (max mode) or increase (min mode)
+//from head to tail, so the head always holds the extreme of the window. Not thread safe.
+//Unlike the textbook version a value can be offered for any bucket inside the window, not only for the newest one:
+//late records update older buckets. Offering the newest bucket is amortized O(1), older ones shift the newer tail.
+final class MonotonicDeque {
+    private final boolean maxMode;
+    private final long[] buckets;
+    private final double[] values;
+    private int head;
+    private int size;
+
+    MonotonicDeque(int capacity, boolean maxMode) {
+        this.maxMode = maxMode;
+        this.buckets = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    double peekValue() {
+        return values[head];
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    void pollExpired(long beginBucket) {
+        while (size > 0 && buckets[head] < beginBucket) {
+            head = index(1);
+            --size;
+        }
+    }
+
+    void offer(long bucket, double value) {
+        int last = size - 1;
+        while (last >= 0 && buckets[index(last)] > bucket) {
+            --last;
+        }
+        int newer = last + 1;
+        if (newer < size && dominates(values[index(newer)], value)) {
+            return;
+        }
+        int keep = last;
+        while (keep >= 0 && (buckets[index(keep)] == bucket || dominates(value, values[index(keep)]))) {
+            --keep;
+        }
+        //entries (keep, last] are replaced by the new one, newer tail is shifted to follow it
+        int shift = 1 - (last - keep);
+        if (shift > 0) {
+            for (int i = size - 1; i >= newer; --i) {
+                move(i, i + shift);
+            }
+        } else if (shift < 0) {
+            for (int i = newer; i < size; ++i) {
+                move(i, i + shift);
+            }
+        }
+        size += shift;
+        int target = index(keep + 1);
+        buckets[target] = bucket;
+        values[target] = value;
+    }
+
+    private boolean dominates(double left, double right) {
+        return maxMode ? left >= right : left <= right;
+    }
+
+    private void move(int from, int to) {
+        buckets[index(to)] = buckets[index(from)];
+        values[index(to)] = values[index(from)];
+    }
+
+    private int index(int position) {
+        return (head + position) % buckets.length;
+    }
+}
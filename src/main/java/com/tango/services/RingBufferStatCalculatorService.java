@@ -0,0 +1,197 @@
+package com.tango.services;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.domain.StatPartials;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+
+//Buckets live in a preallocated ring of (maxDuration + allowedLateness + futureSkew) * granularity cells, so add doesn't allocate
+//and there is no need in separate eviction: stale cells are recycled by writers and skipped by readers.
+//stat.stripes > 1 splits every bucket into per-thread cells, so writers of the current bucket don't contend.
+//stat.amount-scale keeps amounts as long units: sums are exact and an amount or a bucket sum which overflows
+//them is rejected as invalid.
+@Service
+@ConditionalOnProperty(name = "stat.engine", havingValue = "ring")
+public class RingBufferStatCalculatorService implements StatCalculatorService, MeterBinder {
+    @Nonnull
+    private final StatWindow window;
+    @Nonnull
+    private final BucketRing ring;
+    private final ThreadLocal<BatchPartials> batchPartials;
+    @Nonnull
+    private final TimeSource timeSource;
+    //null if amounts are doubles
+    @Nullable
+    private final FixedPoint fixedPoint;
+
+    public RingBufferStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig) {
+        this(calculatorConfig, TimeSource.SYSTEM);
+    }
+
+    @Autowired
+    public RingBufferStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig, @Nonnull TimeSource timeSource) {
+        this.timeSource = timeSource;
+        this.window = new StatWindow(calculatorConfig);
+        Integer amountScale = calculatorConfig.getAmountScale();
+        this.fixedPoint = amountScale != null ? new FixedPoint(amountScale) : null;
+        //a spare slot, so a slot isn't reused while its old bucket can still be written, see BucketRing.claim
+        this.ring = new BucketRing(window.size() + 1, calculatorConfig.getStripes(), fixedPoint != null);
+        this.batchPartials = ThreadLocal.withInitial(() -> new BatchPartials(window.size(), fixedPoint));
+    }
+
+    @Nonnull
+    @Override
+    public AddOutcome add(@Nonnull Stat statValue) {
+        AddOutcome outcome = window.classify(statValue.getAmount(), statValue.getTimestamp(), timeSource.currentTimeMillis());
+        if (outcome != AddOutcome.ACCEPTED) {
+            return outcome;
+        }
+        long bucket = window.bucketOf(statValue.getTimestamp());
+        boolean added;
+        if (fixedPoint == null) {
+            added = ring.add(bucket, statValue.getAmount());
+        } else {
+            try {
+                long units = fixedPoint.toUnits(statValue.getAmount());
+                added = ring.mergeUnits(bucket, units, 1, units, units);
+            } catch (ArithmeticException e) {
+                return AddOutcome.INVALID;
+            }
+        }
+        return added ? AddOutcome.ACCEPTED : AddOutcome.LATE;
+    }
+
+    @Nonnull
+    @Override
+    public BatchResult addAll(@Nonnull StatBatch batch) {
+        BatchPartials partials = batchPartials.get();
+        partials.collect(batch, window, timeSource.currentTimeMillis());
+        long overwritten = 0;
+        long overflowed = 0;
+        for (int i = 0; i < partials.bucketCount(); ++i) {
+            try {
+                if (!merge(partials, i)) {
+                    overwritten += partials.count(i);
+                }
+            } catch (ArithmeticException e) {
+                overflowed += partials.count(i);
+            }
+        }
+        BatchResult result = partials.result();
+        return overwritten == 0 && overflowed == 0 ?
+                result :
+                result.plus(new BatchResult(-overwritten - overflowed, overflowed, overwritten, 0));
+    }
+
+    private boolean merge(BatchPartials partials, int i) {
+        if (fixedPoint == null) {
+            return ring.merge(partials.bucket(i), partials.sum(i), partials.count(i), partials.max(i), partials.min(i));
+        }
+        return ring.mergeUnits(
+                partials.bucket(i),
+                partials.sumUnits(i), partials.count(i), partials.maxUnits(i), partials.minUnits(i)
+        );
+    }
+
+    @Override
+    public void restore(long timestamp, double sum, long count, double max, double min) {
+        if (window.classify(0, timestamp, timeSource.currentTimeMillis()) != AddOutcome.ACCEPTED) {
+            return;
+        }
+        if (fixedPoint == null) {
+            ring.merge(window.bucketOf(timestamp), sum, count, max, min);
+            return;
+        }
+        try {
+            ring.mergeUnits(
+                    window.bucketOf(timestamp),
+                    fixedPoint.toUnits(sum), count, fixedPoint.toUnits(max), fixedPoint.toUnits(min)
+            );
+        } catch (ArithmeticException ignored) {
+            //it couldn't have been accepted either
+        }
+    }
+
+    @Nonnull
+    @Override
+    public AggregatedStat getCurrentAggStat() {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        return aggregate(window.beginBucket(currentTimeMillis), window.endBucket(currentTimeMillis));
+    }
+
+    @Nonnull
+    @Override
+    public AggregatedStat getFinalAggStat() {
+        long watermark = window.watermark(timeSource.currentTimeMillis());
+        return aggregate(window.beginBucket(watermark), window.endBucket(watermark));
+    }
+
+    @Nonnull
+    @Override
+    public AggregatedStat getAggStat(@Nonnull Duration duration) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        return aggregate(
+                window.beginBucket(currentTimeMillis, window.windowSeconds(duration)),
+                window.endBucket(currentTimeMillis)
+        );
+    }
+
+    @Nonnull
+    @Override
+    public List<AggregatedStat> getAggStats(@Nonnull List<StatRange> ranges) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        List<AggregatedStat> result = new ArrayList<>(ranges.size());
+        for (StatRange range : ranges) {
+            result.add(aggregate(window.beginBucket(currentTimeMillis, range), window.endBucket(currentTimeMillis, range)));
+        }
+        return result;
+    }
+
+    //every bucket is folded on its own, stripes of a bucket make one partial
+    @Nonnull
+    @Override
+    public StatPartials getCurrentPartials() {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        long beginBucket = window.beginBucket(currentTimeMillis);
+        long endBucket = window.endBucket(currentTimeMillis);
+        StatPartials partials = new StatPartials(window.bucketMillis(), beginBucket, endBucket, window.size());
+        for (long bucket = beginBucket; bucket <= endBucket; ++bucket) {
+            AggregatedStat aggregatedStat = aggregate(bucket, bucket);
+            partials.add(bucket, aggregatedStat.getSum(), aggregatedStat.getCount(), aggregatedStat.getMax(), aggregatedStat.getMin());
+        }
+        return partials;
+    }
+
+    private AggregatedStat aggregate(long beginBucket, long endBucket) {
+        if (fixedPoint != null) {
+            FixedPointAccumulator accumulator = new FixedPointAccumulator(fixedPoint);
+            ring.aggregateUnits(beginBucket, endBucket, accumulator);
+            return accumulator.toAggregatedStat();
+        }
+        StatAccumulator accumulator = new StatAccumulator();
+        ring.aggregate(beginBucket, endBucket, accumulator);
+        return accumulator.toAggregatedStat();
+    }
+
+    @Override
+    public void bindTo(@Nonnull MeterRegistry meterRegistry) {
+        Gauge.builder("stat.window.buckets", this, service -> {
+            long currentTimeMillis = timeSource.currentTimeMillis();
+            return service.ring.occupied(service.window.beginBucket(currentTimeMillis), service.window.endBucket(currentTimeMillis));
+        }).description("buckets of the window which have records").register(meterRegistry);
+    }
+}
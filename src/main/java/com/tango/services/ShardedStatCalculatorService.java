@@ -0,0 +1,199 @@
+package com.tango.services;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.domain.StatPartials;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+//Single writer engine: request threads classify records and publish them into bounded queues of stat.shards.count
+//writer threads (StatShard), each writer owns a private array of window buckets, so there is no write contention
+//and no synchronization on the buckets at all. A batch is folded into bucket partials before it is published,
+//so it takes one queue slot per bucket. A read asks every shard for its part of the window and merges them,
+//it sees every record added before it. A record whose bucket has been recycled before the writer got to it is
+//dropped silently, it can only happen to the records of the oldest bucket when the queues are far behind.
+//Reads wait for the writers and publishers wait for room in a full queue, so the engine is blocking.
+@Service
+@ConditionalOnProperty(name = "stat.engine", havingValue = "sharded")
+public class ShardedStatCalculatorService implements StatCalculatorService, MeterBinder, AutoCloseable {
+    private static final long READ_TIMEOUT_SECONDS = 10;
+
+    @Nonnull
+    private final StatWindow window;
+    private final ThreadLocal<BatchPartials> batchPartials;
+    private final StatShard[] shards;
+    @Nonnull
+    private final TimeSource timeSource;
+
+    public ShardedStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig) {
+        this(calculatorConfig, TimeSource.SYSTEM);
+    }
+
+    @Autowired
+    public ShardedStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig, @Nonnull TimeSource timeSource) {
+        if (calculatorConfig.getAmountScale() != null) {
+            throw new IllegalArgumentException("fixed-point amounts are supported by the ring engine only");
+        }
+        this.timeSource = timeSource;
+        this.window = new StatWindow(calculatorConfig);
+        this.batchPartials = ThreadLocal.withInitial(() -> new BatchPartials(window.size()));
+        CalculatorConfig.Shards config = calculatorConfig.getShards();
+        this.shards = new StatShard[config.getCount()];
+        for (int i = 0; i < shards.length; ++i) {
+            shards[i] = new StatShard(i, config.getQueueCapacity(), window.size());
+        }
+    }
+
+    @Nonnull
+    @Override
+    public AddOutcome add(@Nonnull Stat statValue) {
+        AddOutcome outcome = window.classify(statValue.getAmount(), statValue.getTimestamp(), timeSource.currentTimeMillis());
+        if (outcome == AddOutcome.ACCEPTED) {
+            double amount = statValue.getAmount();
+            shard().publish(window.bucketOf(statValue.getTimestamp()), amount, 1, amount, amount);
+        }
+        return outcome;
+    }
+
+    @Nonnull
+    @Override
+    public BatchResult addAll(@Nonnull StatBatch batch) {
+        BatchPartials partials = batchPartials.get();
+        partials.collect(batch, window, timeSource.currentTimeMillis());
+        shard().publish(partials);
+        return partials.result();
+    }
+
+    @Override
+    public void restore(long timestamp, double sum, long count, double max, double min) {
+        if (window.classify(0, timestamp, timeSource.currentTimeMillis()) == AddOutcome.ACCEPTED) {
+            shard().publish(window.bucketOf(timestamp), sum, count, max, min);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public AggregatedStat getCurrentAggStat() {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        return aggregate(window.beginBucket(currentTimeMillis), window.endBucket(currentTimeMillis));
+    }
+
+    @Nonnull
+    @Override
+    public AggregatedStat getFinalAggStat() {
+        long watermark = window.watermark(timeSource.currentTimeMillis());
+        return aggregate(window.beginBucket(watermark), window.endBucket(watermark));
+    }
+
+    @Nonnull
+    @Override
+    public AggregatedStat getAggStat(@Nonnull Duration duration) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        return aggregate(
+                window.beginBucket(currentTimeMillis, window.windowSeconds(duration)),
+                window.endBucket(currentTimeMillis)
+        );
+    }
+
+    @Nonnull
+    @Override
+    public List<AggregatedStat> getAggStats(@Nonnull List<StatRange> ranges) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        List<AggregatedStat> result = new ArrayList<>(ranges.size());
+        for (StatRange range : ranges) {
+            result.add(aggregate(window.beginBucket(currentTimeMillis, range), window.endBucket(currentTimeMillis, range)));
+        }
+        return result;
+    }
+
+    //every shard exports its own buckets, they are merged bucket by bucket like the partials of the peers
+    @Nonnull
+    @Override
+    public StatPartials getCurrentPartials() {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        long beginBucket = window.beginBucket(currentTimeMillis);
+        long endBucket = window.endBucket(currentTimeMillis);
+        CountDownLatch done = new CountDownLatch(shards.length);
+        StatPartials[] parts = new StatPartials[shards.length];
+        for (int i = 0; i < shards.length; ++i) {
+            parts[i] = new StatPartials(window.bucketMillis(), beginBucket, endBucket, window.size());
+            shards[i].read(beginBucket, endBucket, parts[i], done);
+        }
+        await(done);
+        StatPartials partials = parts[0];
+        for (int i = 1; i < parts.length; ++i) {
+            partials = partials.merge(parts[i]);
+        }
+        return partials;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return true;
+    }
+
+    private AggregatedStat aggregate(long beginBucket, long endBucket) {
+        CountDownLatch done = new CountDownLatch(shards.length);
+        StatAccumulator[] parts = new StatAccumulator[shards.length];
+        for (int i = 0; i < shards.length; ++i) {
+            parts[i] = new StatAccumulator();
+            shards[i].read(beginBucket, endBucket, parts[i], done);
+        }
+        await(done);
+        StatAccumulator accumulator = new StatAccumulator();
+        for (StatAccumulator part : parts) {
+            accumulator.merge(part.getSum(), part.getCount(), part.getMax(), part.getMin());
+        }
+        return accumulator.toAggregatedStat();
+    }
+
+    private static void await(CountDownLatch done) {
+        try {
+            if (!done.await(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("shards haven't answered in " + READ_TIMEOUT_SECONDS + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for the shards", e);
+        }
+    }
+
+    //a thread always publishes to the same shard, so its records are folded in order
+    private StatShard shard() {
+        return shards[(int) (Thread.currentThread().getId() % shards.length)];
+    }
+
+    @Override
+    public void bindTo(@Nonnull MeterRegistry meterRegistry) {
+        Gauge.builder("stat.shards.backlog", this, service -> {
+            long backlog = 0;
+            for (StatShard shard : service.shards) {
+                backlog += shard.backlog();
+            }
+            return backlog;
+        }).description("bucket partials published to the shards but not folded yet").register(meterRegistry);
+    }
+
+    @PreDestroy
+    @Override
+    public void close() throws Exception {
+        for (StatShard shard : shards) {
+            shard.close();
+        }
+    }
+}
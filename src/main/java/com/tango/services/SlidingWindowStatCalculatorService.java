@@ -0,0 +1,325 @@
+package com.tango.services;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.domain.StatPartials;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+
+//Read optimized engine: a segment tree over the slots keeps sum and count of the whole window in its root while
+//buckets enter and leave it, max and min are the heads of monotonic deques. getCurrentAggStat is O(1) regardless of
+//maxDuration * granularity (an optimistic read in the common case), the price is one write lock for add.
+//The root is recomputed from the slots on every update, so no rounding error of evicted buckets stays behind.
+//The same tree answers shorter windows and arbitrary ranges in O(log(maxDuration * granularity)).
+@Service
+@ConditionalOnProperty(name = "stat.engine", havingValue = "window")
+public class SlidingWindowStatCalculatorService implements StatCalculatorService, MeterBinder {
+    @Nonnull
+    private final StatWindow window;
+    private final ThreadLocal<BatchPartials> batchPartials;
+    private final StampedLock lock = new StampedLock();
+
+    private final int size;
+    private final long[] buckets;
+    private final double[] sums;
+    private final long[] counts;
+    private final double[] maxs;
+    private final double[] mins;
+    private final MonotonicDeque maxDeque;
+    private final MonotonicDeque minDeque;
+    private final BucketSegmentTree tree;
+
+    //first bucket of the window, everything before it has been already cleared
+    private long beginBucket;
+    @Nonnull
+    private final TimeSource timeSource;
+
+    public SlidingWindowStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig) {
+        this(calculatorConfig, TimeSource.SYSTEM);
+    }
+
+    @Autowired
+    public SlidingWindowStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig, @Nonnull TimeSource timeSource) {
+        this.timeSource = timeSource;
+        if (calculatorConfig.getAmountScale() != null) {
+            throw new IllegalArgumentException("fixed-point amounts are supported by the ring engine only");
+        }
+        this.window = new StatWindow(calculatorConfig);
+        //the deques only follow the window forward, a bucket behind or ahead of it can't be folded in
+        if (window.hasGrace()) {
+            throw new IllegalArgumentException("allowed lateness and future skew are not supported by the window engine");
+        }
+        this.batchPartials = ThreadLocal.withInitial(() -> new BatchPartials(window.size()));
+        this.size = window.size();
+        this.buckets = new long[size];
+        this.sums = new double[size];
+        this.counts = new long[size];
+        this.maxs = new double[size];
+        this.mins = new double[size];
+        this.maxDeque = new MonotonicDeque(size, true);
+        this.minDeque = new MonotonicDeque(size, false);
+        this.tree = new BucketSegmentTree(size);
+        Arrays.fill(buckets, -1);
+    }
+
+    @Nonnull
+    @Override
+    public AddOutcome add(@Nonnull Stat statValue) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        AddOutcome outcome = window.classify(statValue.getAmount(), statValue.getTimestamp(), currentTimeMillis);
+        if (outcome != AddOutcome.ACCEPTED) {
+            return outcome;
+        }
+
+        long index = window.bucketOf(statValue.getTimestamp());
+        double amount = statValue.getAmount();
+        long stamp = lock.writeLock();
+        try {
+            advance(window.beginBucket(currentTimeMillis));
+            return merge(index, amount, 1, amount, amount) ? AddOutcome.ACCEPTED : AddOutcome.LATE;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public BatchResult addAll(@Nonnull StatBatch batch) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        BatchPartials partials = batchPartials.get();
+        partials.collect(batch, window, currentTimeMillis);
+        long expired = 0;
+        long stamp = lock.writeLock();
+        try {
+            advance(window.beginBucket(currentTimeMillis));
+            for (int i = 0; i < partials.bucketCount(); ++i) {
+                if (!merge(partials.bucket(i), partials.sum(i), partials.count(i), partials.max(i), partials.min(i))) {
+                    expired += partials.count(i);
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        BatchResult result = partials.result();
+        return expired == 0 ? result : result.plus(new BatchResult(-expired, 0, expired, 0));
+    }
+
+    @Override
+    public void restore(long timestamp, double sum, long count, double max, double min) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        if (window.classify(0, timestamp, currentTimeMillis) != AddOutcome.ACCEPTED) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            advance(window.beginBucket(currentTimeMillis));
+            merge(window.bucketOf(timestamp), sum, count, max, min);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public AggregatedStat getCurrentAggStat() {
+        long beginInterval = window.beginBucket(timeSource.currentTimeMillis());
+
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0 && beginInterval <= beginBucket) {
+            AggregatedStat aggregatedStat = snapshot();
+            if (lock.validate(stamp)) {
+                return aggregatedStat;
+            }
+        }
+        stamp = lock.writeLock();
+        try {
+            advance(beginInterval);
+            return snapshot();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    //only the whole window is maintained incrementally, shorter ones come from the segment tree
+    @Nonnull
+    @Override
+    public AggregatedStat getAggStat(@Nonnull Duration duration) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        long begin = window.beginBucket(currentTimeMillis, window.windowSeconds(duration));
+        if (begin == window.beginBucket(currentTimeMillis)) {
+            return getCurrentAggStat();
+        }
+        StatAccumulator accumulator = new StatAccumulator();
+        long stamp = lock.writeLock();
+        try {
+            advance(window.beginBucket(currentTimeMillis));
+            aggregate(begin, window.endBucket(currentTimeMillis), accumulator);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return accumulator.toAggregatedStat();
+    }
+
+    @Nonnull
+    @Override
+    public List<AggregatedStat> getAggStats(@Nonnull List<StatRange> ranges) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        List<AggregatedStat> result = new ArrayList<>(ranges.size());
+        StatAccumulator accumulator = new StatAccumulator();
+        long stamp = lock.writeLock();
+        try {
+            advance(window.beginBucket(currentTimeMillis));
+            for (StatRange range : ranges) {
+                accumulator.reset();
+                aggregate(window.beginBucket(currentTimeMillis, range), window.endBucket(currentTimeMillis, range), accumulator);
+                result.add(accumulator.toAggregatedStat());
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return result;
+    }
+
+    //the slots are read directly, after the advance every one holds a bucket of the window or nothing
+    @Nonnull
+    @Override
+    public StatPartials getCurrentPartials() {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        long endBucket = window.endBucket(currentTimeMillis);
+        StatPartials partials = new StatPartials(window.bucketMillis(), window.beginBucket(currentTimeMillis), endBucket, size);
+        long stamp = lock.writeLock();
+        try {
+            advance(window.beginBucket(currentTimeMillis));
+            for (long bucket = beginBucket; bucket <= endBucket; ++bucket) {
+                int slot = (int) (bucket % size);
+                if (buckets[slot] == bucket) {
+                    partials.add(bucket, sums[slot], counts[slot], maxs[slot], mins[slot]);
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return partials;
+    }
+
+    //has to be called under the lock, the window has to be advanced, so every slot holds a bucket of it or nothing
+    private void aggregate(long fromBucket, long toBucket, StatAccumulator accumulator) {
+        long from = Math.max(fromBucket, beginBucket);
+        if (from > toBucket) {
+            return;
+        }
+        int fromSlot = (int) (from % size);
+        int toSlot = (int) (toBucket % size);
+        if (fromSlot <= toSlot) {
+            tree.aggregate(fromSlot, toSlot, accumulator);
+        } else {
+            tree.aggregate(fromSlot, size - 1, accumulator);
+            tree.aggregate(0, toSlot, accumulator);
+        }
+    }
+
+    //has to be called under the write lock, returns false if the bucket has already left the window
+    private boolean merge(long index, double sum, long count, double max, double min) {
+        if (index < beginBucket) {
+            //window has been moved by a writer with fresher clock
+            return false;
+        }
+        int slot = (int) (index % size);
+        if (buckets[slot] != index) {
+            buckets[slot] = index;
+            sums[slot] = 0;
+            counts[slot] = 0;
+            maxs[slot] = Double.NEGATIVE_INFINITY;
+            mins[slot] = Double.POSITIVE_INFINITY;
+        }
+        sums[slot] += sum;
+        counts[slot] += count;
+        if (max > maxs[slot]) {
+            maxs[slot] = max;
+            maxDeque.offer(index, max);
+        }
+        if (min < mins[slot]) {
+            mins[slot] = min;
+            minDeque.offer(index, min);
+        }
+        tree.set(slot, sums[slot], counts[slot], maxs[slot], mins[slot]);
+        return true;
+    }
+
+    //has to be called under the write lock
+    private void advance(long newBeginBucket) {
+        if (newBeginBucket <= beginBucket) {
+            return;
+        }
+        if (newBeginBucket - beginBucket >= size) {
+            //the whole window has expired
+            Arrays.fill(buckets, -1);
+            tree.clear();
+        } else {
+            for (long bucket = beginBucket; bucket < newBeginBucket; ++bucket) {
+                int slot = (int) (bucket % size);
+                if (buckets[slot] == bucket) {
+                    buckets[slot] = -1;
+                    tree.clear(slot);
+                }
+            }
+        }
+        beginBucket = newBeginBucket;
+        maxDeque.pollExpired(newBeginBucket);
+        minDeque.pollExpired(newBeginBucket);
+        if (tree.count() == 0) {
+            maxDeque.clear();
+            minDeque.clear();
+        }
+    }
+
+    //may be called under optimistic read, so the result is validated by the caller
+    private AggregatedStat snapshot() {
+        double sum = tree.sum();
+        long count = tree.count();
+        return new AggregatedStat(
+                sum,
+                count > 0 ? sum / count : 0,
+                count > 0 && !maxDeque.isEmpty() ? maxDeque.peekValue() : 0,
+                count > 0 && !minDeque.isEmpty() ? minDeque.peekValue() : 0,
+                count
+        );
+    }
+
+    @Override
+    public void bindTo(@Nonnull MeterRegistry meterRegistry) {
+        Gauge.builder("stat.window.buckets", this, SlidingWindowStatCalculatorService::occupiedBuckets)
+                .description("buckets of the window which have records")
+                .register(meterRegistry);
+    }
+
+    private int occupiedBuckets() {
+        long begin = window.beginBucket(timeSource.currentTimeMillis());
+        int occupied = 0;
+        long stamp = lock.readLock();
+        try {
+            for (int slot = 0; slot < size; ++slot) {
+                if (buckets[slot] >= begin) {
+                    ++occupied;
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return occupied;
+    }
+}
@@ -0,0 +1,57 @@
+package com.tango.services;
+
+import com.tango.domain.AggregatedStat;
+
+import javax.annotation.Nonnull;
+
+//mutable, single threaded helper to fold bucket cells into one AggregatedStat
+final class StatAccumulator {
+    private double sum;
+    private long count;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double min = Double.POSITIVE_INFINITY;
+
+    void merge(double sum, long count, double max, double min) {
+        if (count == 0) {
+            return;
+        }
+        this.sum += sum;
+        this.count += count;
+        this.max = Math.max(this.max, max);
+        this.min = Math.min(this.min, min);
+    }
+
+    void reset() {
+        sum = 0;
+        count = 0;
+        max = Double.NEGATIVE_INFINITY;
+        min = Double.POSITIVE_INFINITY;
+    }
+
+    double getSum() {
+        return sum;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getMax() {
+        return max;
+    }
+
+    double getMin() {
+        return min;
+    }
+
+    @Nonnull
+    AggregatedStat toAggregatedStat() {
+        return new AggregatedStat(
+                sum,
+                count > 0 ? sum / count : 0,
+                count > 0 ? max : 0,
+                count > 0 ? min : 0,
+                count
+        );
+    }
+}
@@ -0,0 +1,316 @@
+package com.tango.services;
+
+import com.tango.domain.AggregatedStat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+//Opt-in archive (stat.archive.directory) of the per second aggregates which have left the window, partitioned
+//by UTC day into two files:
+// - archive-<day>.data: ArchiveBlock compressed blocks of up to stat.archive.block-size seconds, appended in order.
+// - archive-<day>.index: 64 bytes per block: first and last second, offset and length of its data, number of
+//   seconds and the aggregate of the whole block.
+//A range query maps the index, finds the first block by binary search, takes the aggregates of the blocks which
+//are inside of the range from the index and decodes only the two blocks at its ends from the mapped data.
+//A block is written once it's full or the day is over, the open one is kept in memory and answered from there,
+//so a crash loses it. A block is written before its index entry, a torn write is cut off at the next start.
+//Queries read the files without the monitor, which append holds only for the open block and the writes:
+//under it a query takes the open block and how many index entries have been written, and reads only those.
+@Component
+@ConditionalOnProperty(name = "stat.archive.directory")
+public class StatArchive implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(StatArchive.class);
+
+    static final String FILE_PREFIX = "archive-";
+    static final String DATA_SUFFIX = ".data";
+    static final String INDEX_SUFFIX = ".index";
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+    private static final int INDEX_ENTRY_SIZE = 64;
+    private static final int FIRST_SECOND = 0;
+    private static final int LAST_SECOND = 8;
+    private static final int OFFSET = 16;
+    private static final int LENGTH = 24;
+    private static final int SIZE = 28;
+    private static final int SUM = 32;
+    private static final int COUNT = 40;
+    private static final int MAX = 48;
+    private static final int MIN = 56;
+
+    @Nonnull
+    private final Path directory;
+    private final int blockSize;
+    //days which have files, so a query visits only those
+    private final ConcurrentSkipListSet<Long> days = new ConcurrentSkipListSet<>();
+    //everything below is guarded by this
+    private final ArchiveBlock open;
+    private long lastSecond = Long.MIN_VALUE;
+    private long day = Long.MIN_VALUE;
+    //entries of the index of day which have been written completely
+    private long dayEntries;
+    private FileChannel data;
+    private FileChannel index;
+
+    @Autowired
+    public StatArchive(@Nonnull CalculatorConfig calculatorConfig) throws IOException {
+        this(Paths.get(calculatorConfig.getArchive().getDirectory()), calculatorConfig.getArchive().getBlockSize());
+    }
+
+    public StatArchive(@Nonnull Path directory, int blockSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.blockSize = blockSize;
+        this.open = new ArchiveBlock(blockSize);
+        recover();
+    }
+
+    //seconds have to come in increasing order, the ones which are not after the last archived one are skipped,
+    //the engine makes sure that only happens to the seconds archived before a restart
+    public synchronized void append(long second, double sum, long count, double max, double min) {
+        if (second <= lastSecond || count == 0) {
+            return;
+        }
+        if (open.size > 0 && (open.isFull() || dayOf(second) != dayOf(open.seconds[0]))) {
+            flush();
+        }
+        open.add(second, sum, count, max, min);
+        lastSecond = second;
+    }
+
+    //aggregate of the archived seconds which lie entirely in [fromMillis, toMillis), the archive keeps whole
+    //seconds only, so a second which is cut by either end is left out
+    @Nonnull
+    public AggregatedStat getAggStat(long fromMillis, long toMillis) {
+        if (fromMillis >= toMillis) {
+            throw new IllegalArgumentException("from has to be before to");
+        }
+        long fromSecond = Math.floorDiv(fromMillis, 1000) + (Math.floorMod(fromMillis, 1000) == 0 ? 0 : 1);
+        long toSecond = Math.floorDiv(toMillis, 1000) - 1;
+        StatAccumulator accumulator = new StatAccumulator();
+        long lastDay;
+        long writtenDay;
+        long writtenEntries;
+        synchronized (this) {
+            //seconds of the open block aren't in the files as far as they are written at this point
+            aggregate(open, fromSecond, toSecond, accumulator);
+            lastDay = days.isEmpty() ? Long.MIN_VALUE : days.last();
+            writtenDay = day;
+            writtenEntries = dayEntries;
+        }
+        long fromDay = dayOf(fromSecond);
+        long toDay = Math.min(dayOf(toSecond), lastDay);
+        if (fromSecond > toSecond || fromDay > toDay) {
+            return accumulator.toAggregatedStat();
+        }
+        ArchiveBlock decoded = new ArchiveBlock(blockSize);
+        try {
+            for (long queried : days.subSet(fromDay, true, toDay, true)) {
+                //earlier days aren't written any more
+                long entries = queried == writtenDay ? writtenEntries : Long.MAX_VALUE;
+                aggregate(queried, entries, fromSecond, toSecond, accumulator, decoded);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return accumulator.toAggregatedStat();
+    }
+
+    //writes the open block, which makes it survive a restart
+    @PreDestroy
+    @Override
+    public synchronized void close() throws IOException {
+        if (open.size > 0) {
+            flush();
+        }
+        closeDay();
+    }
+
+    //the index is sized before the data, whose blocks are written before their entries
+    private void aggregate(long queried, long writtenEntries, long fromSecond, long toSecond,
+                           StatAccumulator accumulator, ArchiveBlock decoded) throws IOException {
+        try (FileChannel indexChannel = FileChannel.open(path(queried, INDEX_SUFFIX), StandardOpenOption.READ);
+             FileChannel dataChannel = FileChannel.open(path(queried, DATA_SUFFIX), StandardOpenOption.READ)) {
+            int entries = (int) Math.min(indexChannel.size() / INDEX_ENTRY_SIZE, writtenEntries);
+            if (entries == 0) {
+                return;
+            }
+            MappedByteBuffer entryBuffer = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, (long) entries * INDEX_ENTRY_SIZE);
+            MappedByteBuffer dataBuffer = dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataChannel.size());
+            //the first block which ends at or after fromSecond
+            int low = 0;
+            int high = entries;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (entryBuffer.getLong(middle * INDEX_ENTRY_SIZE + LAST_SECOND) < fromSecond) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            for (int entry = low; entry < entries; ++entry) {
+                int base = entry * INDEX_ENTRY_SIZE;
+                long first = entryBuffer.getLong(base + FIRST_SECOND);
+                long last = entryBuffer.getLong(base + LAST_SECOND);
+                if (first > toSecond) {
+                    break;
+                }
+                if (first >= fromSecond && last <= toSecond) {
+                    accumulator.merge(
+                            entryBuffer.getDouble(base + SUM),
+                            entryBuffer.getLong(base + COUNT),
+                            entryBuffer.getDouble(base + MAX),
+                            entryBuffer.getDouble(base + MIN)
+                    );
+                } else {
+                    ByteBuffer block = dataBuffer.duplicate();
+                    block.position((int) entryBuffer.getLong(base + OFFSET));
+                    decoded.decode(block, entryBuffer.getInt(base + SIZE));
+                    aggregate(decoded, fromSecond, toSecond, accumulator);
+                }
+            }
+        }
+    }
+
+    private static void aggregate(ArchiveBlock block, long fromSecond, long toSecond, StatAccumulator accumulator) {
+        for (int i = 0; i < block.size; ++i) {
+            if (block.seconds[i] >= fromSecond && block.seconds[i] <= toSecond) {
+                accumulator.merge(block.sums[i], block.counts[i], block.maxs[i], block.mins[i]);
+            }
+        }
+    }
+
+    private void flush() {
+        try {
+            openDay(dayOf(open.seconds[0]));
+            byte[] bytes = open.encode();
+            long offset = data.size();
+            writeFully(data, ByteBuffer.wrap(bytes), offset);
+            data.force(false);
+
+            StatAccumulator accumulator = new StatAccumulator();
+            aggregate(open, Long.MIN_VALUE, Long.MAX_VALUE, accumulator);
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            entry.putLong(FIRST_SECOND, open.seconds[0])
+                    .putLong(LAST_SECOND, open.seconds[open.size - 1])
+                    .putLong(OFFSET, offset)
+                    .putInt(LENGTH, bytes.length)
+                    .putInt(SIZE, open.size)
+                    .putDouble(SUM, accumulator.getSum())
+                    .putLong(COUNT, accumulator.getCount())
+                    .putDouble(MAX, accumulator.getMax())
+                    .putDouble(MIN, accumulator.getMin());
+            writeFully(index, entry, index.size());
+            index.force(false);
+            ++dayEntries;
+        } catch (IOException e) {
+            //the seconds of the block are lost, the next block is tried again
+            logger.error("Archive block of {} seconds from {} hasn't been written", open.size, open.seconds[0], e);
+        } finally {
+            open.clear();
+        }
+    }
+
+    private void openDay(long newDay) throws IOException {
+        if (newDay == day) {
+            return;
+        }
+        closeDay();
+        data = FileChannel.open(path(newDay, DATA_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(path(newDay, INDEX_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        day = newDay;
+        //cut off whatever a crash has left after the last whole block
+        long entries = index.size() / INDEX_ENTRY_SIZE;
+        long end = 0;
+        if (entries > 0) {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            readFully(index, entry, (entries - 1) * INDEX_ENTRY_SIZE);
+            end = entry.getLong(OFFSET) + entry.getInt(LENGTH);
+            if (end > data.size()) {
+                --entries;
+                end = entry.getLong(OFFSET);
+            }
+        }
+        index.truncate(entries * INDEX_ENTRY_SIZE);
+        data.truncate(end);
+        dayEntries = entries;
+        days.add(newDay);
+    }
+
+    private void closeDay() throws IOException {
+        if (data != null) {
+            data.close();
+            index.close();
+            data = null;
+            index = null;
+            day = Long.MIN_VALUE;
+        }
+    }
+
+    //continues after the last archived second of the latest day
+    private void recover() throws IOException {
+        long latest = Long.MIN_VALUE;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + INDEX_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    long archivedDay = LocalDate.parse(
+                            name.substring(FILE_PREFIX.length(), name.length() - INDEX_SUFFIX.length())).toEpochDay();
+                    days.add(archivedDay);
+                    latest = Math.max(latest, archivedDay);
+                } catch (RuntimeException e) {
+                    logger.warn("{} isn't an archive file, skipped", file);
+                }
+            }
+        }
+        if (latest == Long.MIN_VALUE) {
+            return;
+        }
+        openDay(latest);
+        if (dayEntries > 0) {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            readFully(index, entry, (dayEntries - 1) * INDEX_ENTRY_SIZE);
+            lastSecond = entry.getLong(LAST_SECOND);
+        }
+    }
+
+    private Path path(long archivedDay, String suffix) {
+        return directory.resolve(FILE_PREFIX + LocalDate.ofEpochDay(archivedDay) + suffix);
+    }
+
+    private static long dayOf(long second) {
+        return Math.floorDiv(second, SECONDS_PER_DAY);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("unexpected end of " + channel);
+            }
+            position += read;
+        }
+    }
+}
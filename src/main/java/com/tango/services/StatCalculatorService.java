@@ -1,14 +1,57 @@
 package com.tango.services;
 
 import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.QuantileStat;
 import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.domain.StatPartials;
 
 import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.List;
 
 public interface StatCalculatorService {
 
-    void add(@Nonnull Stat statValue);
+    @Nonnull
+    AddOutcome add(@Nonnull Stat statValue);
+
+    //the whole batch is checked against one clock read and every touched bucket is updated once
+    @Nonnull
+    BatchResult addAll(@Nonnull StatBatch batch);
+
+    //merges the aggregate of records of the bucket of timestamp restored after a restart, skipped if out of the window
+    void restore(long timestamp, double sum, long count, double max, double min);
 
     @Nonnull
     AggregatedStat getCurrentAggStat();
+
+    //the window which ends at the watermark (allowedLateness behind now), records late by up to that are already in it
+    @Nonnull
+    default AggregatedStat getFinalAggStat() {
+        return getCurrentAggStat();
+    }
+
+    //the last window of whole seconds, IllegalArgumentException if the engine doesn't keep it
+    @Nonnull
+    AggregatedStat getAggStat(@Nonnull Duration window);
+
+    //all the ranges are answered at one clock read, IllegalArgumentException if the engine doesn't keep them
+    @Nonnull
+    List<AggregatedStat> getAggStats(@Nonnull List<StatRange> ranges);
+
+    //per bucket aggregates of the current window, which merge with the ones of other instances into a cluster-wide window
+    @Nonnull
+    StatPartials getCurrentPartials();
+
+    //true if calls may wait for other threads, the reactive controller runs them off the event loop then
+    default boolean isBlocking() {
+        return false;
+    }
+
+    //quantiles have to be in (0, 1]
+    @Nonnull
+    default QuantileStat getCurrentQuantiles(@Nonnull double[] quantiles) {
+        throw new UnsupportedOperationException("quantiles are not supported by " + getClass().getSimpleName());
+    }
 }
@@ -0,0 +1,363 @@
+package com.tango.services;
+
+import com.tango.domain.StatBatch;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+
+//Opt-in persistence of the window (stat.persistence.directory), two kinds of files:
+// - stat.wal.<generation>: append only log of accepted records, 16 bytes each. Request threads only copy a record
+//   into a buffer, a single writer thread writes and fsyncs everything gathered every commitInterval (group commit).
+// - stat.mirror: memory mapped array of bucket cells mirroring the window of the engine. The writer applies every
+//   logged record to it and flushes it every checkpointInterval, after that the older logs are deleted.
+//At startup the remaining logs are replayed into the mirror and its cells are restored into the engine, so the work
+//is bounded by the window size plus checkpointInterval of records. Every cell remembers the sequence number of the
+//last record it has applied, that makes replay idempotent: a process killed after updating the mirror but before
+//deleting the log doesn't count records twice (except the one record which may be in the middle of being applied).
+@Component
+@ConditionalOnProperty(name = "stat.persistence.directory")
+public class StatJournal implements MeterBinder, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(StatJournal.class);
+
+    static final String MIRROR_FILE = "stat.mirror";
+    static final String LOG_PREFIX = "stat.wal.";
+    private static final long MAGIC = 0x5354415453544154L;
+    private static final int HEADER_SIZE = 64;
+    //cells are aligned to 64 bytes, so a cell is never torn between disk sectors
+    private static final int CELL_SIZE = 64;
+    private static final int BUCKET = 0;
+    private static final int SEQUENCE = 8;
+    private static final int SUM = 16;
+    private static final int COUNT = 24;
+    private static final int MAX = 32;
+    private static final int MIN = 40;
+    //first sequence number of the log
+    private static final int LOG_HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 16;
+
+    @Nonnull
+    private final StatWindow window;
+    private final int size;
+    @Nonnull
+    private final Path directory;
+    private final long commitIntervalNanos;
+    private final long checkpointIntervalMillis;
+    private final int queueCapacity;
+
+    //the rest is owned by the writer thread after construction
+    private final FileChannel mirrorChannel;
+    private final MappedByteBuffer mirror;
+    private final ByteBuffer logBuffer;
+    private FileChannel log;
+    private long generation;
+    private long nextSequence = 1;
+
+    private final Object queueLock = new Object();
+    //filled by request threads, swapped with spare by the writer
+    private StatBatch queue;
+    private StatBatch spare;
+    private long dropped;
+    private boolean failed;
+
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    @Autowired
+    public StatJournal(@Nonnull CalculatorConfig calculatorConfig,
+                       @Nonnull StatCalculatorService statCalculatorService) throws IOException {
+        CalculatorConfig.Persistence persistence = calculatorConfig.getPersistence();
+        this.window = new StatWindow(calculatorConfig);
+        this.size = window.size();
+        this.directory = Files.createDirectories(Paths.get(persistence.getDirectory()));
+        this.commitIntervalNanos = persistence.getCommitInterval().toNanos();
+        this.checkpointIntervalMillis = persistence.getCheckpointInterval().toMillis();
+        this.queueCapacity = persistence.getQueueCapacity();
+        this.queue = new StatBatch(queueCapacity);
+        this.spare = new StatBatch(queueCapacity);
+        this.logBuffer = ByteBuffer.allocateDirect(queueCapacity * RECORD_SIZE);
+
+        long length = HEADER_SIZE + (long) size * CELL_SIZE;
+        this.mirrorChannel = FileChannel.open(
+                directory.resolve(MIRROR_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        if (mirrorChannel.size() != length) {
+            mirrorChannel.truncate(0);
+        }
+        this.mirror = mirrorChannel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        if (mirror.getLong(0) != MAGIC || mirror.getLong(8) != window.bucketMillis() || mirror.getLong(16) != size) {
+            //a mirror of another window layout is dropped, the logs are still replayed
+            for (int offset = 0; offset < length; offset += 8) {
+                mirror.putLong(offset, 0);
+            }
+            mirror.putLong(0, MAGIC);
+            mirror.putLong(8, window.bucketMillis());
+            mirror.putLong(16, size);
+        }
+        recover(statCalculatorService);
+
+        this.writer = new Thread(this::run, "stat-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //doesn't block: the record is persisted by the next group commit
+    public void append(double amount, long timestamp) {
+        synchronized (queueLock) {
+            if (failed || queue.size() == queueCapacity) {
+                ++dropped;
+            } else {
+                queue.add(amount, timestamp);
+            }
+        }
+    }
+
+    //only the records the engine has accepted at currentTimeMillis, the clock reading it has classified the batch
+    //against (BatchResult.getClassifiedAt), the writer reads the clock later and would take records the engine hasn't
+    public void appendAll(@Nonnull StatBatch batch, long currentTimeMillis) {
+        synchronized (queueLock) {
+            for (int i = 0; i < batch.size(); ++i) {
+                if (window.classify(batch.getAmount(i), batch.getTimestamp(i), currentTimeMillis) != AddOutcome.ACCEPTED) {
+                    continue;
+                }
+                if (failed || queue.size() == queueCapacity) {
+                    ++dropped;
+                } else {
+                    queue.add(batch.getAmount(i), batch.getTimestamp(i));
+                }
+            }
+        }
+    }
+
+    //records which haven't been persisted because the queue was full or the log failed
+    public long dropped() {
+        synchronized (queueLock) {
+            return dropped;
+        }
+    }
+
+    @Override
+    public void bindTo(@Nonnull MeterRegistry meterRegistry) {
+        FunctionCounter.builder("stat.journal.dropped", this, StatJournal::dropped)
+                .description("records which haven't been persisted")
+                .register(meterRegistry);
+    }
+
+    private void recover(StatCalculatorService statCalculatorService) throws IOException {
+        long currentTimeMillis = System.currentTimeMillis();
+        long lastSequence = 0;
+        for (int cell = 0; cell < size; ++cell) {
+            lastSequence = Math.max(lastSequence, mirror.getLong(offset(cell) + SEQUENCE));
+        }
+        List<Long> generations = logGenerations();
+        for (long logGeneration : generations) {
+            lastSequence = Math.max(lastSequence, replay(logGeneration, currentTimeMillis));
+        }
+        for (int cell = 0; cell < size; ++cell) {
+            int offset = offset(cell);
+            long count = mirror.getLong(offset + COUNT);
+            if (count > 0) {
+                statCalculatorService.restore(
+                        mirror.getLong(offset + BUCKET) * window.bucketMillis(),
+                        mirror.getDouble(offset + SUM),
+                        count,
+                        mirror.getDouble(offset + MAX),
+                        mirror.getDouble(offset + MIN)
+                );
+            }
+        }
+        nextSequence = lastSequence + 1;
+        generation = generations.isEmpty() ? 1 : generations.get(generations.size() - 1) + 1;
+        mirror.force();
+        openLog();
+        deleteLogsBefore(generation);
+    }
+
+    //returns the last sequence number of the log, a torn record at the end is ignored
+    private long replay(long logGeneration, long currentTimeMillis) throws IOException {
+        try (FileChannel channel = FileChannel.open(logPath(logGeneration), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE - 8));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            if (buffer.remaining() < LOG_HEADER_SIZE) {
+                return 0;
+            }
+            long sequence = buffer.getLong();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                apply(sequence++, buffer.getDouble(), buffer.getLong(), currentTimeMillis);
+            }
+            return sequence - 1;
+        }
+    }
+
+    private void run() {
+        long nextCheckpoint = System.currentTimeMillis() + checkpointIntervalMillis;
+        while (true) {
+            boolean stopping = !running;
+            StatBatch group;
+            synchronized (queueLock) {
+                group = queue;
+                queue = spare;
+                spare = group;
+            }
+            try {
+                if (!group.isEmpty()) {
+                    commit(group);
+                }
+                if (stopping || System.currentTimeMillis() >= nextCheckpoint) {
+                    checkpoint();
+                    nextCheckpoint = System.currentTimeMillis() + checkpointIntervalMillis;
+                }
+            } catch (IOException e) {
+                logger.error("Persistence of statistics has been stopped", e);
+                synchronized (queueLock) {
+                    failed = true;
+                    dropped += group.size() + queue.size();
+                    queue.clear();
+                }
+                return;
+            } finally {
+                group.clear();
+            }
+            if (stopping) {
+                return;
+            }
+            LockSupport.parkNanos(this, commitIntervalNanos);
+        }
+    }
+
+    private void commit(StatBatch group) throws IOException {
+        logBuffer.clear();
+        for (int i = 0; i < group.size(); ++i) {
+            logBuffer.putDouble(group.getAmount(i));
+            logBuffer.putLong(group.getTimestamp(i));
+        }
+        logBuffer.flip();
+        while (logBuffer.hasRemaining()) {
+            log.write(logBuffer);
+        }
+        log.force(false);
+
+        long currentTimeMillis = System.currentTimeMillis();
+        for (int i = 0; i < group.size(); ++i) {
+            apply(nextSequence++, group.getAmount(i), group.getTimestamp(i), currentTimeMillis);
+        }
+    }
+
+    private void apply(long sequence, double amount, long timestamp, long currentTimeMillis) {
+        if (window.classify(amount, timestamp, currentTimeMillis) != AddOutcome.ACCEPTED) {
+            return;
+        }
+        long bucket = window.bucketOf(timestamp);
+        int offset = offset((int) (bucket % size));
+        long cellBucket = mirror.getLong(offset + BUCKET);
+        if (cellBucket > bucket) {
+            return;
+        }
+        if (cellBucket < bucket) {
+            mirror.putLong(offset + BUCKET, bucket);
+            mirror.putLong(offset + SEQUENCE, 0);
+            mirror.putDouble(offset + SUM, 0);
+            mirror.putLong(offset + COUNT, 0);
+            mirror.putDouble(offset + MAX, Double.NEGATIVE_INFINITY);
+            mirror.putDouble(offset + MIN, Double.POSITIVE_INFINITY);
+        } else if (sequence <= mirror.getLong(offset + SEQUENCE)) {
+            //has been applied before the restart
+            return;
+        }
+        mirror.putDouble(offset + SUM, mirror.getDouble(offset + SUM) + amount);
+        mirror.putLong(offset + COUNT, mirror.getLong(offset + COUNT) + 1);
+        mirror.putDouble(offset + MAX, Math.max(mirror.getDouble(offset + MAX), amount));
+        mirror.putDouble(offset + MIN, Math.min(mirror.getDouble(offset + MIN), amount));
+        mirror.putLong(offset + SEQUENCE, sequence);
+    }
+
+    //everything logged so far is in the mirror, once it's on disk the logs aren't needed anymore
+    private void checkpoint() throws IOException {
+        mirror.force();
+        log.close();
+        ++generation;
+        openLog();
+        deleteLogsBefore(generation);
+    }
+
+    private void openLog() throws IOException {
+        log = FileChannel.open(
+                logPath(generation),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+        );
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+        header.putLong(nextSequence).flip();
+        while (header.hasRemaining()) {
+            log.write(header);
+        }
+        log.force(true);
+    }
+
+    private void deleteLogsBefore(long lastGeneration) throws IOException {
+        for (long logGeneration : logGenerations()) {
+            if (logGeneration < lastGeneration) {
+                Files.deleteIfExists(logPath(logGeneration));
+            }
+        }
+    }
+
+    private List<Long> logGenerations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, LOG_PREFIX + "*")) {
+            for (Path path : logs) {
+                try {
+                    generations.add(Long.parseLong(path.getFileName().toString().substring(LOG_PREFIX.length())));
+                } catch (NumberFormatException ignore) {
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private Path logPath(long logGeneration) {
+        return directory.resolve(LOG_PREFIX + logGeneration);
+    }
+
+    private static int offset(int cell) {
+        return HEADER_SIZE + cell * CELL_SIZE;
+    }
+
+    //the records appended before are persisted and the mirror is flushed
+    @PreDestroy
+    @Override
+    public void close() throws Exception {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join();
+        log.close();
+        mirrorChannel.close();
+    }
+}
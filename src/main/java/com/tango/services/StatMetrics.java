@@ -0,0 +1,74 @@
+package com.tango.services;
+
+import com.tango.domain.BatchResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nonnull;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+//Hot path meters exposed by /actuator/metrics: records by outcome (stat.records{outcome=accepted|invalid|late|future})
+//and latencies of add, batches and reads with 50/95/99th percentiles. Counters and timer totals are LongAdder /
+//DoubleAdder based, so threads update their own cells there. The latency path is not striped: the percentiles are
+//recorded by every thread into the HdrHistogram recorders of the timer's time window (a few atomic increments
+//of shared counters per record), so writers do contend on them under load.
+//Engine specific gauges (occupied buckets, eviction time) are bound by the engines themselves as MeterBinders.
+@Component
+public class StatMetrics {
+    private final Counter[] records;
+    @Nonnull
+    private final Timer addTimer;
+    @Nonnull
+    private final Timer batchTimer;
+    @Nonnull
+    private final Timer readTimer;
+
+    @Autowired
+    public StatMetrics(@Nonnull MeterRegistry meterRegistry) {
+        AddOutcome[] outcomes = AddOutcome.values();
+        this.records = new Counter[outcomes.length];
+        for (AddOutcome outcome : outcomes) {
+            records[outcome.ordinal()] = Counter.builder("stat.records")
+                    .description("records by the outcome of add")
+                    .tag("outcome", outcome.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry);
+        }
+        this.addTimer = latency("stat.add.latency", "time of add of one record", meterRegistry);
+        this.batchTimer = latency("stat.batch.latency", "time of addAll of one chunk of a batch", meterRegistry);
+        this.readTimer = latency("stat.read.latency", "time of reading the window aggregate", meterRegistry);
+    }
+
+    public void recordAdd(@Nonnull AddOutcome outcome, long nanos) {
+        records[outcome.ordinal()].increment();
+        addTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordBatch(@Nonnull BatchResult result, long nanos) {
+        increment(AddOutcome.ACCEPTED, result.getAccepted());
+        increment(AddOutcome.INVALID, result.getInvalid());
+        increment(AddOutcome.LATE, result.getLate());
+        increment(AddOutcome.FUTURE, result.getFuture());
+        batchTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRead(long nanos) {
+        readTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void increment(AddOutcome outcome, long amount) {
+        if (amount != 0) {
+            records[outcome.ordinal()].increment(amount);
+        }
+    }
+
+    private static Timer latency(String name, String description, MeterRegistry meterRegistry) {
+        return Timer.builder(name)
+                .description(description)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+}
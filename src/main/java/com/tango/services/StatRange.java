@@ -0,0 +1,34 @@
+package com.tango.services;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+
+//Whole seconds [now - from, now - to), e.g. from 14s to 7s are the 7 seconds before the last 7 ones
+public final class StatRange {
+    private final long from;
+    private final long to;
+
+    public StatRange(@Nonnull Duration from, @Nonnull Duration to) {
+        this.from = StatWindow.wholeSeconds(from);
+        this.to = to.isZero() ? 0 : StatWindow.wholeSeconds(to);
+        if (this.to >= this.from) {
+            throw new IllegalArgumentException("range has to end after it begins: from " + from + " to " + to);
+        }
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    @Override
+    public String toString() {
+        return "StatRange{" +
+                "from=" + from +
+                ", to=" + to +
+                '}';
+    }
+}
@@ -0,0 +1,238 @@
+package com.tango.services;
+
+import com.tango.domain.StatPartials;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+//One writer thread of the sharded engine and the queue it drains. The queue is a preallocated ring of bucket
+//partials in the style of the LMAX Disruptor: a publisher claims its sequences with one getAndAdd, fills the slots
+//and marks them published, the writer folds published slots in order into buckets which no other thread touches.
+//Reads are requests served by the writer between batches, so neither side of the buckets needs a lock or a CAS.
+final class StatShard implements AutoCloseable {
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    //publishers waiting for a full queue get room at least this often
+    private static final int RELEASE_EVERY = 256;
+
+    private final int mask;
+    //next sequence to claim
+    private final AtomicLong cursor = new AtomicLong();
+    //sequence a slot holds, set once the slot has been filled
+    private final AtomicLongArray published;
+    private final long[] queueBuckets;
+    private final double[] queueSums;
+    private final long[] queueCounts;
+    private final double[] queueMaxs;
+    private final double[] queueMins;
+    //sequences below it have been folded, written by the writer only
+    private volatile long consumed;
+
+    //owned by the writer thread
+    private final int size;
+    private final long[] buckets;
+    private final double[] sums;
+    private final long[] counts;
+    private final double[] maxs;
+    private final double[] mins;
+
+    private final ConcurrentLinkedQueue<ReadRequest> readRequests = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    //capacity of the queue has to be a power of two, size is the number of buckets which take records
+    StatShard(int index, int capacity, int size) {
+        this.mask = capacity - 1;
+        this.published = new AtomicLongArray(capacity);
+        for (int slot = 0; slot < capacity; ++slot) {
+            published.set(slot, -1);
+        }
+        this.queueBuckets = new long[capacity];
+        this.queueSums = new double[capacity];
+        this.queueCounts = new long[capacity];
+        this.queueMaxs = new double[capacity];
+        this.queueMins = new double[capacity];
+        this.size = size;
+        this.buckets = new long[size];
+        this.sums = new double[size];
+        this.counts = new long[size];
+        this.maxs = new double[size];
+        this.mins = new double[size];
+        Arrays.fill(buckets, -1);
+        this.writer = new Thread(this::run, "stat-shard-" + index);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //may be called by any thread, waits while the queue is full
+    void publish(long bucket, double sum, long count, double max, double min) {
+        long sequence = cursor.getAndIncrement();
+        put(sequence, bucket, sum, count, max, min);
+    }
+
+    //all partials of the batch take one claim
+    void publish(@Nonnull BatchPartials partials) {
+        int bucketCount = partials.bucketCount();
+        if (bucketCount == 0) {
+            return;
+        }
+        long sequence = cursor.getAndAdd(bucketCount);
+        for (int i = 0; i < bucketCount; ++i) {
+            put(sequence + i, partials.bucket(i), partials.sum(i), partials.count(i), partials.max(i), partials.min(i));
+        }
+    }
+
+    //folds buckets [fromBucket, toBucket] into the accumulator and counts down once everything published
+    //before the call has been folded
+    void read(long fromBucket, long toBucket, @Nonnull StatAccumulator accumulator, @Nonnull CountDownLatch done) {
+        request(new ReadRequest(fromBucket, toBucket, cursor.get(), accumulator, null, done));
+    }
+
+    //the same as the read above, but every bucket is added to the partials on its own
+    void read(long fromBucket, long toBucket, @Nonnull StatPartials partials, @Nonnull CountDownLatch done) {
+        request(new ReadRequest(fromBucket, toBucket, cursor.get(), null, partials, done));
+    }
+
+    private void request(ReadRequest request) {
+        if (!running) {
+            throw new IllegalStateException(writer.getName() + " has been stopped");
+        }
+        readRequests.add(request);
+        LockSupport.unpark(writer);
+    }
+
+    //partials published but not folded yet
+    long backlog() {
+        return cursor.get() - consumed;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join();
+    }
+
+    private void put(long sequence, long bucket, double sum, long count, double max, double min) {
+        while (sequence - published.length() >= consumed) {
+            if (!running) {
+                throw new IllegalStateException(writer.getName() + " has been stopped");
+            }
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+        int slot = (int) sequence & mask;
+        queueBuckets[slot] = bucket;
+        queueSums[slot] = sum;
+        queueCounts[slot] = count;
+        queueMaxs[slot] = max;
+        queueMins[slot] = min;
+        published.set(slot, sequence);
+    }
+
+    private void run() {
+        int idle = 0;
+        while (running) {
+            int work = drain();
+            for (ReadRequest request; (request = readRequests.poll()) != null; ++work) {
+                serve(request);
+            }
+            if (work > 0) {
+                idle = 0;
+            } else if (++idle > SPINS + YIELDS) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            } else if (idle > SPINS) {
+                Thread.yield();
+            }
+        }
+    }
+
+    //folds the published slots in order up to the first one which isn't published yet
+    private int drain() {
+        long sequence = consumed;
+        int folded = 0;
+        for (int slot = (int) sequence & mask; published.get(slot) == sequence; slot = (int) sequence & mask) {
+            fold(queueBuckets[slot], queueSums[slot], queueCounts[slot], queueMaxs[slot], queueMins[slot]);
+            ++sequence;
+            if (++folded % RELEASE_EVERY == 0) {
+                consumed = sequence;
+            }
+        }
+        consumed = sequence;
+        return folded;
+    }
+
+    //a publisher which has claimed its sequence before the request is waited for
+    private void serve(ReadRequest request) {
+        while (consumed < request.target && running) {
+            if (drain() == 0) {
+                Thread.yield();
+            }
+        }
+        long from = Math.max(Math.max(request.fromBucket, 0), request.toBucket - size + 1);
+        for (long bucket = from; bucket <= request.toBucket; ++bucket) {
+            int index = (int) (bucket % size);
+            if (buckets[index] != bucket) {
+                continue;
+            }
+            if (request.accumulator != null) {
+                request.accumulator.merge(sums[index], counts[index], maxs[index], mins[index]);
+            } else {
+                request.partials.add(bucket, sums[index], counts[index], maxs[index], mins[index]);
+            }
+        }
+        request.done.countDown();
+    }
+
+    //a partial of a bucket whose slot has already moved on to a newer one is too old and dropped
+    private void fold(long bucket, double sum, long count, double max, double min) {
+        int index = (int) (bucket % size);
+        if (buckets[index] != bucket) {
+            if (buckets[index] > bucket) {
+                return;
+            }
+            buckets[index] = bucket;
+            sums[index] = sum;
+            counts[index] = count;
+            maxs[index] = max;
+            mins[index] = min;
+            return;
+        }
+        sums[index] += sum;
+        counts[index] += count;
+        maxs[index] = Math.max(maxs[index], max);
+        mins[index] = Math.min(mins[index], min);
+    }
+
+    private static final class ReadRequest {
+        private final long fromBucket;
+        private final long toBucket;
+        //cursor at the time of the request
+        private final long target;
+        //one of the two is set
+        @Nullable
+        private final StatAccumulator accumulator;
+        @Nullable
+        private final StatPartials partials;
+        @Nonnull
+        private final CountDownLatch done;
+
+        ReadRequest(long fromBucket, long toBucket, long target, @Nullable StatAccumulator accumulator,
+                    @Nullable StatPartials partials, @Nonnull CountDownLatch done) {
+            this.fromBucket = fromBucket;
+            this.toBucket = toBucket;
+            this.target = target;
+            this.accumulator = accumulator;
+            this.partials = partials;
+            this.done = done;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.tango.services;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+
+//Window arithmetic shared by the engines: which records are accepted and which buckets are in the window.
+//The provisional window is the last maxDuration seconds, the final one ends at the low watermark (allowedLateness
+//behind now), so a record which is late by up to allowedLateness is still counted by every final window it belongs to.
+//Records are accepted from the beginning of the final window up to futureSkew ahead of now.
+final class StatWindow {
+    private final int maxDuration;
+    private final int granularity;
+    private final long bucketMillis;
+    private final long lateness;
+    private final long skew;
+
+    StatWindow(@Nonnull CalculatorConfig calculatorConfig) {
+        this.maxDuration = calculatorConfig.getMaxDuration();
+        this.granularity = calculatorConfig.getGranularity();
+        this.bucketMillis = 1000 / granularity;
+        this.lateness = calculatorConfig.getAllowedLateness().getSeconds();
+        this.skew = calculatorConfig.getFutureSkew().getSeconds();
+    }
+
+    //number of buckets which take records: the window plus the allowed lateness and future skew
+    int size() {
+        return (int) ((maxDuration + lateness + skew) * granularity);
+    }
+
+    boolean hasGrace() {
+        return lateness > 0 || skew > 0;
+    }
+
+    //the final window ends here
+    long watermark(long currentTimeMillis) {
+        return currentTimeMillis - lateness * 1000;
+    }
+
+    long bucketMillis() {
+        return bucketMillis;
+    }
+
+    long bucketOf(long timestamp) {
+        return timestamp / bucketMillis;
+    }
+
+    @Nonnull
+    AddOutcome classify(double amount, long timestamp, long currentTimeMillis) {
+        if (amount < 0 || timestamp < 0) {
+            return AddOutcome.INVALID;
+        }
+        long currentTime = currentTimeMillis / 1000;
+        long timestampInSec = timestamp / 1000;
+        if (timestampInSec < currentTime - lateness - maxDuration + 1) {
+            return AddOutcome.LATE;
+        }
+        if (timestampInSec > currentTime + skew) {
+            return AddOutcome.FUTURE;
+        }
+        return AddOutcome.ACCEPTED;
+    }
+
+    long beginBucket(long currentTimeMillis) {
+        return beginBucket(currentTimeMillis, maxDuration);
+    }
+
+    //first bucket of the last windowSeconds seconds
+    long beginBucket(long currentTimeMillis, long windowSeconds) {
+        return (currentTimeMillis / 1000 - windowSeconds + 1) * granularity;
+    }
+
+    //seconds of a window which fits into maxDuration
+    long windowSeconds(@Nonnull Duration window) {
+        long windowSeconds = wholeSeconds(window);
+        if (windowSeconds > maxDuration) {
+            throw new IllegalArgumentException("window can't be longer than " + maxDuration + " seconds");
+        }
+        return windowSeconds;
+    }
+
+    static long wholeSeconds(@Nonnull Duration window) {
+        if (window.toMillis() < 1000 || window.toMillis() % 1000 != 0) {
+            throw new IllegalArgumentException("window has to be a positive number of whole seconds: " + window);
+        }
+        return window.getSeconds();
+    }
+
+    long endBucket(long currentTimeMillis) {
+        return (currentTimeMillis / 1000 + 1) * granularity - 1;
+    }
+
+    //first bucket of a range which fits into maxDuration
+    long beginBucket(long currentTimeMillis, @Nonnull StatRange range) {
+        if (range.getFrom() > maxDuration) {
+            throw new IllegalArgumentException("range can't begin earlier than " + maxDuration + " seconds ago");
+        }
+        return beginBucket(currentTimeMillis, range.getFrom());
+    }
+
+    long endBucket(long currentTimeMillis, @Nonnull StatRange range) {
+        return (currentTimeMillis / 1000 - range.getTo() + 1) * granularity - 1;
+    }
+}
@@ -0,0 +1,218 @@
+package com.tango.services;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.domain.StatPartials;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+
+//Multi resolution engine: the maxDuration window in granularity buckets (tier 0) plus the coarser tiers
+//of stat.tiers, e.g. per second buckets for 15 minutes and per minute buckets for an hour.
+//Every record is rolled up into its enclosing bucket of every tier at write time, so a coarse bucket is always
+//the aggregate of its finer ones and reads never race with a roll up. Expiry is the lazy slot reuse of BucketRing.
+//A window is answered by the finest tier which still retains it, memory is sum of retention / resolution.
+//A coarser tier only answers whole multiples of its resolution: the current bucket and the full ones before it,
+//like tier 0 does with its own buckets, so a window is never widened past what was asked.
+@Service
+@ConditionalOnProperty(name = "stat.engine", havingValue = "tiered")
+public class TieredStatCalculatorService implements StatCalculatorService, MeterBinder {
+    @Nonnull
+    private final StatWindow window;
+    private final ThreadLocal<BatchPartials> batchPartials;
+    private final int maxDuration;
+    //finest first, tier 0 is the regular window
+    private final long[] resolutions;
+    private final long[] retentions;
+    private final BucketRing[] rings;
+    @Nonnull
+    private final TimeSource timeSource;
+
+    public TieredStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig) {
+        this(calculatorConfig, TimeSource.SYSTEM);
+    }
+
+    @Autowired
+    public TieredStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig, @Nonnull TimeSource timeSource) {
+        this.timeSource = timeSource;
+        if (calculatorConfig.getAmountScale() != null) {
+            throw new IllegalArgumentException("fixed-point amounts are supported by the ring engine only");
+        }
+        this.window = new StatWindow(calculatorConfig);
+        this.batchPartials = ThreadLocal.withInitial(() -> new BatchPartials(window.size()));
+        this.maxDuration = calculatorConfig.getMaxDuration();
+
+        List<CalculatorConfig.Tier> tiers = calculatorConfig.getTiers();
+        this.resolutions = new long[tiers.size() + 1];
+        this.retentions = new long[tiers.size() + 1];
+        this.rings = new BucketRing[tiers.size() + 1];
+        resolutions[0] = window.bucketMillis();
+        retentions[0] = calculatorConfig.getMaxDuration() * 1000L;
+        //a spare slot, so a slot isn't reused while its old bucket can still be written, see BucketRing.claim
+        rings[0] = new BucketRing(window.size() + 1, calculatorConfig.getStripes());
+        for (int i = 0; i < tiers.size(); ++i) {
+            resolutions[i + 1] = tiers.get(i).getResolution().toMillis();
+            retentions[i + 1] = tiers.get(i).getRetention().toMillis();
+            //one more slot for the partially covered oldest bucket and the ones of the future skew
+            int size = (int) (retentions[i + 1] / resolutions[i + 1]) + 1 +
+                    (int) ((calculatorConfig.getFutureSkew().toMillis() + resolutions[i + 1] - 1) / resolutions[i + 1]);
+            rings[i + 1] = new BucketRing(size, calculatorConfig.getStripes());
+        }
+    }
+
+    @Nonnull
+    @Override
+    public AddOutcome add(@Nonnull Stat statValue) {
+        AddOutcome outcome = window.classify(statValue.getAmount(), statValue.getTimestamp(), timeSource.currentTimeMillis());
+        if (outcome != AddOutcome.ACCEPTED) {
+            return outcome;
+        }
+        long timestamp = statValue.getTimestamp();
+        double amount = statValue.getAmount();
+        if (!rings[0].add(timestamp / resolutions[0], amount)) {
+            return AddOutcome.LATE;
+        }
+        for (int tier = 1; tier < rings.length; ++tier) {
+            rings[tier].add(timestamp / resolutions[tier], amount);
+        }
+        return AddOutcome.ACCEPTED;
+    }
+
+    @Nonnull
+    @Override
+    public BatchResult addAll(@Nonnull StatBatch batch) {
+        BatchPartials partials = batchPartials.get();
+        partials.collect(batch, window, timeSource.currentTimeMillis());
+        long overwritten = 0;
+        for (int i = 0; i < partials.bucketCount(); ++i) {
+            long bucket = partials.bucket(i);
+            if (!rings[0].merge(bucket, partials.sum(i), partials.count(i), partials.max(i), partials.min(i))) {
+                overwritten += partials.count(i);
+                continue;
+            }
+            long bucketStart = bucket * resolutions[0];
+            for (int tier = 1; tier < rings.length; ++tier) {
+                rings[tier].merge(
+                        bucketStart / resolutions[tier],
+                        partials.sum(i), partials.count(i), partials.max(i), partials.min(i)
+                );
+            }
+        }
+        BatchResult result = partials.result();
+        return overwritten == 0 ? result : result.plus(new BatchResult(-overwritten, 0, overwritten, 0));
+    }
+
+    //only the maxDuration window is persisted, so the coarser tiers start with it
+    @Override
+    public void restore(long timestamp, double sum, long count, double max, double min) {
+        if (window.classify(0, timestamp, timeSource.currentTimeMillis()) != AddOutcome.ACCEPTED ||
+                !rings[0].merge(timestamp / resolutions[0], sum, count, max, min)) {
+            return;
+        }
+        for (int tier = 1; tier < rings.length; ++tier) {
+            rings[tier].merge(timestamp / resolutions[tier], sum, count, max, min);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public AggregatedStat getCurrentAggStat() {
+        return aggregate(0, maxDuration, timeSource.currentTimeMillis());
+    }
+
+    //only tier 0 keeps the allowed lateness, the coarser tiers take late records while they still retain them
+    @Nonnull
+    @Override
+    public AggregatedStat getFinalAggStat() {
+        return aggregate(0, maxDuration, window.watermark(timeSource.currentTimeMillis()));
+    }
+
+    @Nonnull
+    @Override
+    public AggregatedStat getAggStat(@Nonnull Duration duration) {
+        long windowSeconds = StatWindow.wholeSeconds(duration);
+        if (windowSeconds * 1000 <= retentions[0]) {
+            return aggregate(0, windowSeconds, timeSource.currentTimeMillis());
+        }
+        for (int tier = 1; tier < rings.length; ++tier) {
+            if (windowSeconds * 1000 <= retentions[tier]) {
+                if (windowSeconds * 1000 % resolutions[tier] != 0) {
+                    throw new IllegalArgumentException("window of " + windowSeconds + " seconds has to be a multiple of " +
+                            resolutions[tier] / 1000 + " seconds, the resolution it is kept at");
+                }
+                long endBucket = timeSource.currentTimeMillis() / resolutions[tier];
+                StatAccumulator accumulator = new StatAccumulator();
+                rings[tier].aggregate(endBucket - windowSeconds * 1000 / resolutions[tier] + 1, endBucket, accumulator);
+                return accumulator.toAggregatedStat();
+            }
+        }
+        throw new IllegalArgumentException("window can't be longer than " + retentions[retentions.length - 1] / 1000 + " seconds");
+    }
+
+    //ranges are answered by tier 0, so they have to fit into maxDuration
+    @Nonnull
+    @Override
+    public List<AggregatedStat> getAggStats(@Nonnull List<StatRange> ranges) {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        List<AggregatedStat> result = new ArrayList<>(ranges.size());
+        for (StatRange range : ranges) {
+            StatAccumulator accumulator = new StatAccumulator();
+            rings[0].aggregate(
+                    window.beginBucket(currentTimeMillis, range),
+                    window.endBucket(currentTimeMillis, range),
+                    accumulator
+            );
+            result.add(accumulator.toAggregatedStat());
+        }
+        return result;
+    }
+
+    //partials of tier 0, the coarser tiers can't be merged bucket by bucket with the window of another instance
+    @Nonnull
+    @Override
+    public StatPartials getCurrentPartials() {
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        long beginBucket = window.beginBucket(currentTimeMillis);
+        long endBucket = window.endBucket(currentTimeMillis);
+        StatPartials partials = new StatPartials(window.bucketMillis(), beginBucket, endBucket, window.size());
+        StatAccumulator accumulator = new StatAccumulator();
+        for (long bucket = beginBucket; bucket <= endBucket; ++bucket) {
+            accumulator.reset();
+            rings[0].aggregate(bucket, bucket, accumulator);
+            partials.add(bucket, accumulator.getSum(), accumulator.getCount(), accumulator.getMax(), accumulator.getMin());
+        }
+        return partials;
+    }
+
+    //whole seconds, the buckets of tier 0 divide a second
+    private AggregatedStat aggregate(int tier, long windowSeconds, long currentTimeMillis) {
+        long currentTime = currentTimeMillis / 1000;
+        long beginMillis = (currentTime - windowSeconds + 1) * 1000;
+        long endMillis = (currentTime + 1) * 1000 - 1;
+        StatAccumulator accumulator = new StatAccumulator();
+        rings[tier].aggregate(beginMillis / resolutions[tier], endMillis / resolutions[tier], accumulator);
+        return accumulator.toAggregatedStat();
+    }
+
+    @Override
+    public void bindTo(@Nonnull MeterRegistry meterRegistry) {
+        Gauge.builder("stat.window.buckets", this, service -> {
+            long currentTimeMillis = timeSource.currentTimeMillis();
+            return service.rings[0].occupied(
+                    service.window.beginBucket(currentTimeMillis),
+                    service.window.endBucket(currentTimeMillis)
+            );
+        }).description("buckets of the window which have records").register(meterRegistry);
+    }
+}
@@ -0,0 +1,10 @@
+package com.tango.services;
+
+//Current time of the engines. Production uses the cached CoarseTimeSource, which takes the clock read off the hot path,
+//tests use a manual clock.
+@FunctionalInterface
+public interface TimeSource {
+    TimeSource SYSTEM = System::currentTimeMillis;
+
+    long currentTimeMillis();
+}
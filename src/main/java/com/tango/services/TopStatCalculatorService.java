@@ -0,0 +1,217 @@
+package com.tango.services;
+
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//The stat.top-size largest records of every bucket next to the global engine, so the largest records of the window
+//are a k-way merge of (maxDuration + allowedLateness + futureSkew) * granularity small heaps instead of a scan of
+//the records. Every slot is a preallocated primitive min-heap of amounts and timestamps tagged with its bucket and
+//reset lazily by the first writer of a newer one, like BucketRing. Writers of a slot are serialized by its lock,
+//but once its heap is full a record which isn't above the smallest kept amount is skipped without locking,
+//so the current bucket is contended only by the few records which still make it into the top.
+@Service
+public class TopStatCalculatorService {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final long NO_THRESHOLD = Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY);
+
+    @Nonnull
+    private final StatWindow window;
+    private final int topSize;
+    private final int slots;
+    private final Object[] locks;
+    //bucket held by the slot, written under the lock
+    private final AtomicLongArray buckets;
+    //bits of the smallest amount of a full heap, a record has to be above it to get in
+    private final AtomicLongArray thresholds;
+    //guarded by the locks of the slots
+    private final int[] sizes;
+    private final double[] amounts;
+    private final long[] timestamps;
+    @Nonnull
+    private final TimeSource timeSource;
+
+    public TopStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig) {
+        this(calculatorConfig, TimeSource.SYSTEM);
+    }
+
+    @Autowired
+    public TopStatCalculatorService(@Nonnull CalculatorConfig calculatorConfig, @Nonnull TimeSource timeSource) {
+        this.timeSource = timeSource;
+        this.window = new StatWindow(calculatorConfig);
+        this.topSize = calculatorConfig.getTopSize();
+        this.slots = topSize > 0 ? window.size() : 0;
+        this.locks = new Object[slots];
+        for (int i = 0; i < slots; ++i) {
+            locks[i] = new Object();
+        }
+        this.buckets = new AtomicLongArray(slots);
+        this.thresholds = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; ++i) {
+            buckets.set(i, EMPTY);
+            thresholds.set(i, NO_THRESHOLD);
+        }
+        this.sizes = new int[slots];
+        this.amounts = new double[slots * topSize];
+        this.timestamps = new long[slots * topSize];
+    }
+
+    public void add(@Nonnull Stat statValue) {
+        if (topSize > 0) {
+            add(statValue.getAmount(), statValue.getTimestamp(), timeSource.currentTimeMillis());
+        }
+    }
+
+    public void addAll(@Nonnull StatBatch batch) {
+        if (topSize == 0) {
+            return;
+        }
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        for (int i = 0; i < batch.size(); ++i) {
+            add(batch.getAmount(i), batch.getTimestamp(i), currentTimeMillis);
+        }
+    }
+
+    //the n largest records of the window, largest first, n can't be above stat.top-size
+    @Nonnull
+    public List<Stat> getTop(int n) {
+        if (topSize == 0) {
+            throw new UnsupportedOperationException("top records are turned off by stat.top-size");
+        }
+        if (n < 1 || n > topSize) {
+            throw new IllegalArgumentException("n has to be in [1, " + topSize + "] but was " + n);
+        }
+        long currentTimeMillis = timeSource.currentTimeMillis();
+        long begin = window.beginBucket(currentTimeMillis);
+        long end = window.endBucket(currentTimeMillis);
+        int runs = (int) (end - begin + 1);
+        double[] runAmounts = new double[runs * topSize];
+        long[] runTimestamps = new long[runs * topSize];
+        int[] runSizes = new int[runs];
+        for (int run = 0; run < runs; ++run) {
+            long bucket = begin + run;
+            int slot = slotOf(bucket);
+            synchronized (locks[slot]) {
+                if (buckets.get(slot) == bucket) {
+                    runSizes[run] = sizes[slot];
+                    System.arraycopy(amounts, slot * topSize, runAmounts, run * topSize, sizes[slot]);
+                    System.arraycopy(timestamps, slot * topSize, runTimestamps, run * topSize, sizes[slot]);
+                }
+            }
+            //popping the min-heap to its end leaves the run sorted from the largest
+            for (int size = runSizes[run]; size > 1; --size) {
+                swap(runAmounts, runTimestamps, run * topSize, run * topSize + size - 1);
+                siftDown(runAmounts, runTimestamps, run * topSize, 0, size - 1);
+            }
+        }
+
+        int[] cursors = new int[runs];
+        PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(1, runs),
+                (a, b) -> Double.compare(runAmounts[b * topSize + cursors[b]], runAmounts[a * topSize + cursors[a]]));
+        for (int run = 0; run < runs; ++run) {
+            if (runSizes[run] > 0) {
+                heads.add(run);
+            }
+        }
+        List<Stat> top = new ArrayList<>(n);
+        while (top.size() < n && !heads.isEmpty()) {
+            int run = heads.poll();
+            int index = run * topSize + cursors[run];
+            top.add(new Stat(runAmounts[index], runTimestamps[index]));
+            if (++cursors[run] < runSizes[run]) {
+                heads.add(run);
+            }
+        }
+        return top;
+    }
+
+    private void add(double amount, long timestamp, long currentTimeMillis) {
+        if (window.classify(amount, timestamp, currentTimeMillis) != AddOutcome.ACCEPTED) {
+            return;
+        }
+        long bucket = window.bucketOf(timestamp);
+        int slot = slotOf(bucket);
+        if (buckets.get(slot) == bucket && amount <= Double.longBitsToDouble(thresholds.get(slot))) {
+            return;
+        }
+        synchronized (locks[slot]) {
+            long held = buckets.get(slot);
+            if (held > bucket) {
+                //the record is older than the window of the ring
+                return;
+            }
+            if (held != bucket) {
+                thresholds.set(slot, NO_THRESHOLD);
+                sizes[slot] = 0;
+                buckets.set(slot, bucket);
+            }
+            int base = slot * topSize;
+            int size = sizes[slot];
+            if (size < topSize) {
+                amounts[base + size] = amount;
+                timestamps[base + size] = timestamp;
+                siftUp(base, size);
+                sizes[slot] = ++size;
+            } else if (amount > amounts[base]) {
+                amounts[base] = amount;
+                timestamps[base] = timestamp;
+                siftDown(amounts, timestamps, base, 0, size);
+            } else {
+                return;
+            }
+            if (size == topSize) {
+                thresholds.set(slot, Double.doubleToRawLongBits(amounts[base]));
+            }
+        }
+    }
+
+    private int slotOf(long bucket) {
+        return (int) (bucket % slots);
+    }
+
+    private void siftUp(int base, int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (amounts[base + parent] <= amounts[base + index]) {
+                return;
+            }
+            swap(amounts, timestamps, base + parent, base + index);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(double[] amounts, long[] timestamps, int base, int index, int size) {
+        while (true) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && amounts[base + left] < amounts[base + smallest]) {
+                smallest = left;
+            }
+            if (right < size && amounts[base + right] < amounts[base + smallest]) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            swap(amounts, timestamps, base + index, base + smallest);
+            index = smallest;
+        }
+    }
+
+    private static void swap(double[] amounts, long[] timestamps, int i, int j) {
+        double amount = amounts[i];
+        amounts[i] = amounts[j];
+        amounts[j] = amount;
+        long timestamp = timestamps[i];
+        timestamps[i] = timestamps[j];
+        timestamps[j] = timestamp;
+    }
+}
@@ -0,0 +1,108 @@
+package com.tango;
+
+import com.tango.controllers.BinaryIngestServer;
+import com.tango.domain.AggregatedStat;
+import com.tango.services.CalculatorConfig;
+import com.tango.services.RingBufferStatCalculatorService;
+import com.tango.services.StatCalculatorService;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class BinaryIngestServerTest {
+
+    private void assertResult(int count, double sum, double max, double min, double avg, AggregatedStat aggregatedStat) {
+        assertEquals(count, aggregatedStat.getCount());
+        assertEquals(sum, aggregatedStat.getSum(), 0.1);
+        assertEquals(max, aggregatedStat.getMax(), 0.1);
+        assertEquals(min, aggregatedStat.getMin(), 0.1);
+        assertEquals(avg, aggregatedStat.getAvg(), 0.1);
+    }
+
+    private ByteBuffer records(long now, double... amounts) {
+        ByteBuffer buffer = ByteBuffer.allocate(amounts.length * 16);
+        for (double amount : amounts) {
+            buffer.putLong(now).putDouble(amount);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void write(SocketChannel channel, ByteBuffer buffer) throws Exception {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Test
+    public void tcpTest() throws Exception {
+        StatCalculatorService statCalculatorService = new RingBufferStatCalculatorService(new CalculatorConfig(60, 1));
+        long now = System.currentTimeMillis();
+        try (BinaryIngestServer server = new BinaryIngestServer(0, 64, statCalculatorService::addAll);
+             SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.tcpPort()))) {
+            //the second record is split between two writes, the ones after it don't fit one buffer
+            ByteBuffer buffer = records(now, 1, 2, 3, 4, 5, 6, -1);
+            buffer.limit(20);
+            write(channel, buffer);
+            Thread.sleep(50);
+            buffer.limit(buffer.capacity());
+            write(channel, buffer);
+            write(channel, records(now - 120000, 100));
+            Thread.sleep(200);
+
+            assertResult(6, 21, 6, 1, 3.5, statCalculatorService.getCurrentAggStat());
+        }
+    }
+
+    //an exception of the engine closes the connection which sent the records, the others go on
+    @Test
+    public void failureTest() throws Exception {
+        StatCalculatorService statCalculatorService = new RingBufferStatCalculatorService(new CalculatorConfig(60, 1));
+        AtomicBoolean fail = new AtomicBoolean(true);
+        long now = System.currentTimeMillis();
+        try (BinaryIngestServer server = new BinaryIngestServer(0, 64, batch -> {
+            if (fail.getAndSet(false)) {
+                throw new IllegalStateException("engine has failed");
+            }
+            return statCalculatorService.addAll(batch);
+        });
+             SocketChannel failed = SocketChannel.open(new InetSocketAddress("localhost", server.tcpPort()));
+             DatagramChannel udp = DatagramChannel.open()) {
+            write(failed, records(now, 100));
+            Thread.sleep(200);
+            assertEquals(-1, failed.read(ByteBuffer.allocate(1)));
+
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.tcpPort()))) {
+                write(channel, records(now, 1, 2));
+                udp.send(records(now, 3), new InetSocketAddress("localhost", server.udpPort()));
+                Thread.sleep(200);
+            }
+
+            assertResult(3, 6, 3, 1, 2, statCalculatorService.getCurrentAggStat());
+        }
+    }
+
+    @Test
+    public void udpTest() throws Exception {
+        StatCalculatorService statCalculatorService = new RingBufferStatCalculatorService(new CalculatorConfig(60, 1));
+        long now = System.currentTimeMillis();
+        try (BinaryIngestServer server = new BinaryIngestServer(0, 1024, statCalculatorService::addAll);
+             DatagramChannel channel = DatagramChannel.open()) {
+            InetSocketAddress address = new InetSocketAddress("localhost", server.udpPort());
+            channel.send(records(now, 1, 2), address);
+            //the trailing part of a record is ignored
+            ByteBuffer truncated = ByteBuffer.allocate(20);
+            truncated.put(records(now, 3)).putInt(7).flip();
+            channel.send(truncated, address);
+            Thread.sleep(200);
+
+            assertResult(3, 6, 3, 1, 2, statCalculatorService.getCurrentAggStat());
+        }
+    }
+}
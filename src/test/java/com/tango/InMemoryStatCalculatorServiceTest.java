@@ -1,26 +1,28 @@
 package com.tango;
 
 import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.QuantileStat;
 import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.services.AddOutcome;
 import com.tango.services.CalculatorConfig;
 import com.tango.services.InMemoryStatCalculatorService;
 import com.tango.services.StatCalculatorService;
+import com.tango.services.StatRange;
 import org.apache.commons.lang3.time.StopWatch;
 import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.powermock.api.mockito.PowerMockito;
-import org.powermock.core.classloader.annotations.PrepareForTest;
-import org.powermock.modules.junit4.PowerMockRunner;
 import org.powermock.reflect.Whitebox;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.*;
 
 import static org.junit.Assert.*;
-import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
-@RunWith(PowerMockRunner.class)
-@PrepareForTest(InMemoryStatCalculatorService.class)
 public class InMemoryStatCalculatorServiceTest {
+    private final ManualTimeSource timeSource = new ManualTimeSource();
 
     private void assertResult(int count, double sum, double max, double min, double avg, AggregatedStat aggregatedStat) {
         assertEquals(count, aggregatedStat.getCount());
@@ -31,16 +33,15 @@ public class InMemoryStatCalculatorServiceTest {
     }
 
     private InMemoryStatCalculatorService createStatService(int maxDuration, int granularity) {
-        return new InMemoryStatCalculatorService(new CalculatorConfig(maxDuration, granularity));
+        return new InMemoryStatCalculatorService(new CalculatorConfig(maxDuration, granularity), timeSource);
     }
 
     @Test
     public void receivedOneMessageFromPastTest() throws Exception {
-        mockStatic(System.class);
-        PowerMockito.when(System.currentTimeMillis()).thenReturn(0L);
+        timeSource.set(0L);
 
         try (InMemoryStatCalculatorService statCalculatorService = createStatService(5, 1)) {
-            PowerMockito.when(System.currentTimeMillis()).thenReturn(6000L);
+            timeSource.set(6000L);
             statCalculatorService.add(new Stat(1, 1000));
 
             AggregatedStat aggregatedStat = statCalculatorService.getCurrentAggStat();
@@ -50,8 +51,7 @@ public class InMemoryStatCalculatorServiceTest {
 
     @Test
     public void receiveOneMessageInFutureTest() throws Exception {
-        mockStatic(System.class);
-        PowerMockito.when(System.currentTimeMillis()).thenReturn(1000L);
+        timeSource.set(1000L);
 
         try (InMemoryStatCalculatorService statCalculatorService = createStatService(5, 1)) {
             statCalculatorService.add(new Stat(1, 2000L));
@@ -63,11 +63,10 @@ public class InMemoryStatCalculatorServiceTest {
 
     @Test
     public void receivedOneMessageEqualToLeftAllowedBorderTest() throws Exception {
-        mockStatic(System.class);
-        PowerMockito.when(System.currentTimeMillis()).thenReturn(0L);
+        timeSource.set(0L);
 
         try (InMemoryStatCalculatorService statCalculatorService = createStatService(5, 1)) {
-            PowerMockito.when(System.currentTimeMillis()).thenReturn(6000L);
+            timeSource.set(6000L);
             statCalculatorService.add(new Stat(1, 2000));
 
             AggregatedStat aggregatedStat = statCalculatorService.getCurrentAggStat();
@@ -77,11 +76,10 @@ public class InMemoryStatCalculatorServiceTest {
 
     @Test
     public void receivedOneMessageEqualToRightAllowedBorderTest() throws Exception {
-        mockStatic(System.class);
-        PowerMockito.when(System.currentTimeMillis()).thenReturn(0L);
+        timeSource.set(0L);
 
         try (InMemoryStatCalculatorService statCalculatorService = createStatService(5, 1)) {
-            PowerMockito.when(System.currentTimeMillis()).thenReturn(6000L);
+            timeSource.set(6000L);
             statCalculatorService.add(new Stat(1, 6500));
 
             AggregatedStat aggregatedStat = statCalculatorService.getCurrentAggStat();
@@ -89,14 +87,37 @@ public class InMemoryStatCalculatorServiceTest {
         }
     }
 
+    @Test
+    public void latenessAndSkewTest() throws Exception {
+        timeSource.set(10000L);
+
+        CalculatorConfig calculatorConfig = new CalculatorConfig(5, 1);
+        calculatorConfig.setAllowedLateness(Duration.ofSeconds(3));
+        calculatorConfig.setFutureSkew(Duration.ofSeconds(2));
+        try (InMemoryStatCalculatorService statCalculatorService = new InMemoryStatCalculatorService(calculatorConfig, timeSource)) {
+            assertEquals(AddOutcome.LATE, statCalculatorService.add(new Stat(1, 2000)));
+            assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(2, 3000)));
+            assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(3, 6000)));
+            assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(4, 10000)));
+            assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(5, 12000)));
+            assertEquals(AddOutcome.FUTURE, statCalculatorService.add(new Stat(6, 13000)));
+
+            assertResult(2, 7, 4, 3, 3.5, statCalculatorService.getCurrentAggStat());
+            assertResult(2, 5, 3, 2, 2.5, statCalculatorService.getFinalAggStat());
+
+            timeSource.set(12000L);
+            assertResult(2, 9, 5, 4, 4.5, statCalculatorService.getCurrentAggStat());
+            assertResult(1, 3, 3, 3, 3, statCalculatorService.getFinalAggStat());
+        }
+    }
+
     @Test
     public void reduceCapacityTest() throws Exception {
-        mockStatic(System.class);
-        PowerMockito.when(System.currentTimeMillis()).thenReturn(0L);
+        timeSource.set(0L);
 
         try (InMemoryStatCalculatorService statCalculatorService = createStatService(5, 2)) {
             for (int i = 0; i < 12; ++i) {
-                PowerMockito.when(System.currentTimeMillis()).thenReturn(i * 500L);
+                timeSource.set(i * 500L);
                 statCalculatorService.add(new Stat(1, i * 500L));
             }
             //don't relay on task scheduled
@@ -109,7 +130,7 @@ public class InMemoryStatCalculatorServiceTest {
             assertResult(10, 10, 1, 1, 1, aggregatedStat);
 
             for (int i = 12; i < 22; ++i) {
-                PowerMockito.when(System.currentTimeMillis()).thenReturn(i * 500L);
+                timeSource.set(i * 500L);
                 statCalculatorService.add(new Stat(1, i * 500L));
             }
             Whitebox.invokeMethod(statCalculatorService, "reduceAggregatorIfRequired");
@@ -132,11 +153,10 @@ public class InMemoryStatCalculatorServiceTest {
 
     @Test
     public void minMaxAvgTest() throws Exception {
-        mockStatic(System.class);
-        PowerMockito.when(System.currentTimeMillis()).thenReturn(0L);
+        timeSource.set(0L);
 
         try (InMemoryStatCalculatorService statCalculatorService = createStatService(5, 1)) {
-            PowerMockito.when(System.currentTimeMillis()).thenReturn(4000L);
+            timeSource.set(4000L);
             for (int i = 0; i < 10; ++i) {
                 for (int j = 0; j < 5; ++j) {
                     statCalculatorService.add(new Stat(i + i / 10.d, j * 1000));
@@ -150,8 +170,7 @@ public class InMemoryStatCalculatorServiceTest {
 
     @Test
     public void overflowSum() throws Exception {
-        mockStatic(System.class);
-        PowerMockito.when(System.currentTimeMillis()).thenReturn(0L);
+        timeSource.set(0L);
 
         try (InMemoryStatCalculatorService statCalculatorService = createStatService(5, 1)) {
             statCalculatorService.add(new Stat(Double.MAX_VALUE, 100));
@@ -168,8 +187,7 @@ public class InMemoryStatCalculatorServiceTest {
 
     @Test
     public void invalidValues() throws Exception {
-        mockStatic(System.class);
-        PowerMockito.when(System.currentTimeMillis()).thenReturn(0L);
+        timeSource.set(0L);
 
         try (InMemoryStatCalculatorService statCalculatorService = createStatService(5, 1)) {
             statCalculatorService.add(new Stat(-10.123, 100));
@@ -180,6 +198,81 @@ public class InMemoryStatCalculatorServiceTest {
         }
     }
 
+    @Test
+    public void batchTest() throws Exception {
+        timeSource.set(6000L);
+
+        try (InMemoryStatCalculatorService statCalculatorService = createStatService(5, 1)) {
+            StatBatch batch = new StatBatch(4);
+            batch.add(1, 1000);
+            batch.add(2, 2000);
+            batch.add(3, 6500);
+            batch.add(4, 7000);
+            batch.add(-1, 3000);
+            batch.add(5, 2500);
+            statCalculatorService.add(new Stat(6, 2000));
+
+            BatchResult batchResult = statCalculatorService.addAll(batch);
+            assertEquals(3, batchResult.getAccepted());
+            assertEquals(1, batchResult.getInvalid());
+            assertEquals(1, batchResult.getLate());
+            assertEquals(1, batchResult.getFuture());
+
+            assertResult(4, 16, 6, 2, 4, statCalculatorService.getCurrentAggStat());
+        }
+    }
+
+    @Test
+    public void rangesTest() throws Exception {
+        timeSource.set(0L);
+
+        try (InMemoryStatCalculatorService statCalculatorService = createStatService(10, 2)) {
+            for (int i = 0; i < 30; ++i) {
+                timeSource.set(i * 500L);
+                statCalculatorService.add(new Stat(i, i * 500L));
+            }
+            List<AggregatedStat> aggregatedStats = statCalculatorService.getAggStats(Arrays.asList(
+                    new StatRange(Duration.ofSeconds(4), Duration.ZERO),
+                    new StatRange(Duration.ofSeconds(8), Duration.ofSeconds(4)),
+                    new StatRange(Duration.ofSeconds(10), Duration.ofSeconds(9))
+            ));
+            assertResult(8, 204, 29, 22, 25.5, aggregatedStats.get(0));
+            assertResult(8, 140, 21, 14, 17.5, aggregatedStats.get(1));
+            assertResult(2, 21, 11, 10, 10.5, aggregatedStats.get(2));
+            assertResult(6, 159, 29, 24, 26.5, statCalculatorService.getAggStat(Duration.ofSeconds(3)));
+        }
+    }
+
+    @Test
+    public void quantilesTest() throws Exception {
+        timeSource.set(4000L);
+        CalculatorConfig calculatorConfig = new CalculatorConfig(5, 1);
+        calculatorConfig.setQuantilePrecision(4);
+
+        try (InMemoryStatCalculatorService statCalculatorService =
+                     new InMemoryStatCalculatorService(calculatorConfig, timeSource)) {
+            StatBatch batch = new StatBatch(50);
+            for (int i = 1; i <= 100; ++i) {
+                if (i % 2 == 0) {
+                    statCalculatorService.add(new Stat(i, (i % 5) * 1000));
+                } else {
+                    batch.add(i, (i % 5) * 1000);
+                }
+            }
+            statCalculatorService.addAll(batch);
+            //too late, has to be ignored
+            statCalculatorService.add(new Stat(1000, 10000));
+
+            QuantileStat quantileStat = statCalculatorService.getCurrentQuantiles(new double[]{0.01, 0.5, 0.95, 1});
+            assertEquals(100, quantileStat.getCount());
+            //default precision keeps relative error within 2^-5
+            assertEquals(1, quantileStat.getQuantiles().get("0.01"), 1 / 32.);
+            assertEquals(50, quantileStat.getQuantiles().get("0.5"), 50 / 32.);
+            assertEquals(95, quantileStat.getQuantiles().get("0.95"), 95 / 32.);
+            assertEquals(100, quantileStat.getQuantiles().get("1.0"), 100 / 32.);
+        }
+    }
+
     @Test
     //@Ignore
     public void highLoadAccuracyTest() throws Exception {
@@ -0,0 +1,166 @@
+package com.tango;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.KeyedStat;
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.services.AddOutcome;
+import com.tango.services.CalculatorConfig;
+import com.tango.services.KeyedStatCalculatorService;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KeyedStatCalculatorServiceTest {
+    private final ManualTimeSource timeSource = new ManualTimeSource();
+
+    private void assertResult(int count, double sum, double max, double min, double avg, AggregatedStat aggregatedStat) {
+        assertEquals(count, aggregatedStat.getCount());
+        assertEquals(sum, aggregatedStat.getSum(), 0.1);
+        assertEquals(max, aggregatedStat.getMax(), 0.1);
+        assertEquals(min, aggregatedStat.getMin(), 0.1);
+        assertEquals(avg, aggregatedStat.getAvg(), 0.1);
+    }
+
+    private KeyedStatCalculatorService createStatService(int maxDuration, int capacity, int resolution) {
+        CalculatorConfig calculatorConfig = new CalculatorConfig(maxDuration, 1);
+        calculatorConfig.setKeys(new CalculatorConfig.Keys(capacity, Duration.ofSeconds(resolution)));
+        return new KeyedStatCalculatorService(calculatorConfig, timeSource);
+    }
+
+    @Test
+    public void perKeyTest() {
+        timeSource.set(6000L);
+
+        KeyedStatCalculatorService statCalculatorService = createStatService(5, 16, 1);
+        assertEquals(AddOutcome.LATE, statCalculatorService.add(new Stat(1, 1000, "a")));
+        assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(2, 2000, "a")));
+        assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(3, 6500, "a")));
+        assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(10, 3000, "b")));
+        assertEquals(AddOutcome.INVALID, statCalculatorService.add(new Stat(10, 3000)));
+        assertEquals(AddOutcome.FUTURE, statCalculatorService.add(new Stat(4, 7000, "a")));
+
+        assertResult(2, 5, 3, 2, 2.5, statCalculatorService.getAggStat("a"));
+        assertResult(1, 10, 10, 10, 10, statCalculatorService.getAggStat("b"));
+        assertResult(0, 0, 0, 0, 0, statCalculatorService.getAggStat("c"));
+
+        timeSource.set(8000L);
+        assertResult(1, 3, 3, 3, 3, statCalculatorService.getAggStat("a"));
+        assertResult(0, 0, 0, 0, 0, statCalculatorService.getAggStat("b"));
+    }
+
+    @Test
+    public void coarseResolutionTest() {
+        timeSource.set(9000L);
+
+        //the window is the only bucket [5s, 10s)
+        KeyedStatCalculatorService statCalculatorService = createStatService(5, 16, 5);
+        statCalculatorService.add(new Stat(1, 8000, "a"));
+        assertResult(1, 1, 1, 1, 1, statCalculatorService.getAggStat("a"));
+
+        //the window [10s, 15s) doesn't reach back to 8s although it's within 5s
+        timeSource.set(12000L);
+        statCalculatorService.add(new Stat(2, 12000, "a"));
+        assertResult(1, 2, 2, 2, 2, statCalculatorService.getAggStat("a"));
+        assertEquals(2, statCalculatorService.getTop(1).get(0).getSum(), 0.1);
+
+        timeSource.set(15000L);
+        assertResult(0, 0, 0, 0, 0, statCalculatorService.getAggStat("a"));
+    }
+
+    @Test
+    public void windowTest() {
+        timeSource.set(65000L);
+
+        //resolution 10s, the 60s window is the buckets [10s, 70s), the record at 9s is within 60s but out of it
+        KeyedStatCalculatorService statCalculatorService = createStatService(60, 16, 10);
+        assertEquals(AddOutcome.LATE, statCalculatorService.add(new Stat(1, 9000, "a")));
+        assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(2, 10000, "a")));
+        statCalculatorService.add(new Stat(3, 65000, "a"));
+        assertResult(2, 5, 3, 2, 2.5, statCalculatorService.getAggStat("a"));
+
+        timeSource.set(70000L);
+        assertResult(1, 3, 3, 3, 3, statCalculatorService.getAggStat("a"));
+    }
+
+    @Test
+    public void topTest() {
+        timeSource.set(4000L);
+
+        KeyedStatCalculatorService statCalculatorService = createStatService(5, 1024, 1);
+        for (int i = 0; i < 100; ++i) {
+            statCalculatorService.add(new Stat(i, 1000, "key" + i));
+            statCalculatorService.add(new Stat(i, 4000, "key" + i));
+        }
+        statCalculatorService.add(new Stat(1000, 4000, "key3"));
+
+        List<KeyedStat> top = statCalculatorService.getTop(3);
+        assertEquals(3, top.size());
+        assertEquals("key3", top.get(0).getKey());
+        assertResult(3, 1006, 1000, 3, 335.3, top.get(0));
+        assertEquals("key99", top.get(1).getKey());
+        assertEquals("key98", top.get(2).getKey());
+        assertEquals(100, statCalculatorService.getTop(1000).size());
+    }
+
+    @Test
+    public void batchTest() {
+        timeSource.set(6000L);
+
+        KeyedStatCalculatorService statCalculatorService = createStatService(5, 16, 1);
+        StatBatch batch = new StatBatch(4);
+        batch.add(1, 1000, "a");
+        batch.add(2, 2000, "a");
+        batch.add(3, 2000);
+        batch.add(-1, 3000, "b");
+        batch.add(4, 7000, "b");
+        batch.add(5, 3000, "b");
+
+        BatchResult batchResult = statCalculatorService.addAll(batch);
+        assertEquals(2, batchResult.getAccepted());
+        assertEquals(1, batchResult.getInvalid());
+        assertEquals(1, batchResult.getLate());
+        assertEquals(1, batchResult.getFuture());
+
+        assertResult(1, 2, 2, 2, 2, statCalculatorService.getAggStat("a"));
+        assertResult(1, 5, 5, 5, 5, statCalculatorService.getAggStat("b"));
+    }
+
+    @Test
+    public void evictionTest() {
+        timeSource.set(0L);
+
+        KeyedStatCalculatorService statCalculatorService = createStatService(5, 64, 1);
+        for (int i = 0; i < 64; ++i) {
+            statCalculatorService.add(new Stat(1, 0, "old" + i));
+        }
+        assertEquals(64, statCalculatorService.size());
+
+        //the old keys have left the window and are the least recently written ones
+        timeSource.set(10000L);
+        for (int i = 0; i < 1000; ++i) {
+            statCalculatorService.add(new Stat(1, 10000, "new" + (i % 32)));
+        }
+        assertEquals(64, statCalculatorService.size());
+        assertTrue(statCalculatorService.evictions() >= 32);
+        for (int i = 0; i < 32; ++i) {
+            assertResult(1000 / 32 + (i < 1000 % 32 ? 1 : 0), 1000 / 32 + (i < 1000 % 32 ? 1 : 0), 1, 1, 1,
+                    statCalculatorService.getAggStat("new" + i));
+        }
+
+        //every key stays reachable after many evictions shuffled the tables
+        for (int i = 0; i < 10000; ++i) {
+            statCalculatorService.add(new Stat(1, 10000, "churn" + i));
+        }
+        assertEquals(64, statCalculatorService.size());
+        List<KeyedStat> all = statCalculatorService.getTop(64);
+        assertEquals(64, all.size());
+        for (KeyedStat keyedStat : all) {
+            assertEquals(keyedStat.getCount(), statCalculatorService.getAggStat(keyedStat.getKey()).getCount());
+        }
+    }
+}
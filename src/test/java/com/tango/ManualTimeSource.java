@@ -0,0 +1,17 @@
+package com.tango;
+
+import com.tango.services.TimeSource;
+
+//Clock of the engine tests, moves only when the test sets it
+public class ManualTimeSource implements TimeSource {
+    private volatile long currentTimeMillis;
+
+    public void set(long currentTimeMillis) {
+        this.currentTimeMillis = currentTimeMillis;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return currentTimeMillis;
+    }
+}
@@ -0,0 +1,142 @@
+package com.tango;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.Stat;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "spring.main.web-application-type=reactive")
+@AutoConfigureWebTestClient
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class ReactiveStatControllerTest {
+
+    @Autowired
+    private WebTestClient client;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    public void simpleSuccessScenarioTest() throws Exception {
+        client.post().uri("/transactions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody(objectMapper.writeValueAsString(new Stat(12.4, System.currentTimeMillis())))
+                .exchange()
+                .expectStatus().isCreated();
+
+        client.get().uri("/statistics").accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json(objectMapper.writeValueAsString(new AggregatedStat(12.4, 12.4, 12.4, 12.4, 1)));
+    }
+
+    @Test
+    public void invalidDataTest() throws Exception {
+        client.post().uri("/transactions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody(objectMapper.writeValueAsString(new Stat(-12.4, System.currentTimeMillis())))
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        client.get().uri("/statistics?window=1h")
+                .exchange()
+                .expectStatus().isBadRequest();
+        client.get().uri("/statistics/keys?top=0")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void batchTest() throws Exception {
+        long now = System.currentTimeMillis();
+        client.post().uri("/transactions/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody("[{\"amount\":1.5,\"timestamp\":" + now + "}," +
+                        "{\"amount\":2.5,\"timestamp\":" + now + ",\"comment\":{\"ignored\":[1,2]}}," +
+                        "{\"amount\":-1,\"timestamp\":" + now + "}," +
+                        "{\"amount\":1}," +
+                        "{\"amount\":1,\"timestamp\":" + (now - 60000) + "}," +
+                        "{\"amount\":1,\"timestamp\":" + (now + 60000) + "}]")
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody().json("{\"accepted\":2,\"invalid\":2,\"late\":1,\"future\":1}");
+
+        client.post().uri("/transactions/batch")
+                .contentType(MediaType.valueOf("application/x-ndjson"))
+                .syncBody("{\"amount\":3,\"timestamp\":" + now + "}\n{\"amount\":5,\"timestamp\":" + now + "}\n")
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody().json("{\"accepted\":2,\"invalid\":0,\"late\":0,\"future\":0}");
+
+        client.get().uri("/statistics").accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json(objectMapper.writeValueAsString(new AggregatedStat(12, 3, 5, 1.5, 4)));
+    }
+
+    @Test
+    public void malformedBatchTest() {
+        client.post().uri("/transactions/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody("[{\"amount\":1,")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        client.post().uri("/transactions/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody("[1, 2]")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void streamTest() throws Exception {
+        client.post().uri("/transactions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody(objectMapper.writeValueAsString(new Stat(12.4, System.currentTimeMillis())))
+                .exchange()
+                .expectStatus().isCreated();
+
+        List<String> snapshots = client.get().uri("/statistics/stream").accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseBody()
+                .take(2)
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        assertEquals(2, snapshots.size());
+        assertEquals(objectMapper.writeValueAsString(new AggregatedStat(12.4, 12.4, 12.4, 12.4, 1)), snapshots.get(0));
+    }
+
+    @Test
+    public void rottedTest() throws Exception {
+        client.post().uri("/transactions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody(objectMapper.writeValueAsString(new Stat(12.4, System.currentTimeMillis())))
+                .exchange()
+                .expectStatus().isCreated();
+
+        TimeUnit.SECONDS.sleep(7);
+        client.get().uri("/statistics").accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json(objectMapper.writeValueAsString(new AggregatedStat(0, 0, 0, 0, 0)));
+    }
+}
@@ -0,0 +1,258 @@
+package com.tango;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.services.AddOutcome;
+import com.tango.services.CalculatorConfig;
+import com.tango.services.RingBufferStatCalculatorService;
+import com.tango.services.StatCalculatorService;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class RingBufferStatCalculatorServiceTest {
+    private final ManualTimeSource timeSource = new ManualTimeSource();
+
+    private void assertResult(int count, double sum, double max, double min, double avg, AggregatedStat aggregatedStat) {
+        assertEquals(count, aggregatedStat.getCount());
+        assertEquals(sum, aggregatedStat.getSum(), 0.1);
+        assertEquals(max, aggregatedStat.getMax(), 0.1);
+        assertEquals(min, aggregatedStat.getMin(), 0.1);
+        assertEquals(avg, aggregatedStat.getAvg(), 0.1);
+    }
+
+    private RingBufferStatCalculatorService createStatService(int maxDuration, int granularity) {
+        return new RingBufferStatCalculatorService(new CalculatorConfig(maxDuration, granularity), timeSource);
+    }
+
+    @Test
+    public void bordersTest() {
+        timeSource.set(6000L);
+
+        RingBufferStatCalculatorService statCalculatorService = createStatService(5, 1);
+        statCalculatorService.add(new Stat(1, 1000));
+        statCalculatorService.add(new Stat(2, 2000));
+        statCalculatorService.add(new Stat(3, 6500));
+        statCalculatorService.add(new Stat(4, 7000));
+
+        assertResult(2, 5, 3, 2, 2.5, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void recycleSlotsTest() {
+        timeSource.set(0L);
+
+        RingBufferStatCalculatorService statCalculatorService = createStatService(5, 2);
+        for (int i = 0; i < 22; ++i) {
+            timeSource.set(i * 500L);
+            statCalculatorService.add(new Stat(i, i * 500L));
+        }
+        //buckets 12..21 have replaced 2..11 in the same slots
+        assertResult(10, 165, 21, 12, 16.5, statCalculatorService.getCurrentAggStat());
+
+        timeSource.set(13000L);
+        assertResult(4, 78, 21, 18, 19.5, statCalculatorService.getCurrentAggStat());
+
+        timeSource.set(60000L);
+        assertResult(0, 0, 0, 0, 0, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void tooOldForSlotTest() {
+        timeSource.set(20000L);
+
+        RingBufferStatCalculatorService statCalculatorService = createStatService(5, 1);
+        statCalculatorService.add(new Stat(1, 20000));
+        //window moved back, the slot of bucket 15 is already taken by bucket 20
+        timeSource.set(15000L);
+        statCalculatorService.add(new Stat(1, 15000));
+
+        timeSource.set(20000L);
+        assertResult(1, 1, 1, 1, 1, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void latenessAndSkewTest() {
+        timeSource.set(10000L);
+
+        CalculatorConfig calculatorConfig = new CalculatorConfig(5, 1);
+        calculatorConfig.setAllowedLateness(Duration.ofSeconds(3));
+        calculatorConfig.setFutureSkew(Duration.ofSeconds(2));
+        RingBufferStatCalculatorService statCalculatorService = new RingBufferStatCalculatorService(calculatorConfig, timeSource);
+        assertEquals(AddOutcome.LATE, statCalculatorService.add(new Stat(1, 2000)));
+        assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(2, 3000)));
+        assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(3, 6000)));
+        assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(4, 10000)));
+        assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(5, 12000)));
+        assertEquals(AddOutcome.FUTURE, statCalculatorService.add(new Stat(6, 13000)));
+
+        //provisional window is 6..10, final one is 3..7, the skewed record waits for its time
+        assertResult(2, 7, 4, 3, 3.5, statCalculatorService.getCurrentAggStat());
+        assertResult(2, 5, 3, 2, 2.5, statCalculatorService.getFinalAggStat());
+
+        timeSource.set(12000L);
+        assertResult(2, 9, 5, 4, 4.5, statCalculatorService.getCurrentAggStat());
+        assertResult(1, 3, 3, 3, 3, statCalculatorService.getFinalAggStat());
+    }
+
+    @Test
+    public void batchTest() {
+        timeSource.set(6000L);
+
+        RingBufferStatCalculatorService statCalculatorService = createStatService(5, 2);
+        StatBatch batch = new StatBatch(4);
+        batch.add(1, 1000);
+        batch.add(2, 2000);
+        batch.add(3, 6500);
+        batch.add(4, 7000);
+        batch.add(-1, 3000);
+        batch.add(5, 2400);
+        statCalculatorService.add(new Stat(6, 2000));
+
+        BatchResult batchResult = statCalculatorService.addAll(batch);
+        assertEquals(3, batchResult.getAccepted());
+        assertEquals(1, batchResult.getInvalid());
+        assertEquals(1, batchResult.getLate());
+        assertEquals(1, batchResult.getFuture());
+
+        assertResult(4, 16, 6, 2, 4, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void minMaxAvgTest() {
+        timeSource.set(4000L);
+
+        RingBufferStatCalculatorService statCalculatorService = createStatService(5, 1);
+        for (int i = 0; i < 10; ++i) {
+            for (int j = 0; j < 5; ++j) {
+                statCalculatorService.add(new Stat(i + i / 10.d, j * 1000));
+            }
+        }
+
+        assertResult(50, 247.5, 9.9, 0, 4.95, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void overflowSum() {
+        timeSource.set(0L);
+
+        RingBufferStatCalculatorService statCalculatorService = createStatService(5, 1);
+        statCalculatorService.add(new Stat(Double.MAX_VALUE, 100));
+        statCalculatorService.add(new Stat(Double.MAX_VALUE, 200));
+        AggregatedStat aggregatedStat = statCalculatorService.getCurrentAggStat();
+
+        assertEquals(2, aggregatedStat.getCount());
+        assertTrue(Double.isInfinite(aggregatedStat.getSum()));
+        assertEquals(Double.MAX_VALUE, aggregatedStat.getMax(), 0.1);
+        assertEquals(Double.MAX_VALUE, aggregatedStat.getMin(), 0.1);
+        assertTrue(Double.isInfinite(aggregatedStat.getAvg()));
+    }
+
+    @Test
+    public void invalidValues() {
+        timeSource.set(0L);
+
+        RingBufferStatCalculatorService statCalculatorService = createStatService(5, 1);
+        statCalculatorService.add(new Stat(-10.123, 100));
+        statCalculatorService.add(new Stat(1, -200));
+
+        assertResult(0, 0, 0, 0, 0, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void stripedRecycleSlotsTest() {
+        timeSource.set(0L);
+
+        CalculatorConfig calculatorConfig = new CalculatorConfig(5, 2);
+        calculatorConfig.setStripes(4);
+        RingBufferStatCalculatorService statCalculatorService = new RingBufferStatCalculatorService(calculatorConfig, timeSource);
+        for (int i = 0; i < 22; ++i) {
+            timeSource.set(i * 500L);
+            statCalculatorService.add(new Stat(i, i * 500L));
+        }
+        assertResult(10, 165, 21, 12, 16.5, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void fixedPointTest() {
+        timeSource.set(4000L);
+
+        CalculatorConfig calculatorConfig = new CalculatorConfig(5, 1);
+        calculatorConfig.setAmountScale(2);
+        RingBufferStatCalculatorService statCalculatorService = new RingBufferStatCalculatorService(calculatorConfig, timeSource);
+        for (int i = 0; i < 10; ++i) {
+            statCalculatorService.add(new Stat(0.1, 1000));
+        }
+        statCalculatorService.add(new Stat(0.2, 2000));
+        //doesn't fit into a long of cents
+        assertEquals(AddOutcome.INVALID, statCalculatorService.add(new Stat(1e17, 0)));
+        assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(5e16, 0)));
+        //the sum of the bucket would overflow
+        assertEquals(AddOutcome.INVALID, statCalculatorService.add(new Stat(5e16, 0)));
+
+        StatBatch batch = new StatBatch(4);
+        batch.add(0.3, 3000);
+        batch.add(0.05, 3000);
+        batch.add(5e16, 0);
+        BatchResult batchResult = statCalculatorService.addAll(batch);
+        assertEquals(2, batchResult.getAccepted());
+        assertEquals(1, batchResult.getInvalid());
+
+        //leaves the bucket of the big ones behind
+        timeSource.set(5000L);
+        AggregatedStat aggregatedStat = statCalculatorService.getCurrentAggStat();
+        //the same sum of doubles is 1.5500000000000003
+        assertEquals(1.55, aggregatedStat.getSum(), 0);
+        assertEquals(0.05, aggregatedStat.getMin(), 0);
+        assertEquals(0.3, aggregatedStat.getMax(), 0);
+        assertEquals(13, aggregatedStat.getCount());
+        AggregatedStat.Exact exact = aggregatedStat.getExact();
+        assertNotNull(exact);
+        assertEquals("1.55", exact.getSum());
+        assertEquals("0.1192307692307692", exact.getAvg());
+        assertEquals("0.30", exact.getMax());
+        assertEquals("0.05", exact.getMin());
+    }
+
+    @Test
+    public void highLoadAccuracyTest() throws Exception {
+        highLoadAccuracy(1);
+    }
+
+    @Test
+    public void stripedHighLoadAccuracyTest() throws Exception {
+        highLoadAccuracy(8);
+    }
+
+    private void highLoadAccuracy(int stripes) throws Exception {
+        final int highLoadRange = 3; //last 3 second
+        final int threads = 16;
+        final int addCycles = 10000;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CalculatorConfig calculatorConfig = new CalculatorConfig(60, 10);
+        calculatorConfig.setStripes(stripes);
+        StatCalculatorService statCalculatorService = new RingBufferStatCalculatorService(calculatorConfig);
+        final CyclicBarrier cyclicBarrierForStart = new CyclicBarrier(threads);
+        for (int k = 0; k < threads; ++k) {
+            executorService.submit(() -> {
+                try {
+                    cyclicBarrierForStart.await();
+                } catch (InterruptedException | BrokenBarrierException ignore) {
+                }
+                for (int i = 0; i < addCycles; ++i) {
+                    statCalculatorService.add(new Stat(1, System.currentTimeMillis() - (i % highLoadRange) * 100));
+                }
+            });
+        }
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertResult(threads * addCycles, threads * addCycles, 1, 1, 1, statCalculatorService.getCurrentAggStat());
+    }
+}
@@ -0,0 +1,114 @@
+package com.tango;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.services.CalculatorConfig;
+import com.tango.services.ShardedStatCalculatorService;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ShardedStatCalculatorServiceTest {
+    private final ManualTimeSource timeSource = new ManualTimeSource();
+
+    private void assertResult(int count, double sum, double max, double min, double avg, AggregatedStat aggregatedStat) {
+        assertEquals(count, aggregatedStat.getCount());
+        assertEquals(sum, aggregatedStat.getSum(), 0.1);
+        assertEquals(max, aggregatedStat.getMax(), 0.1);
+        assertEquals(min, aggregatedStat.getMin(), 0.1);
+        assertEquals(avg, aggregatedStat.getAvg(), 0.1);
+    }
+
+    private ShardedStatCalculatorService createStatService(int maxDuration, int granularity) {
+        CalculatorConfig calculatorConfig = new CalculatorConfig(maxDuration, granularity);
+        calculatorConfig.setShards(new CalculatorConfig.Shards(2, 16));
+        return new ShardedStatCalculatorService(calculatorConfig, timeSource);
+    }
+
+    @Test
+    public void bordersTest() throws Exception {
+        timeSource.set(6000L);
+
+        try (ShardedStatCalculatorService statCalculatorService = createStatService(5, 1)) {
+            statCalculatorService.add(new Stat(1, 1000));
+            statCalculatorService.add(new Stat(2, 2000));
+            statCalculatorService.add(new Stat(3, 6500));
+            statCalculatorService.add(new Stat(4, 7000));
+
+            assertResult(2, 5, 3, 2, 2.5, statCalculatorService.getCurrentAggStat());
+        }
+    }
+
+    @Test
+    public void recycleSlotsTest() throws Exception {
+        timeSource.set(0L);
+
+        try (ShardedStatCalculatorService statCalculatorService = createStatService(5, 2)) {
+            for (int i = 0; i < 22; ++i) {
+                timeSource.set(i * 500L);
+                statCalculatorService.add(new Stat(i, i * 500L));
+            }
+            assertResult(10, 165, 21, 12, 16.5, statCalculatorService.getCurrentAggStat());
+
+            timeSource.set(13000L);
+            assertResult(4, 78, 21, 18, 19.5, statCalculatorService.getCurrentAggStat());
+        }
+    }
+
+    @Test
+    public void batchTest() throws Exception {
+        timeSource.set(6000L);
+
+        try (ShardedStatCalculatorService statCalculatorService = createStatService(5, 2)) {
+            StatBatch batch = new StatBatch(4);
+            batch.add(1, 1000);
+            batch.add(2, 2000);
+            batch.add(3, 6500);
+            batch.add(4, 7000);
+            batch.add(-1, 3000);
+            batch.add(5, 2400);
+            statCalculatorService.add(new Stat(6, 2000));
+
+            BatchResult batchResult = statCalculatorService.addAll(batch);
+            assertEquals(3, batchResult.getAccepted());
+            assertEquals(1, batchResult.getInvalid());
+            assertEquals(1, batchResult.getLate());
+            assertEquals(1, batchResult.getFuture());
+
+            assertResult(4, 16, 6, 2, 4, statCalculatorService.getCurrentAggStat());
+        }
+    }
+
+    //many more records than the queues hold, every one of them is seen by the read which follows
+    @Test
+    public void highLoadAccuracyTest() throws Exception {
+        final int threads = 16;
+        final int addCycles = 10000;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CalculatorConfig calculatorConfig = new CalculatorConfig(60, 10);
+        calculatorConfig.setShards(new CalculatorConfig.Shards(4, 1024));
+        try (ShardedStatCalculatorService statCalculatorService = new ShardedStatCalculatorService(calculatorConfig)) {
+            final CyclicBarrier cyclicBarrierForStart = new CyclicBarrier(threads);
+            for (int k = 0; k < threads; ++k) {
+                executorService.submit(() -> {
+                    try {
+                        cyclicBarrierForStart.await();
+                    } catch (InterruptedException | BrokenBarrierException ignore) {
+                    }
+                    for (int i = 0; i < addCycles; ++i) {
+                        statCalculatorService.add(new Stat(1, System.currentTimeMillis() - (i % 3) * 100));
+                    }
+                });
+            }
+            executorService.shutdown();
+            assertTrue(executorService.awaitTermination(1, TimeUnit.MINUTES));
+
+            assertResult(threads * addCycles, threads * addCycles, 1, 1, 1, statCalculatorService.getCurrentAggStat());
+        }
+    }
+}
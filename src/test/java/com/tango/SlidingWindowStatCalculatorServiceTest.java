@@ -0,0 +1,271 @@
+package com.tango;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.services.CalculatorConfig;
+import com.tango.services.RingBufferStatCalculatorService;
+import com.tango.services.SlidingWindowStatCalculatorService;
+import com.tango.services.StatCalculatorService;
+import com.tango.services.StatRange;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class SlidingWindowStatCalculatorServiceTest {
+    private final ManualTimeSource timeSource = new ManualTimeSource();
+
+    private void assertResult(int count, double sum, double max, double min, double avg, AggregatedStat aggregatedStat) {
+        assertEquals(count, aggregatedStat.getCount());
+        assertEquals(sum, aggregatedStat.getSum(), 0.1);
+        assertEquals(max, aggregatedStat.getMax(), 0.1);
+        assertEquals(min, aggregatedStat.getMin(), 0.1);
+        assertEquals(avg, aggregatedStat.getAvg(), 0.1);
+    }
+
+    private SlidingWindowStatCalculatorService createStatService(int maxDuration, int granularity) {
+        return new SlidingWindowStatCalculatorService(new CalculatorConfig(maxDuration, granularity), timeSource);
+    }
+
+    @Test
+    public void bordersTest() {
+        timeSource.set(6000L);
+
+        SlidingWindowStatCalculatorService statCalculatorService = createStatService(5, 1);
+        statCalculatorService.add(new Stat(1, 1000));
+        statCalculatorService.add(new Stat(2, 2000));
+        statCalculatorService.add(new Stat(3, 6500));
+        statCalculatorService.add(new Stat(4, 7000));
+
+        assertResult(2, 5, 3, 2, 2.5, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void slideTest() {
+        timeSource.set(0L);
+
+        SlidingWindowStatCalculatorService statCalculatorService = createStatService(5, 2);
+        for (int i = 0; i < 22; ++i) {
+            timeSource.set(i * 500L);
+            statCalculatorService.add(new Stat(i, i * 500L));
+        }
+        assertResult(10, 165, 21, 12, 16.5, statCalculatorService.getCurrentAggStat());
+
+        timeSource.set(13000L);
+        assertResult(4, 78, 21, 18, 19.5, statCalculatorService.getCurrentAggStat());
+
+        timeSource.set(60000L);
+        assertResult(0, 0, 0, 0, 0, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void lateRecordsTest() {
+        timeSource.set(4000L);
+
+        SlidingWindowStatCalculatorService statCalculatorService = createStatService(5, 1);
+        statCalculatorService.add(new Stat(5, 0));
+        statCalculatorService.add(new Stat(3, 1000));
+        statCalculatorService.add(new Stat(1, 4000));
+        statCalculatorService.add(new Stat(7, 2000));
+        statCalculatorService.add(new Stat(0.5, 3000));
+        assertResult(5, 16.5, 7, 0.5, 3.3, statCalculatorService.getCurrentAggStat());
+
+        timeSource.set(6000L);
+        assertResult(3, 8.5, 7, 0.5, 2.83, statCalculatorService.getCurrentAggStat());
+
+        timeSource.set(7000L);
+        assertResult(2, 1.5, 1, 0.5, 0.75, statCalculatorService.getCurrentAggStat());
+
+        timeSource.set(8000L);
+        assertResult(1, 1, 1, 1, 1, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void rangesTest() {
+        timeSource.set(0L);
+
+        SlidingWindowStatCalculatorService statCalculatorService = createStatService(10, 2);
+        for (int i = 0; i < 30; ++i) {
+            timeSource.set(i * 500L);
+            statCalculatorService.add(new Stat(i, i * 500L));
+        }
+        //the second range wraps around the end of the slots
+        List<AggregatedStat> aggregatedStats = statCalculatorService.getAggStats(Arrays.asList(
+                new StatRange(Duration.ofSeconds(4), Duration.ZERO),
+                new StatRange(Duration.ofSeconds(8), Duration.ofSeconds(4)),
+                new StatRange(Duration.ofSeconds(10), Duration.ofSeconds(9))
+        ));
+        assertResult(8, 204, 29, 22, 25.5, aggregatedStats.get(0));
+        assertResult(8, 140, 21, 14, 17.5, aggregatedStats.get(1));
+        assertResult(2, 21, 11, 10, 10.5, aggregatedStats.get(2));
+        assertResult(6, 159, 29, 24, 26.5, statCalculatorService.getAggStat(Duration.ofSeconds(3)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooEarlyRangeTest() {
+        timeSource.set(0L);
+
+        createStatService(10, 2).getAggStats(Collections.singletonList(new StatRange(Duration.ofSeconds(11), Duration.ZERO)));
+    }
+
+    //the segment tree answers the same as a scan of the ring engine
+    @Test
+    public void rangesMatchScanTest() {
+        timeSource.set(0L);
+
+        SlidingWindowStatCalculatorService statCalculatorService = createStatService(10, 4);
+        RingBufferStatCalculatorService scanService = new RingBufferStatCalculatorService(new CalculatorConfig(10, 4), timeSource);
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; ++i) {
+            long now = i * 37L;
+            timeSource.set(now);
+            Stat stat = new Stat(random.nextInt(1000) / 10.d, now - random.nextInt(12000));
+            statCalculatorService.add(stat);
+            scanService.add(stat);
+            if (i % 100 == 99) {
+                List<StatRange> ranges = new ArrayList<>();
+                for (int from = 1; from <= 10; ++from) {
+                    for (int to = 0; to < from; ++to) {
+                        ranges.add(new StatRange(Duration.ofSeconds(from), Duration.ofSeconds(to)));
+                    }
+                }
+                List<AggregatedStat> expected = scanService.getAggStats(ranges);
+                List<AggregatedStat> actual = statCalculatorService.getAggStats(ranges);
+                for (int k = 0; k < ranges.size(); ++k) {
+                    AggregatedStat scanned = expected.get(k);
+                    assertResult((int) scanned.getCount(), scanned.getSum(), scanned.getMax(), scanned.getMin(), scanned.getAvg(), actual.get(k));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void latenessNotSupportedTest() {
+        CalculatorConfig calculatorConfig = new CalculatorConfig(5, 1);
+        calculatorConfig.setAllowedLateness(Duration.ofSeconds(3));
+        new SlidingWindowStatCalculatorService(calculatorConfig, timeSource);
+    }
+
+    @Test
+    public void batchTest() {
+        timeSource.set(6000L);
+
+        SlidingWindowStatCalculatorService statCalculatorService = createStatService(5, 2);
+        StatBatch batch = new StatBatch(4);
+        batch.add(1, 1000);
+        batch.add(2, 2000);
+        batch.add(3, 6500);
+        batch.add(4, 7000);
+        batch.add(-1, 3000);
+        batch.add(5, 2400);
+        statCalculatorService.add(new Stat(6, 2000));
+
+        BatchResult batchResult = statCalculatorService.addAll(batch);
+        assertEquals(3, batchResult.getAccepted());
+        assertEquals(1, batchResult.getInvalid());
+        assertEquals(1, batchResult.getLate());
+        assertEquals(1, batchResult.getFuture());
+
+        assertResult(4, 16, 6, 2, 4, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void minMaxAvgTest() {
+        timeSource.set(4000L);
+
+        SlidingWindowStatCalculatorService statCalculatorService = createStatService(5, 1);
+        for (int i = 0; i < 10; ++i) {
+            for (int j = 0; j < 5; ++j) {
+                statCalculatorService.add(new Stat(i + i / 10.d, j * 1000));
+            }
+        }
+
+        assertResult(50, 247.5, 9.9, 0, 4.95, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void overflowSum() {
+        timeSource.set(1000L);
+
+        SlidingWindowStatCalculatorService statCalculatorService = createStatService(5, 1);
+        statCalculatorService.add(new Stat(Double.MAX_VALUE, 100));
+        statCalculatorService.add(new Stat(Double.MAX_VALUE, 200));
+        statCalculatorService.add(new Stat(1, 1000));
+        AggregatedStat aggregatedStat = statCalculatorService.getCurrentAggStat();
+
+        assertEquals(3, aggregatedStat.getCount());
+        assertTrue(Double.isInfinite(aggregatedStat.getSum()));
+        assertEquals(Double.MAX_VALUE, aggregatedStat.getMax(), 0.1);
+        assertEquals(1, aggregatedStat.getMin(), 0.1);
+        assertTrue(Double.isInfinite(aggregatedStat.getAvg()));
+
+        //the infinite bucket has left the window
+        timeSource.set(5000L);
+        assertResult(1, 1, 1, 1, 1, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void cancellationTest() {
+        timeSource.set(1000L);
+
+        SlidingWindowStatCalculatorService statCalculatorService = createStatService(5, 1);
+        statCalculatorService.add(new Stat(1e20, 1000));
+        timeSource.set(2000L);
+        statCalculatorService.add(new Stat(0.5, 2000));
+
+        //the traffic never stops, the big bucket leaves while the others stay
+        timeSource.set(6000L);
+        statCalculatorService.add(new Stat(0.25, 6000));
+        AggregatedStat aggregatedStat = statCalculatorService.getCurrentAggStat();
+        assertEquals(2, aggregatedStat.getCount());
+        assertEquals(0.75, aggregatedStat.getSum(), 0);
+        assertEquals(0.375, aggregatedStat.getAvg(), 0);
+    }
+
+    @Test
+    public void invalidValues() {
+        timeSource.set(0L);
+
+        SlidingWindowStatCalculatorService statCalculatorService = createStatService(5, 1);
+        statCalculatorService.add(new Stat(-10.123, 100));
+        statCalculatorService.add(new Stat(1, -200));
+
+        assertResult(0, 0, 0, 0, 0, statCalculatorService.getCurrentAggStat());
+    }
+
+    @Test
+    public void highLoadAccuracyTest() throws Exception {
+        final int highLoadRange = 3; //last 3 second
+        final int threads = 16;
+        final int addCycles = 10000;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        StatCalculatorService statCalculatorService = new SlidingWindowStatCalculatorService(new CalculatorConfig(60, 10));
+        final CyclicBarrier cyclicBarrierForStart = new CyclicBarrier(threads);
+        for (int k = 0; k < threads; ++k) {
+            executorService.submit(() -> {
+                try {
+                    cyclicBarrierForStart.await();
+                } catch (InterruptedException | BrokenBarrierException ignore) {
+                }
+                for (int i = 0; i < addCycles; ++i) {
+                    statCalculatorService.add(new Stat(1, System.currentTimeMillis() - (i % highLoadRange) * 100));
+                    statCalculatorService.getCurrentAggStat();
+                }
+            });
+        }
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertResult(threads * addCycles, threads * addCycles, 1, 1, 1, statCalculatorService.getCurrentAggStat());
+    }
+}
@@ -0,0 +1,107 @@
+package com.tango;
+
+import com.tango.controllers.StatAdmission;
+import com.tango.controllers.StatAdmissionFilter;
+import com.tango.services.CalculatorConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class StatAdmissionTest {
+
+    private StatAdmission admission(int maxLimit, int minLimit) {
+        CalculatorConfig.Admission config = new CalculatorConfig.Admission(maxLimit, minLimit, Duration.ofMillis(1));
+        //every release adjusts the limit
+        config.setAdjustInterval(Duration.ZERO);
+        return new StatAdmission(config, new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void shedTest() {
+        StatAdmission admission = admission(2, 1);
+
+        assertTrue(admission.tryAcquire());
+        assertTrue(admission.tryAcquire());
+        assertFalse(admission.tryAcquire());
+        assertEquals(1, admission.getShed());
+
+        admission.release(0);
+        assertTrue(admission.tryAcquire());
+        assertEquals(2, admission.getLimit());
+        assertEquals("1", admission.getRetryAfter());
+    }
+
+    //the filter sheds ingest requests before the handlers and samples a batch by its time in the engine
+    @Test
+    public void filterTest() throws Exception {
+        StatAdmission admission = admission(1, 1);
+        StatAdmissionFilter filter = new StatAdmissionFilter(admission);
+
+        MockHttpServletRequest batch = new MockHttpServletRequest("POST", "/transactions/batch");
+        MockHttpServletResponse admitted = new MockHttpServletResponse();
+        filter.doFilter(batch, admitted, new MockFilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                //the engine is slow, only a request queued behind this one gets shed
+                ((AtomicLong) request.getAttribute(StatAdmission.ENGINE_NANOS_ATTRIBUTE)).addAndGet(TimeUnit.MILLISECONDS.toNanos(5));
+                MockHttpServletResponse shed = new MockHttpServletResponse();
+                try {
+                    filter.doFilter(new MockHttpServletRequest("POST", "/transactions"), shed, new MockFilterChain());
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+                assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), shed.getStatus());
+                assertEquals("1", shed.getHeader(HttpHeaders.RETRY_AFTER));
+            }
+        });
+        assertEquals(HttpStatus.OK.value(), admitted.getStatus());
+        assertEquals(1, admission.getShed());
+
+        //reads aren't limited
+        MockHttpServletResponse read = new MockHttpServletResponse();
+        assertTrue(admission.tryAcquire());
+        filter.doFilter(new MockHttpServletRequest("GET", "/statistics"), read, new MockFilterChain());
+        assertEquals(HttpStatus.OK.value(), read.getStatus());
+    }
+
+    @Test
+    public void adaptiveLimitTest() {
+        StatAdmission admission = admission(20, 10);
+
+        assertTrue(admission.tryAcquire());
+        admission.release(TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(18, admission.getLimit());
+
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(admission.tryAcquire());
+            admission.release(TimeUnit.MILLISECONDS.toNanos(5));
+        }
+        assertEquals(10, admission.getLimit());
+
+        assertTrue(admission.tryAcquire());
+        admission.release(TimeUnit.MICROSECONDS.toNanos(5));
+        assertEquals(11, admission.getLimit());
+    }
+
+    @Test
+    public void disabledTest() {
+        StatAdmission admission = new StatAdmission(new CalculatorConfig.Admission(), new SimpleMeterRegistry());
+
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(admission.tryAcquire());
+        }
+        assertEquals(0, admission.getShed());
+    }
+}
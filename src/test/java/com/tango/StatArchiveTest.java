@@ -0,0 +1,163 @@
+package com.tango;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.Stat;
+import com.tango.services.AddOutcome;
+import com.tango.services.CalculatorConfig;
+import com.tango.services.CalculatorConfigValidator;
+import com.tango.services.InMemoryStatCalculatorService;
+import com.tango.services.StatArchive;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.powermock.reflect.Whitebox;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class StatArchiveTest {
+    private static final long DAY = 24 * 60 * 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ManualTimeSource timeSource = new ManualTimeSource();
+
+    private void assertResult(long count, double sum, double max, double min, double avg, AggregatedStat aggregatedStat) {
+        assertEquals(count, aggregatedStat.getCount());
+        assertEquals(sum, aggregatedStat.getSum(), 0.1);
+        assertEquals(max, aggregatedStat.getMax(), 0.1);
+        assertEquals(min, aggregatedStat.getMin(), 0.1);
+        assertEquals(avg, aggregatedStat.getAvg(), 0.1);
+    }
+
+    //brute force aggregate of the seconds of [fromSecond, toSecond) generated like in rangeTest
+    private AggregatedStat expected(long[] counts, double[] sums, double[] maxs, double[] mins, long fromSecond, long toSecond) {
+        double sum = 0;
+        long count = 0;
+        double max = Double.NEGATIVE_INFINITY;
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = (int) Math.max(0, fromSecond); i < Math.min(counts.length, toSecond); ++i) {
+            if (counts[i] > 0) {
+                sum += sums[i];
+                count += counts[i];
+                max = Math.max(max, maxs[i]);
+                min = Math.min(min, mins[i]);
+            }
+        }
+        return new AggregatedStat(sum, count > 0 ? sum / count : 0, count > 0 ? max : 0, count > 0 ? min : 0, count);
+    }
+
+    @Test
+    public void rangeTest() throws Exception {
+        File directory = folder.newFolder();
+        Random random = new Random(42);
+        //a day and a half of seconds from the epoch, every tenth of them without records
+        int seconds = (int) (DAY * 3 / 2);
+        long[] counts = new long[seconds];
+        double[] sums = new double[seconds];
+        double[] maxs = new double[seconds];
+        double[] mins = new double[seconds];
+        try (StatArchive statArchive = new StatArchive(directory.toPath(), 1024)) {
+            for (int second = 0; second < seconds; ++second) {
+                if (random.nextInt(10) == 0) {
+                    continue;
+                }
+                counts[second] = 1 + random.nextInt(100);
+                mins[second] = random.nextInt(1000) / 100.0;
+                maxs[second] = mins[second] + random.nextInt(100000) / 100.0;
+                sums[second] = (mins[second] + maxs[second]) / 2 * counts[second];
+                statArchive.append(second, sums[second], counts[second], maxs[second], mins[second]);
+            }
+            //the open block is answered from memory
+            AggregatedStat expected = expected(counts, sums, maxs, mins, seconds - 10, seconds);
+            AggregatedStat actual = statArchive.getAggStat((seconds - 10) * 1000L, seconds * 1000L);
+            assertResult(expected.getCount(), expected.getSum(), expected.getMax(), expected.getMin(), expected.getAvg(), actual);
+        }
+
+        long size;
+        try (Stream<Path> files = Files.list(directory.toPath())) {
+            size = files.mapToLong(file -> file.toFile().length()).sum();
+        }
+        assertTrue("a day and a half takes " + size + " bytes", size < 6 * 1024 * 1024);
+
+        try (StatArchive statArchive = new StatArchive(directory.toPath(), 1024)) {
+            long[][] ranges = {
+                    {0, seconds}, {1, 2}, {100, 5000}, {DAY - 700, DAY + 700}, {5000, 5000 + 1024 * 3}, {-100, 10}, {seconds - 1, seconds + 100}
+            };
+            for (long[] range : ranges) {
+                AggregatedStat expected = expected(counts, sums, maxs, mins, range[0], range[1]);
+                AggregatedStat actual = statArchive.getAggStat(range[0] * 1000, range[1] * 1000);
+                assertResult(expected.getCount(), expected.getSum(), expected.getMax(), expected.getMin(), expected.getAvg(), actual);
+            }
+            //only the days which have files are visited
+            AggregatedStat all = expected(counts, sums, maxs, mins, 0, seconds);
+            AggregatedStat actual = statArchive.getAggStat(-9000000000000000000L, Long.MAX_VALUE);
+            assertResult(all.getCount(), all.getSum(), all.getMax(), all.getMin(), all.getAvg(), actual);
+            //the restarted archive continues after the last second, archived seconds aren't changed
+            statArchive.append(5, 1000, 1, 1000, 1000);
+            assertEquals(counts[5], statArchive.getAggStat(5000, 6000).getCount());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRangeTest() throws Exception {
+        try (StatArchive statArchive = new StatArchive(folder.newFolder().toPath(), 16)) {
+            statArchive.getAggStat(1000, 1000);
+        }
+    }
+
+    //only the map engine feeds the archive, the others would leave /statistics/history empty
+    @Test
+    public void engineTest() {
+        CalculatorConfig calculatorConfig = new CalculatorConfig(60, 1);
+        calculatorConfig.getArchive().setDirectory(folder.getRoot().getPath());
+        Errors errors = new BeanPropertyBindingResult(calculatorConfig, "stat");
+        new CalculatorConfigValidator().validate(calculatorConfig, errors);
+        assertFalse(errors.hasErrors());
+
+        calculatorConfig.setEngine("ring");
+        new CalculatorConfigValidator().validate(calculatorConfig, errors);
+        assertNotNull(errors.getFieldError("archive"));
+    }
+
+    @Test
+    public void evictionTest() throws Exception {
+        timeSource.set(10000L);
+
+        try (StatArchive statArchive = new StatArchive(folder.newFolder().toPath(), 16);
+             InMemoryStatCalculatorService statCalculatorService =
+                     new InMemoryStatCalculatorService(new CalculatorConfig(5, 2), timeSource, statArchive)) {
+            statCalculatorService.add(new Stat(1, 6000));
+            statCalculatorService.add(new Stat(2, 6600));
+            statCalculatorService.add(new Stat(3, 7000));
+            statCalculatorService.add(new Stat(4, 10000));
+
+            timeSource.set(13000L);
+            //don't relay on task scheduled
+            Whitebox.invokeMethod(statCalculatorService, "reduceAggregatorIfRequired");
+
+            assertResult(2, 3, 2, 1, 1.5, statArchive.getAggStat(6000, 7000));
+            assertResult(3, 6, 3, 1, 2, statArchive.getAggStat(0, 10000));
+            assertResult(1, 4, 4, 4, 4, statCalculatorService.getCurrentAggStat());
+            //only whole seconds of the range are counted, at both ends
+            assertResult(2, 3, 2, 1, 1.5, statArchive.getAggStat(5500, 7500));
+            assertEquals(0, statArchive.getAggStat(6500, 7000).getCount());
+
+            //a record classified against a clock read from before the eviction doesn't bring its bucket back
+            timeSource.set(10000L);
+            assertEquals(AddOutcome.LATE, statCalculatorService.add(new Stat(5, 6000)));
+            timeSource.set(13000L);
+            Whitebox.invokeMethod(statCalculatorService, "reduceAggregatorIfRequired");
+            assertResult(2, 3, 2, 1, 1.5, statArchive.getAggStat(6000, 7000));
+            assertResult(1, 4, 4, 4, 4, statCalculatorService.getCurrentAggStat());
+        }
+    }
+}
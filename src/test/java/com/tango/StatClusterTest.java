@@ -0,0 +1,146 @@
+package com.tango;
+
+import com.sun.net.httpserver.HttpServer;
+import com.tango.controllers.StatCluster;
+import com.tango.controllers.StatPartialsCodec;
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.Stat;
+import com.tango.domain.StatPartials;
+import com.tango.services.CalculatorConfig;
+import com.tango.services.InMemoryStatCalculatorService;
+import com.tango.services.RingBufferStatCalculatorService;
+import com.tango.services.ShardedStatCalculatorService;
+import com.tango.services.SlidingWindowStatCalculatorService;
+import com.tango.services.StatCalculatorService;
+import com.tango.services.TieredStatCalculatorService;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StatClusterTest {
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    @After
+    public void stopPeers() {
+        servers.forEach(server -> server.stop(0));
+    }
+
+    private void assertResult(int count, double sum, double max, double min, double avg, AggregatedStat aggregatedStat) {
+        assertEquals(count, aggregatedStat.getCount());
+        assertEquals(sum, aggregatedStat.getSum(), 0.1);
+        assertEquals(max, aggregatedStat.getMax(), 0.1);
+        assertEquals(min, aggregatedStat.getMin(), 0.1);
+        assertEquals(avg, aggregatedStat.getAvg(), 0.1);
+    }
+
+    //a peer which serves the partials of its engine after delayMillis
+    private String peer(StatCalculatorService statCalculatorService, long delayMillis) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/statistics/partials", exchange -> {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = StatPartialsCodec.encode(statCalculatorService.getCurrentPartials());
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        servers.add(server);
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @Test
+    public void codecTest() {
+        StatPartials partials = new StatPartials(1000, 10, 69, 4);
+        partials.add(12, 3, 2, 2, 1);
+        partials.add(12, 5, 1, 5, 5);
+        partials.add(40, 7.5, 1, 7.5, 7.5);
+
+        StatPartials decoded = StatPartialsCodec.decode(StatPartialsCodec.encode(partials));
+
+        assertEquals(2, decoded.size());
+        assertEquals(10, decoded.getFromBucket());
+        assertEquals(69, decoded.getToBucket());
+        assertEquals(12, decoded.getBucket(0));
+        assertEquals(3, decoded.getCount(0));
+        assertResult(4, 15.5, 7.5, 1, 3.875, decoded.toAggregatedStat());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedTest() {
+        StatPartials partials = new StatPartials(1000, 10, 69, 1);
+        partials.add(12, 3, 2, 2, 1);
+        byte[] bytes = StatPartialsCodec.encode(partials);
+        StatPartialsCodec.decode(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    //every engine exports the window it aggregates itself
+    @Test
+    public void enginesTest() throws Exception {
+        long now = System.currentTimeMillis();
+        CalculatorConfig calculatorConfig = new CalculatorConfig(60, 2);
+        ShardedStatCalculatorService sharded = new ShardedStatCalculatorService(calculatorConfig);
+        try {
+            for (StatCalculatorService statCalculatorService : Arrays.asList(
+                    new SlidingWindowStatCalculatorService(calculatorConfig),
+                    new TieredStatCalculatorService(calculatorConfig),
+                    sharded)) {
+                for (int i = 0; i < 10; ++i) {
+                    statCalculatorService.add(new Stat(i, now - i * 7000L));
+                }
+                StatPartials partials = statCalculatorService.getCurrentPartials();
+
+                assertEquals(500, partials.getBucketMillis());
+                assertEquals(9, partials.size());
+                assertResult(9, 36, 8, 0, 4, partials.toAggregatedStat());
+                assertResult(9, 36, 8, 0, 4, statCalculatorService.getCurrentAggStat());
+            }
+        } finally {
+            sharded.close();
+        }
+    }
+
+    @Test
+    public void clusterTest() throws Exception {
+        long now = System.currentTimeMillis();
+        StatCalculatorService local = new RingBufferStatCalculatorService(new CalculatorConfig(60, 1));
+        StatCalculatorService first = new RingBufferStatCalculatorService(new CalculatorConfig(60, 1));
+        InMemoryStatCalculatorService second = new InMemoryStatCalculatorService(new CalculatorConfig(60, 1));
+        StatCalculatorService slow = new RingBufferStatCalculatorService(new CalculatorConfig(60, 1));
+        try {
+            local.add(new Stat(1, now));
+            first.add(new Stat(2, now));
+            first.add(new Stat(3, now - 10000));
+            second.add(new Stat(10, now - 20000));
+            slow.add(new Stat(100, now));
+
+            List<String> peers = Arrays.asList(peer(first, 0), peer(second, 0), peer(slow, 2000), "http://localhost:1");
+            StatCluster statCluster = new StatCluster(new CalculatorConfig.Cluster(peers, Duration.ofMillis(500)),
+                    local::getCurrentPartials);
+            try {
+                long start = System.nanoTime();
+                StatCluster.Result result = statCluster.aggregate();
+
+                assertTrue(System.nanoTime() - start < Duration.ofMillis(1500).toNanos());
+                assertEquals(2, result.getMissingPeers());
+                assertResult(4, 16, 10, 1, 4, result.getAggregatedStat());
+            } finally {
+                statCluster.close();
+            }
+        } finally {
+            second.close();
+        }
+    }
+}
@@ -8,17 +8,27 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.util.concurrent.TimeUnit;
 
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
@@ -62,6 +72,242 @@ public class StatControllerTest {
                 )));
     }
 
+    @Test
+    public void notModifiedTest() throws Exception {
+        mvc.perform(post("/transactions")
+                .content(objectMapper.writeValueAsString(new Stat(12.4, System.currentTimeMillis())))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+
+        String eTag = mvc.perform(get("/statistics").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"))
+                .andExpect(content().json(objectMapper.writeValueAsString(
+                        new AggregatedStat(12.4, 12.4, 12.4, 12.4, 1)
+                )))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        //nothing has changed unless the second has just turned
+        MvcResult polled = mvc.perform(get("/statistics").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andReturn();
+        if (polled.getResponse().getStatus() == HttpStatus.NOT_MODIFIED.value()) {
+            assertEquals(eTag, polled.getResponse().getHeader(HttpHeaders.ETAG));
+        } else {
+            eTag = polled.getResponse().getHeader(HttpHeaders.ETAG);
+        }
+
+        mvc.perform(post("/transactions")
+                .content(objectMapper.writeValueAsString(new Stat(1, System.currentTimeMillis())))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+        mvc.perform(get("/statistics").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(2));
+    }
+
+    @Test
+    public void rangesTest() throws Exception {
+        mvc.perform(post("/transactions")
+                .content(objectMapper.writeValueAsString(new Stat(12.4, System.currentTimeMillis())))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+
+        mvc.perform(get("/statistics?from=3s,5s&to=0,3").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[" +
+                        objectMapper.writeValueAsString(new AggregatedStat(12.4, 12.4, 12.4, 12.4, 1)) + "," +
+                        objectMapper.writeValueAsString(new AggregatedStat(0, 0, 0, 0, 0)) + "]"
+                ));
+
+        mvc.perform(get("/statistics?from=3s&to=3s").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/statistics?from=3s,2s&to=0").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void batchTest() throws Exception {
+        long now = System.currentTimeMillis();
+        mvc.perform(post("/transactions/batch")
+                .content("[{\"amount\":1.5,\"timestamp\":" + now + "}," +
+                        "{\"amount\":2.5,\"timestamp\":" + now + ",\"comment\":{\"ignored\":[1,2]}}," +
+                        "{\"amount\":-1,\"timestamp\":" + now + "}," +
+                        "{\"amount\":1}," +
+                        "{\"amount\":1,\"timestamp\":" + (now - 60000) + "}," +
+                        "{\"amount\":1,\"timestamp\":" + (now + 60000) + "}]")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated())
+                .andExpect(content().json("{\"accepted\":2,\"invalid\":2,\"late\":1,\"future\":1}"));
+
+        mvc.perform(post("/transactions/batch")
+                .content("{\"amount\":3,\"timestamp\":" + now + "}\n{\"amount\":5,\"timestamp\":" + now + "}\n")
+                .contentType("application/x-ndjson"))
+                .andExpect(status().isCreated())
+                .andExpect(content().json("{\"accepted\":2,\"invalid\":0,\"late\":0,\"future\":0}"));
+
+        mvc.perform(get("/statistics").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(
+                        new AggregatedStat(12, 3, 5, 1.5, 4)
+                )));
+    }
+
+    @Test
+    public void malformedBatchTest() throws Exception {
+        mvc.perform(post("/transactions/batch")
+                .content("[{\"amount\":1,")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        mvc.perform(post("/transactions/batch")
+                .content("[1, 2]")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void quotedBatchTest() throws Exception {
+        long now = System.currentTimeMillis();
+        mvc.perform(post("/transactions/batch")
+                .content("[{\"amount\":\"2.5\",\"timestamp\":\"" + now + "\"}," +
+                        "{\"amount\":\" 1.5 \",\"timestamp\":" + now + "}," +
+                        "{\"amount\":\"abc\",\"timestamp\":" + now + "}," +
+                        "{\"amount\":1,\"timestamp\":\"" + now + ".5\"}]")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated())
+                .andExpect(content().json("{\"accepted\":2,\"invalid\":2,\"late\":0,\"future\":0}"));
+
+        mvc.perform(get("/statistics").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(
+                        new AggregatedStat(4, 2, 2.5, 1.5, 2)
+                )));
+    }
+
+    @Test
+    public void streamTest() throws Exception {
+        mvc.perform(post("/transactions")
+                .content(objectMapper.writeValueAsString(new Stat(12.4, System.currentTimeMillis())))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+
+        MvcResult result = mvc.perform(get("/statistics/stream").accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        TimeUnit.MILLISECONDS.sleep(2500);
+        assertThat(result.getResponse().getContentAsString(), containsString(
+                "data:" + objectMapper.writeValueAsString(new AggregatedStat(12.4, 12.4, 12.4, 12.4, 1))
+        ));
+    }
+
+    @Test
+    public void quantilesTest() throws Exception {
+        for (int i = 1; i <= 10; ++i) {
+            mvc.perform(post("/transactions")
+                    .content(objectMapper.writeValueAsString(new Stat(i, System.currentTimeMillis())))
+                    .contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isCreated());
+        }
+
+        mvc.perform(get("/statistics/quantiles").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(10))
+                .andExpect(jsonPath("$.quantiles.['0.5']").value(closeTo(5, 0.2)))
+                .andExpect(jsonPath("$.quantiles.['0.95']").value(closeTo(10, 0.4)))
+                .andExpect(jsonPath("$.quantiles.['0.99']").value(closeTo(10, 0.4)));
+
+        mvc.perform(get("/statistics/quantiles?q=0.5,1.5").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void windowTest() throws Exception {
+        mvc.perform(post("/transactions")
+                .content(objectMapper.writeValueAsString(new Stat(12.4, System.currentTimeMillis())))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+
+        mvc.perform(get("/statistics?window=2s").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(
+                        new AggregatedStat(12.4, 12.4, 12.4, 12.4, 1)
+                )));
+
+        mvc.perform(get("/statistics?window=1h").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/statistics?window=abc").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void keyedTest() throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= 3; ++i) {
+            mvc.perform(post("/transactions")
+                    .content(objectMapper.writeValueAsString(new Stat(i, now, "merchant" + i)))
+                    .contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isCreated());
+        }
+        mvc.perform(post("/transactions/batch")
+                .content("{\"amount\":10,\"timestamp\":" + now + ",\"key\":\"merchant1\"}\n" +
+                        "{\"amount\":20,\"timestamp\":" + now + ",\"key\":\"\"}\n")
+                .contentType("application/x-ndjson"))
+                .andExpect(status().isCreated())
+                .andExpect(content().json("{\"accepted\":1,\"invalid\":1,\"late\":0,\"future\":0}"));
+        mvc.perform(post("/transactions")
+                .content("{\"amount\":1,\"timestamp\":" + now + ",\"key\":\"\"}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        mvc.perform(get("/statistics/keys/merchant1").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(
+                        new AggregatedStat(11, 5.5, 10, 1, 2)
+                )));
+        mvc.perform(get("/statistics/keys?top=2").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].key").value("merchant1"))
+                .andExpect(jsonPath("$[0].sum").value(11.0))
+                .andExpect(jsonPath("$[1].key").value("merchant3"));
+        mvc.perform(get("/statistics/keys?top=0").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/statistics").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(4));
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        long now = System.currentTimeMillis();
+        mvc.perform(post("/transactions")
+                .content(objectMapper.writeValueAsString(new Stat(1, now)))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+        mvc.perform(post("/transactions/batch")
+                .content("{\"amount\":-1,\"timestamp\":" + now + "}\n" +
+                        "{\"amount\":1,\"timestamp\":" + (now - 60000) + "}\n")
+                .contentType("application/x-ndjson"))
+                .andExpect(status().isCreated());
+        mvc.perform(get("/statistics").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        mvc.perform(get("/actuator/metrics/stat.records?tag=outcome:accepted"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.measurements[0].value").value(1.0));
+        mvc.perform(get("/actuator/metrics/stat.records?tag=outcome:invalid"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.measurements[0].value").value(1.0));
+        mvc.perform(get("/actuator/metrics/stat.records?tag=outcome:late"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.measurements[0].value").value(1.0));
+        mvc.perform(get("/actuator/metrics/stat.read.latency"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.measurements[0].value").value(1.0));
+        mvc.perform(get("/actuator/metrics/stat.window.buckets"))
+                .andExpect(status().isOk());
+    }
+
     @Test
     public void rottedTest() throws Exception {
         mvc.perform(post("/transactions")
@@ -0,0 +1,101 @@
+package com.tango;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.StatBatch;
+import com.tango.services.CalculatorConfig;
+import com.tango.services.RingBufferStatCalculatorService;
+import com.tango.services.StatCalculatorService;
+import com.tango.services.StatJournal;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class StatJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void assertResult(int count, double sum, double max, double min, double avg, AggregatedStat aggregatedStat) {
+        assertEquals(count, aggregatedStat.getCount());
+        assertEquals(sum, aggregatedStat.getSum(), 0.1);
+        assertEquals(max, aggregatedStat.getMax(), 0.1);
+        assertEquals(min, aggregatedStat.getMin(), 0.1);
+        assertEquals(avg, aggregatedStat.getAvg(), 0.1);
+    }
+
+    private CalculatorConfig createConfig(File directory, Duration checkpointInterval) {
+        CalculatorConfig calculatorConfig = new CalculatorConfig(60, 4);
+        calculatorConfig.getPersistence().setDirectory(directory.getPath());
+        calculatorConfig.getPersistence().setCommitInterval(Duration.ofMillis(1));
+        calculatorConfig.getPersistence().setCheckpointInterval(checkpointInterval);
+        return calculatorConfig;
+    }
+
+    @Test
+    public void restartTest() throws Exception {
+        File directory = folder.newFolder();
+        CalculatorConfig calculatorConfig = createConfig(directory, Duration.ofMillis(50));
+        long now = System.currentTimeMillis();
+
+        StatCalculatorService statCalculatorService = new RingBufferStatCalculatorService(calculatorConfig);
+        try (StatJournal statJournal = new StatJournal(calculatorConfig, statCalculatorService)) {
+            statJournal.append(1, now);
+            statJournal.append(2, now - 1000);
+            StatBatch batch = new StatBatch(4);
+            batch.add(3, now - 2000);
+            batch.add(4, now - 120000);
+            batch.add(-1, now);
+            statJournal.appendAll(batch, now);
+            //in the future at the clock of the engine, so it hasn't been accepted
+            StatBatch future = new StatBatch(1);
+            future.add(7, now);
+            statJournal.appendAll(future, now - 10000);
+            Thread.sleep(200);
+            statJournal.append(10, now);
+        }
+
+        StatCalculatorService restarted = new RingBufferStatCalculatorService(calculatorConfig);
+        try (StatJournal statJournal = new StatJournal(calculatorConfig, restarted)) {
+            assertResult(4, 16, 10, 1, 4, restarted.getCurrentAggStat());
+            assertEquals(0, statJournal.dropped());
+        }
+    }
+
+    @Test
+    public void crashTest() throws Exception {
+        File directory = folder.newFolder();
+        File copy = folder.newFolder();
+        File logOnlyCopy = folder.newFolder();
+        long now = System.currentTimeMillis();
+
+        //no checkpoint happens, the copy has both the log and the mirror with the records applied
+        CalculatorConfig calculatorConfig = createConfig(directory, Duration.ofHours(1));
+        StatCalculatorService statCalculatorService = new RingBufferStatCalculatorService(calculatorConfig);
+        try (StatJournal statJournal = new StatJournal(calculatorConfig, statCalculatorService)) {
+            for (int i = 1; i <= 100; ++i) {
+                statJournal.append(i, now - i * 10);
+            }
+            Thread.sleep(200);
+            for (File file : directory.listFiles()) {
+                Files.copy(file.toPath(), copy.toPath().resolve(file.getName()));
+                if (!file.getName().equals("stat.mirror")) {
+                    Files.copy(file.toPath(), logOnlyCopy.toPath().resolve(file.getName()));
+                }
+            }
+        }
+
+        for (File restored : new File[]{copy, logOnlyCopy}) {
+            CalculatorConfig restoredConfig = createConfig(restored, Duration.ofHours(1));
+            StatCalculatorService restarted = new RingBufferStatCalculatorService(restoredConfig);
+            try (StatJournal ignored = new StatJournal(restoredConfig, restarted)) {
+                assertResult(100, 5050, 100, 1, 50.5, restarted.getCurrentAggStat());
+            }
+        }
+    }
+}
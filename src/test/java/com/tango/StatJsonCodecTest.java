@@ -0,0 +1,106 @@
+package com.tango;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tango.controllers.StatJsonCodec;
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.Stat;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class StatJsonCodecTest {
+    private final StatJsonCodec codec = new StatJsonCodec();
+
+    private Stat read(String json) throws Exception {
+        return (Stat) codec.read(Stat.class, new MockHttpInputMessage(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void readTest() throws Exception {
+        Stat stat = read("{\"amount\":12.3,\"timestamp\":1478192204000}");
+        assertEquals(12.3, stat.getAmount(), 0);
+        assertEquals(1478192204000L, stat.getTimestamp());
+        assertNull(stat.getKey());
+
+        stat = read(" {\n \"extra\": {\"a\": [1, \"}\", null]}, \"key\" : \"m\\u00e9r\\\"chant\", \"amount\": 1.5e2," +
+                " \"flag\": true, \"timestamp\": 7 } ");
+        assertEquals(150, stat.getAmount(), 0);
+        assertEquals(7, stat.getTimestamp());
+        assertEquals("mér\"chant", stat.getKey());
+
+        assertEquals("mérchant", read("{\"key\":\"mérchant\"}").getKey());
+        assertEquals(0.1, read("{\"amount\":0.1}").getAmount(), 0);
+        assertEquals(123456789.123456789, read("{\"amount\":123456789.123456789}").getAmount(), 0);
+        assertEquals(0, read("{\"amount\":null}").getAmount(), 0);
+    }
+
+    //the coercions Jackson applies to Stat by default give the same records
+    @Test
+    public void coercionTest() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        String[] bodies = {
+                "{\"amount\":\"12.3\",\"timestamp\":\"1478192204000\"}",
+                "{\"amount\":\" 7 \",\"timestamp\":1.5E12}",
+                "{\"amount\":\"\",\"timestamp\":\"\"}",
+                "{\"amount\":\"Infinity\",\"timestamp\":1478192204000.9}",
+                "{\"amount\":1e2,\"timestamp\":15e11}"
+        };
+        for (String body : bodies) {
+            Stat expected = objectMapper.readValue(body, Stat.class);
+            Stat stat = read(body);
+            assertEquals(body, expected.getAmount(), stat.getAmount(), 0);
+            assertEquals(body, expected.getTimestamp(), stat.getTimestamp());
+        }
+        assertEquals(1500000000000L, read("{\"timestamp\":1.5E12}").getTimestamp());
+    }
+
+    @Test
+    public void invalidTest() throws Exception {
+        String[] bodies = {
+                "{\"amount\":-1,\"timestamp\":1}",
+                "{\"amount\":1,\"timestamp\":-1}",
+                "{\"amount\":1,\"timestamp\":1,\"key\":\"\"}",
+                "{\"amount\":\"one\"}",
+                "{\"amount\":1,\"timestamp\":\"1.5\"}",
+                "{\"amount\":1,\"timestamp\":1e19}",
+                "{\"amount\":1",
+                "{\"amount\":1}}",
+                "[]",
+                ""
+        };
+        for (String body : bodies) {
+            try {
+                read(body);
+                fail(body);
+            } catch (HttpMessageNotReadableException expected) {
+                //rejected like bean validation or Jackson would
+            }
+        }
+    }
+
+    @Test
+    public void writeTest() throws Exception {
+        assertTrue(codec.canWrite(AggregatedStat.class, MediaType.APPLICATION_JSON));
+        assertFalse(codec.canWrite(Stat.class, MediaType.APPLICATION_JSON));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (AggregatedStat aggregatedStat : Arrays.asList(
+                new AggregatedStat(12.4, 6.2, 10, 2.4, 2),
+                new AggregatedStat(12.4, 6.2, 10, 2.4, 2, new AggregatedStat.Exact("12.40", "6.2", "10.00", "2.40")))) {
+            MockHttpOutputMessage output = new MockHttpOutputMessage();
+            codec.write(aggregatedStat, MediaType.APPLICATION_JSON, output);
+
+            assertEquals(objectMapper.readTree(objectMapper.writeValueAsString(aggregatedStat)),
+                    objectMapper.readTree(output.getBodyAsString(StandardCharsets.UTF_8)));
+        }
+    }
+}
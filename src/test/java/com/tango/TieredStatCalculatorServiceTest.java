@@ -0,0 +1,98 @@
+package com.tango;
+
+import com.tango.domain.AggregatedStat;
+import com.tango.domain.BatchResult;
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.services.AddOutcome;
+import com.tango.services.CalculatorConfig;
+import com.tango.services.TieredStatCalculatorService;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class TieredStatCalculatorServiceTest {
+    private final ManualTimeSource timeSource = new ManualTimeSource();
+
+    private void assertResult(int count, double sum, double max, double min, double avg, AggregatedStat aggregatedStat) {
+        assertEquals(count, aggregatedStat.getCount());
+        assertEquals(sum, aggregatedStat.getSum(), 0.1);
+        assertEquals(max, aggregatedStat.getMax(), 0.1);
+        assertEquals(min, aggregatedStat.getMin(), 0.1);
+        assertEquals(avg, aggregatedStat.getAvg(), 0.1);
+    }
+
+    private TieredStatCalculatorService createStatService() {
+        CalculatorConfig calculatorConfig = new CalculatorConfig(5, 2);
+        calculatorConfig.setTiers(Arrays.asList(
+                new CalculatorConfig.Tier(Duration.ofSeconds(1), Duration.ofSeconds(20)),
+                new CalculatorConfig.Tier(Duration.ofSeconds(5), Duration.ofSeconds(60))
+        ));
+        return new TieredStatCalculatorService(calculatorConfig, timeSource);
+    }
+
+    @Test
+    public void windowsTest() {
+        timeSource.set(0L);
+
+        TieredStatCalculatorService statCalculatorService = createStatService();
+        for (int sec = 0; sec < 100; ++sec) {
+            timeSource.set(sec * 1000L + 500);
+            assertEquals(AddOutcome.ACCEPTED, statCalculatorService.add(new Stat(sec, sec * 1000L + 500)));
+        }
+        assertEquals(AddOutcome.LATE, statCalculatorService.add(new Stat(1000, 90000)));
+
+        assertResult(5, 485, 99, 95, 97, statCalculatorService.getCurrentAggStat());
+        assertResult(5, 485, 99, 95, 97, statCalculatorService.getAggStat(Duration.ofSeconds(5)));
+        assertResult(2, 197, 99, 98, 98.5, statCalculatorService.getAggStat(Duration.ofSeconds(2)));
+        //per second tier
+        assertResult(20, 1790, 99, 80, 89.5, statCalculatorService.getAggStat(Duration.ofSeconds(20)));
+        //per 5 seconds tier
+        assertResult(30, 2535, 99, 70, 84.5, statCalculatorService.getAggStat(Duration.ofSeconds(30)));
+        assertResult(60, 4170, 99, 40, 69.5, statCalculatorService.getAggStat(Duration.ofMinutes(1)));
+
+        //the current 5 seconds bucket is partial, the window isn't widened to make up for it
+        timeSource.set(102500L);
+        assertResult(25, 2175, 99, 75, 87, statCalculatorService.getAggStat(Duration.ofSeconds(30)));
+    }
+
+    //would have to be widened to the beginning of the oldest 5 seconds bucket
+    @Test(expected = IllegalArgumentException.class)
+    public void unalignedWindowTest() {
+        createStatService().getAggStat(Duration.ofSeconds(33));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLongWindowTest() {
+        createStatService().getAggStat(Duration.ofSeconds(61));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fractionalWindowTest() {
+        createStatService().getAggStat(Duration.ofMillis(1500));
+    }
+
+    @Test
+    public void batchTest() {
+        timeSource.set(10000L);
+
+        TieredStatCalculatorService statCalculatorService = createStatService();
+        StatBatch batch = new StatBatch(4);
+        batch.add(1, 6000);
+        batch.add(2, 7500);
+        batch.add(3, 10500);
+        batch.add(4, 4000);
+        batch.add(5, 11000);
+        BatchResult batchResult = statCalculatorService.addAll(batch);
+        assertEquals(3, batchResult.getAccepted());
+        assertEquals(1, batchResult.getLate());
+        assertEquals(1, batchResult.getFuture());
+
+        assertResult(3, 6, 3, 1, 2, statCalculatorService.getCurrentAggStat());
+        assertResult(3, 6, 3, 1, 2, statCalculatorService.getAggStat(Duration.ofSeconds(20)));
+        assertResult(3, 6, 3, 1, 2, statCalculatorService.getAggStat(Duration.ofSeconds(60)));
+    }
+}
@@ -0,0 +1,90 @@
+package com.tango;
+
+import com.tango.domain.Stat;
+import com.tango.domain.StatBatch;
+import com.tango.services.CalculatorConfig;
+import com.tango.services.TopStatCalculatorService;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TopStatCalculatorServiceTest {
+    private final ManualTimeSource timeSource = new ManualTimeSource();
+
+    private TopStatCalculatorService createStatService(int maxDuration, int topSize) {
+        CalculatorConfig calculatorConfig = new CalculatorConfig(maxDuration, 1);
+        calculatorConfig.setTopSize(topSize);
+        return new TopStatCalculatorService(calculatorConfig, timeSource);
+    }
+
+    private void assertTop(List<Stat> top, double... amounts) {
+        assertEquals(amounts.length, top.size());
+        for (int i = 0; i < amounts.length; ++i) {
+            assertEquals(amounts[i], top.get(i).getAmount(), 0);
+        }
+    }
+
+    @Test
+    public void topTest() {
+        timeSource.set(6000L);
+
+        TopStatCalculatorService statCalculatorService = createStatService(5, 3);
+        statCalculatorService.add(new Stat(100, 1000));
+        statCalculatorService.add(new Stat(1, 2000));
+        statCalculatorService.add(new Stat(7, 2500));
+        statCalculatorService.add(new Stat(5, 2600));
+        statCalculatorService.add(new Stat(6, 2700));
+        statCalculatorService.add(new Stat(2, 2800));
+        statCalculatorService.add(new Stat(9, 4000));
+        statCalculatorService.add(new Stat(50, 7000));
+        StatBatch batch = new StatBatch(2);
+        batch.add(8, 6500);
+        batch.add(-8, 6500);
+        statCalculatorService.addAll(batch);
+
+        List<Stat> top = statCalculatorService.getTop(3);
+        assertTop(top, 9, 8, 7);
+        assertEquals(4000, top.get(0).getTimestamp());
+        assertEquals(2500, top.get(2).getTimestamp());
+        assertTop(statCalculatorService.getTop(1), 9);
+
+        //the bucket of 7, 6 and 5 leaves the window
+        timeSource.set(8000L);
+        assertTop(statCalculatorService.getTop(3), 9, 8);
+    }
+
+    @Test
+    public void mergeTest() {
+        timeSource.set(60000L);
+
+        TopStatCalculatorService statCalculatorService = createStatService(60, 10);
+        Random random = new Random(42);
+        List<Double> amounts = new ArrayList<>();
+        for (int i = 0; i < 10000; ++i) {
+            double amount = random.nextInt(1000000) / 100.0;
+            amounts.add(amount);
+            statCalculatorService.add(new Stat(amount, 1000 + random.nextInt(59000)));
+        }
+        amounts.sort(Collections.reverseOrder());
+
+        List<Stat> top = statCalculatorService.getTop(10);
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(amounts.get(i), top.get(i).getAmount(), 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyTest() {
+        createStatService(5, 3).getTop(4);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void turnedOffTest() {
+        createStatService(5, 0).getTop(1);
+    }
+}